@@ -0,0 +1,28 @@
+package org.redline_rpm.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line options, always adding the GC profiler
+ * so that every result reports the bytes allocated per operation beside the throughput.
+ */
+public class Benchmarks {
+
+	private Benchmarks() {}
+
+	public static void main( final String[] args) throws Exception {
+		final CommandLineOptions options = new CommandLineOptions( args);
+		if ( options.shouldHelp()) {
+			options.showHelp();
+			return;
+		}
+		if ( options.shouldList()) {
+			new Runner( options).list();
+			return;
+		}
+		new Runner( new OptionsBuilder().parent( options).addProfiler( GCProfiler.class).build()).run();
+	}
+}
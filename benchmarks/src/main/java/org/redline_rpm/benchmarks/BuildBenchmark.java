@@ -0,0 +1,74 @@
+package org.redline_rpm.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.redline_rpm.header.PayloadCompressionType;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link org.redline_rpm.Builder#build(java.nio.channels.FileChannel)} over synthetic
+ * file trees, from many tiny files to a few huge ones, with and without payload compression.
+ */
+@State( Scope.Benchmark)
+@BenchmarkMode( Mode.Throughput)
+@OutputTimeUnit( TimeUnit.SECONDS)
+@Warmup( iterations = 3, time = 5)
+@Measurement( iterations = 5, time = 5)
+@Fork( 1)
+public class BuildBenchmark {
+
+	@Param( { "tiny", "mixed", "huge"})
+	public Trees.Shape shape;
+
+	@Param( { "none", "gzip"})
+	public PayloadCompressionType compression;
+
+	@Param( { "false", "true"})
+	public boolean parallelDigests;
+
+	private File root;
+	private File rpm;
+	private List< File> files;
+
+	@Setup
+	public void setup() throws Exception {
+		root = Files.createTempDirectory( "redline-build").toFile();
+		rpm = File.createTempFile( "redline-build", ".rpm");
+		files = Trees.create( new File( root, "tree"), shape);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		Trees.delete( root);
+		rpm.delete();
+	}
+
+	@Benchmark
+	public long build() throws Exception {
+		final org.redline_rpm.Builder builder = Trees.builder( new File( root, "tree"), files, compression);
+		builder.setParallelDigests( parallelDigests);
+		final RandomAccessFile file = new RandomAccessFile( rpm, "rw");
+		try {
+			file.setLength( 0);
+			builder.build( file.getChannel());
+			return file.length();
+		} finally {
+			file.close();
+		}
+	}
+}
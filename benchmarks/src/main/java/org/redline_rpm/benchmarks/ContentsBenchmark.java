@@ -0,0 +1,67 @@
+package org.redline_rpm.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.redline_rpm.payload.CompactContents;
+import org.redline_rpm.payload.ContentSource;
+import org.redline_rpm.payload.ContentSources;
+import org.redline_rpm.payload.Contents;
+import org.redline_rpm.payload.FileTable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures adding files to the standard and compact file tables, and generating the file
+ * columns of the RPM header from them.
+ */
+@State( Scope.Benchmark)
+@BenchmarkMode( Mode.Throughput)
+@OutputTimeUnit( TimeUnit.SECONDS)
+@Warmup( iterations = 3, time = 2)
+@Measurement( iterations = 5, time = 2)
+@Fork( 1)
+public class ContentsBenchmark {
+
+	@Param( { "standard", "compact"})
+	public String contents;
+
+	@Param( { "10000", "200000"})
+	public int files;
+
+	private String[] paths;
+	private ContentSource source;
+	private Contents populated;
+
+	@Setup
+	public void setup() {
+		paths = new String[ files];
+		for ( int i = 0; i < files; i++) paths[ i] = "/opt/benchmark/dir" + ( i % 1000) + "/file" + i;
+		source = ContentSources.bytes( new byte[ 16], 1400000000000L);
+		populated = populate();
+	}
+
+	@Benchmark
+	public Contents add() {
+		return populate();
+	}
+
+	@Benchmark
+	public FileTable fileTable() throws Exception {
+		return populated.getFileTable();
+	}
+
+	private Contents populate() {
+		final Contents result = "compact".equals( contents) ? new CompactContents() : new Contents();
+		for ( String path : paths) result.addSource( path, source, 0644, null, null, null, -1);
+		return result;
+	}
+}
@@ -0,0 +1,62 @@
+package org.redline_rpm.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.redline_rpm.payload.CpioHeader;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding and decoding a single cpio entry header, as done once for every file in a payload.
+ */
+@State( Scope.Thread)
+@BenchmarkMode( Mode.Throughput)
+@OutputTimeUnit( TimeUnit.SECONDS)
+@Warmup( iterations = 3, time = 2)
+@Measurement( iterations = 5, time = 2)
+@Fork( 1)
+public class CpioBenchmark {
+
+	private static final String NAME = "./opt/benchmark/dir42/lib/libbenchmark.so.1.2.3";
+
+	private CpioHeader header;
+	private ByteBuffer bytes;
+	private MemoryChannels.Null out;
+
+	@Setup
+	public void setup() throws Exception {
+		header = new CpioHeader( NAME);
+		header.setType( CpioHeader.FILE);
+		header.setPermissions( 0755);
+		header.setInode( 12345);
+		header.setMtime( 1400000000000L);
+		header.setFileSize( 987654);
+		out = new MemoryChannels.Null();
+		final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		header.write( Channels.newChannel( encoded), 0);
+		bytes = ByteBuffer.wrap( encoded.toByteArray());
+	}
+
+	@Benchmark
+	public long encode() throws Exception {
+		return header.write( out, 0);
+	}
+
+	@Benchmark
+	public CpioHeader decode() throws Exception {
+		final CpioHeader read = new CpioHeader();
+		read.read( new MemoryChannels.Reader( bytes), 0);
+		return read;
+	}
+}
@@ -0,0 +1,107 @@
+package org.redline_rpm.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.redline_rpm.header.AbstractHeader.Entry;
+import org.redline_rpm.header.Header;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.concurrent.TimeUnit;
+
+import static org.redline_rpm.header.Header.HeaderTag.BASENAMES;
+import static org.redline_rpm.header.Header.HeaderTag.DIRINDEXES;
+import static org.redline_rpm.header.Header.HeaderTag.DIRNAMES;
+import static org.redline_rpm.header.Header.HeaderTag.FILEDIGESTS;
+import static org.redline_rpm.header.Header.HeaderTag.FILEMODES;
+import static org.redline_rpm.header.Header.HeaderTag.FILEMTIMES;
+import static org.redline_rpm.header.Header.HeaderTag.FILEUSERNAME;
+import static org.redline_rpm.header.Header.HeaderTag.LONGFILESIZES;
+import static org.redline_rpm.header.Header.HeaderTag.NAME;
+
+/**
+ * Measures writing an RPM header with file columns of the given length, and reading it back
+ * eagerly, or lazily decoding only the package name.
+ */
+@State( Scope.Benchmark)
+@BenchmarkMode( Mode.Throughput)
+@OutputTimeUnit( TimeUnit.SECONDS)
+@Warmup( iterations = 3, time = 2)
+@Measurement( iterations = 5, time = 2)
+@Fork( 1)
+public class HeaderBenchmark {
+
+	@Param( { "1000", "100000"})
+	public int files;
+
+	private Header header;
+	private ByteBuffer bytes;
+
+	@Setup
+	public void setup() throws Exception {
+		header = new Header();
+		header.createEntry( NAME, "benchmark");
+		final String[] dirNames = new String[ 100];
+		for ( int i = 0; i < dirNames.length; i++) dirNames[ i] = "/opt/benchmark/dir" + i + "/";
+		final int[] dirIndexes = new int[ files];
+		final String[] baseNames = new String[ files];
+		final short[] modes = new short[ files];
+		final int[] mtimes = new int[ files];
+		final long[] sizes = new long[ files];
+		final String[] digests = new String[ files];
+		final String[] users = new String[ files];
+		for ( int i = 0; i < files; i++) {
+			dirIndexes[ i] = i % dirNames.length;
+			baseNames[ i] = "file" + i;
+			modes[ i] = ( short) 0100644;
+			mtimes[ i] = 1400000000 + i;
+			sizes[ i] = i * 31L;
+			digests[ i] = String.format( "%064x", i);
+			users[ i] = "root";
+		}
+		header.createEntry( DIRNAMES, dirNames);
+		header.createEntry( DIRINDEXES, dirIndexes);
+		header.createEntry( BASENAMES, baseNames);
+		header.createEntry( FILEMODES, modes);
+		header.createEntry( FILEMTIMES, mtimes);
+		header.createEntry( LONGFILESIZES, sizes);
+		header.createEntry( FILEDIGESTS, digests);
+		header.createEntry( FILEUSERNAME, users);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		header.write( Channels.newChannel( out));
+		bytes = ByteBuffer.wrap( out.toByteArray());
+	}
+
+	@Benchmark
+	public long write() throws Exception {
+		final MemoryChannels.Null out = new MemoryChannels.Null();
+		header.write( out);
+		return out.count;
+	}
+
+	@Benchmark
+	public Header read() throws Exception {
+		final Header read = new Header();
+		read.read( bytes.duplicate());
+		return read;
+	}
+
+	@Benchmark
+	public Object readLazyName() throws Exception {
+		final Header read = new Header();
+		read.setLazy( true);
+		read.read( bytes.duplicate());
+		final Entry< ?> name = read.getEntry( NAME);
+		return name.getValues();
+	}
+}
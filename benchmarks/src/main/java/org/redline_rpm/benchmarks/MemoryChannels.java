@@ -0,0 +1,63 @@
+package org.redline_rpm.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Channels and streams that keep IO out of the measurements.
+ */
+final class MemoryChannels {
+
+	private MemoryChannels() {}
+
+	/**
+	 * A channel that discards what is written, counting the bytes.
+	 */
+	static final class Null implements WritableByteChannel {
+		long count;
+
+		public int write( final ByteBuffer buffer) {
+			final int length = buffer.remaining();
+			buffer.position( buffer.limit());
+			count += length;
+			return length;
+		}
+
+		public boolean isOpen() { return true; }
+		public void close() {}
+	}
+
+	/**
+	 * A channel that reads the remaining bytes of a buffer, without copying them up front.
+	 */
+	static final class Reader implements ReadableByteChannel {
+		private final ByteBuffer source;
+
+		Reader( final ByteBuffer source) {
+			this.source = source.duplicate();
+		}
+
+		public int read( final ByteBuffer buffer) {
+			if ( !source.hasRemaining()) return -1;
+			final int length = Math.min( buffer.remaining(), source.remaining());
+			final ByteBuffer slice = source.duplicate();
+			slice.limit( slice.position() + length);
+			buffer.put( slice);
+			source.position( source.position() + length);
+			return length;
+		}
+
+		public boolean isOpen() { return true; }
+		public void close() {}
+	}
+
+	static PrintStream nullPrintStream() {
+		return new PrintStream( new OutputStream() {
+			public void write( final int b) {}
+			public void write( final byte[] b, final int offset, final int length) {}
+		});
+	}
+}
@@ -0,0 +1,95 @@
+package org.redline_rpm.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.redline_rpm.Builder;
+import org.redline_rpm.ReadableChannelWrapper;
+import org.redline_rpm.Scanner;
+import org.redline_rpm.header.Format;
+import org.redline_rpm.header.PayloadCompressionType;
+import org.redline_rpm.payload.CompactContents;
+import org.redline_rpm.payload.ContentSources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.redline_rpm.header.Architecture.NOARCH;
+import static org.redline_rpm.header.Os.LINUX;
+import static org.redline_rpm.header.RpmType.BINARY;
+
+/**
+ * Measures {@link Scanner#run(ReadableChannelWrapper)} reading the lead, signature and header of
+ * the RPMs bundled with the tests, and of a generated package listing many files, from memory.
+ */
+@State( Scope.Benchmark)
+@BenchmarkMode( Mode.Throughput)
+@OutputTimeUnit( TimeUnit.SECONDS)
+@Warmup( iterations = 3, time = 2)
+@Measurement( iterations = 5, time = 2)
+@Fork( 1)
+public class ScanBenchmark {
+
+	private static final String GENERATED = "generated";
+	private static final int GENERATED_FILES = 50000;
+
+	@Param( { "rpm-1-1.0-1.noarch.rpm", "rpm-3-1.0-1.somearch.rpm", "rpmtest-3-0.1.XZ.fc19.noarch.rpm", GENERATED})
+	public String rpm;
+
+	private ByteBuffer bytes;
+	private PrintStream output;
+
+	@Setup
+	public void setup() throws Exception {
+		bytes = ByteBuffer.wrap( GENERATED.equals( rpm) ? generate() : load( rpm));
+		output = MemoryChannels.nullPrintStream();
+	}
+
+	@Benchmark
+	public Format scan() throws Exception {
+		return new Scanner( output).run( new ReadableChannelWrapper( new MemoryChannels.Reader( bytes)));
+	}
+
+	private static byte[] load( final String name) throws Exception {
+		final InputStream in = ScanBenchmark.class.getResourceAsStream( "/" + name);
+		if ( in == null) throw new IllegalStateException( "Missing resource '" + name + "'.");
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[ 8192];
+			int read;
+			while (( read = in.read( buffer)) != -1) out.write( buffer, 0, read);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] generate() throws Exception {
+		final Builder builder = new Builder();
+		builder.setFiles( new CompactContents());
+		builder.setPackage( "generated", "1.0", "1");
+		builder.setBuildHost( "localhost");
+		builder.setLicense( "MIT");
+		builder.setPlatform( NOARCH, LINUX);
+		builder.setType( BINARY);
+		builder.setPayloadCompression( PayloadCompressionType.none);
+		final byte[] data = new byte[ 16];
+		for ( int i = 0; i < GENERATED_FILES; i++) {
+			builder.addSource( "/opt/generated/dir" + ( i % 500) + "/file" + i, ContentSources.bytes( data, 1400000000000L), 0644, -1, null, null, null);
+		}
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		builder.build( out);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,114 @@
+package org.redline_rpm.benchmarks;
+
+import org.redline_rpm.Builder;
+import org.redline_rpm.header.PayloadCompressionType;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.redline_rpm.header.Architecture.NOARCH;
+import static org.redline_rpm.header.Os.LINUX;
+import static org.redline_rpm.header.RpmType.BINARY;
+
+/**
+ * Synthetic file trees of different shapes to build packages from.
+ */
+public final class Trees {
+
+	private Trees() {}
+
+	/**
+	 * Shapes of file tree, from many tiny files spread over many directories to a few huge ones.
+	 */
+	public enum Shape {
+		tiny( 5000, 256, 50),
+		mixed( 500, 64 * 1024, 20),
+		huge( 4, 32 * 1024 * 1024, 1);
+
+		final int files;
+		final int size;
+		final int directories;
+
+		Shape( final int files, final int size, final int directories) {
+			this.files = files;
+			this.size = size;
+			this.directories = directories;
+		}
+	}
+
+	/**
+	 * Writes a tree of files of the given shape, filled with reproducible pseudo random bytes
+	 * that compress about as well as typical binaries.
+	 *
+	 * @param directory the directory to write the tree in
+	 * @param shape the shape of the tree
+	 * @return the files written, in order
+	 * @throws IOException if the files cannot be written
+	 */
+	static List< File> create( final File directory, final Shape shape) throws IOException {
+		final Random random = new Random( 42);
+		final byte[] block = new byte[ Math.min( shape.size, 64 * 1024)];
+		final List< File> files = new ArrayList< File>( shape.files);
+		for ( int i = 0; i < shape.files; i++) {
+			final File parent = new File( directory, "dir" + ( i % shape.directories));
+			parent.mkdirs();
+			final File file = new File( parent, "file" + i);
+			final OutputStream out = new FileOutputStream( file);
+			try {
+				for ( int written = 0; written < shape.size; written += block.length) {
+					for ( int x = 0; x < block.length; x++) block[ x] = ( byte) ( random.nextInt( 16) * random.nextInt( 16));
+					out.write( block, 0, Math.min( block.length, shape.size - written));
+				}
+			} finally {
+				out.close();
+			}
+			files.add( file);
+		}
+		return files;
+	}
+
+	/**
+	 * Creates a builder of a package holding the given files.
+	 *
+	 * @param root the root of the tree the files are in
+	 * @param files the files to package
+	 * @param compression the payload compression
+	 * @return the builder
+	 * @throws Exception if a file cannot be added
+	 */
+	static Builder builder( final File root, final List< File> files, final PayloadCompressionType compression) throws Exception {
+		final Builder builder = new Builder();
+		builder.setPackage( "benchmark", "1.0", "1");
+		builder.setBuildHost( "localhost");
+		builder.setLicense( "MIT");
+		builder.setPlatform( NOARCH, LINUX);
+		builder.setType( BINARY);
+		builder.setPayloadCompression( compression);
+		final int prefix = root.getPath().length();
+		for ( File file : files) builder.addFile( "/opt/benchmark" + file.getPath().substring( prefix).replace( '\\', '/'), file);
+		return builder;
+	}
+
+	static void delete( final File directory) throws IOException {
+		Files.walkFileTree( directory.toPath(), new SimpleFileVisitor< Path>() {
+			public FileVisitResult visitFile( final Path file, final BasicFileAttributes attributes) throws IOException {
+				Files.delete( file);
+				return FileVisitResult.CONTINUE;
+			}
+			public FileVisitResult postVisitDirectory( final Path dir, final IOException e) throws IOException {
+				Files.delete( dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
@@ -0,0 +1,209 @@
+package org.redline_rpm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.redline_rpm.payload.DigestCache;
+
+/**
+ * Builds many RPMs concurrently. Each package is configured on its own {@link Builder} and added
+ * to the batch with the directory it is to be written to. {@link #build()} then generates the
+ * packages on a bounded pool of threads, starting with those holding the most file data so that
+ * a large package is not left running alone at the end of the batch, and reports the outcome of
+ * every package rather than stopping at the first failure.
+ *
+ * File digests for all the packages are calculated on one shared pool of workers, and may be kept
+ * in a shared {@link DigestCache}. Packages built with {@link Builder#setParallelDigests(boolean)
+ * parallel digests} run them on one cached pool for the batch, unless their builder has an
+ * executor of its own. A builder must not be used elsewhere while its batch is running.
+ */
+public class BatchBuilder {
+
+	/**
+	 * The outcome of building one package.
+	 */
+	public static class Result {
+		private final Builder builder;
+		private final File directory;
+		private String name;
+		private Throwable failure;
+		private long time;
+		private long size;
+
+		Result( final Builder builder, final File directory) {
+			this.builder = builder;
+			this.directory = directory;
+		}
+
+		/**
+		 * The builder that defined the package.
+		 * @return the builder
+		 */
+		public Builder getBuilder() { return builder; }
+
+		/**
+		 * The directory the package was written to.
+		 * @return the directory
+		 */
+		public File getDirectory() { return directory; }
+
+		/**
+		 * The file name of the generated RPM.
+		 * @return the name of the rpm, or null if the build failed
+		 */
+		public String getName() { return name; }
+
+		/**
+		 * The error that stopped the package being built.
+		 * @return the failure, or null if the build succeeded
+		 */
+		public Throwable getFailure() { return failure; }
+
+		/**
+		 * Whether the package was built.
+		 * @return true if the build succeeded
+		 */
+		public boolean isSuccess() { return failure == null; }
+
+		/**
+		 * The time taken to build the package.
+		 * @return the elapsed time in milliseconds
+		 */
+		public long getTime() { return time; }
+	}
+
+	private final int threads;
+	private final int digestThreads;
+	private final List< Result> results = new ArrayList< Result>();
+	private DigestCache digestCache;
+	private boolean cachePrivateKeys;
+
+	/**
+	 * Creates a batch that builds packages on the given number of threads, with as many threads
+	 * again shared between them for file digests.
+	 *
+	 * @param threads the number of packages built at once
+	 */
+	public BatchBuilder( final int threads) {
+		this( threads, threads);
+	}
+
+	/**
+	 * Creates a batch.
+	 *
+	 * @param threads the number of packages built at once
+	 * @param digestThreads the number of threads shared by all the packages for file digests
+	 */
+	public BatchBuilder( final int threads, final int digestThreads) {
+		if ( threads < 1 || digestThreads < 1) throw new IllegalArgumentException( "A batch needs at least one thread of each kind.");
+		this.threads = threads;
+		this.digestThreads = digestThreads;
+	}
+
+	/**
+	 * Sets a persistent cache of file digests shared by every package in the batch.
+	 *
+	 * @param cacheFile the file holding the cache, which is created if it does not exist
+	 * @throws IOException if the cache cannot be read
+	 */
+	public void setDigestCache( final File cacheFile) throws IOException {
+		this.digestCache = cacheFile == null ? null : new DigestCache( cacheFile);
+	}
+
+	/**
+	 * Shares each decrypted signing key between the packages of the batch, and with later builds,
+	 * by enabling {@link Builder#setCachePrivateKey(boolean)} on every builder. Otherwise each
+	 * builder keeps its own setting.
+	 *
+	 * @param cachePrivateKeys true to cache the signing keys of every package
+	 */
+	public void setCachePrivateKeys( final boolean cachePrivateKeys) {
+		this.cachePrivateKeys = cachePrivateKeys;
+	}
+
+	/**
+	 * Adds a package to the batch.
+	 *
+	 * @param builder the builder defining the package
+	 * @param directory the destination directory for the new RPM file
+	 */
+	public void add( final Builder builder, final File directory) {
+		results.add( new Result( builder, directory));
+	}
+
+	/**
+	 * Builds every package added to the batch, waiting until all have finished.
+	 *
+	 * @return the outcome of each package, in the order the packages were added
+	 * @throws InterruptedIOException if the calling thread is interrupted while waiting, in
+	 * which case the builds still running are cancelled
+	 */
+	public List< Result> build() throws InterruptedIOException {
+		final List< Result> order = new ArrayList< Result>( results);
+		for ( Result result : order) result.size = result.builder.contents.getLongTotalSize();
+		Collections.sort( order, new Comparator< Result>() {
+			public int compare( final Result one, final Result two) {
+				return one.size > two.size ? -1 : one.size < two.size ? 1 : 0;
+			}
+		});
+
+		final ExecutorService digests = Executors.newFixedThreadPool( digestThreads, factory( "redline-batch-digest"));
+		final ExecutorService builds = Executors.newFixedThreadPool( threads, factory( "redline-batch"));
+		final ExecutorService consumers = Executors.newCachedThreadPool( factory( "redline-batch-consumer"));
+		final List< Future< Void>> futures = new ArrayList< Future< Void>>( order.size());
+		try {
+			for ( final Result result : order) {
+				result.builder.setDigestExecutor( digests);
+				if ( result.builder.digestThreads < 1) result.builder.setDigestThreads( Math.max( 1, digestThreads / threads));
+				if ( digestCache != null) result.builder.setDigestCache( digestCache);
+				if ( cachePrivateKeys) result.builder.setCachePrivateKey( true);
+				if ( result.builder.parallelDigestExecutor == null) result.builder.setParallelDigestExecutor( consumers);
+				futures.add( builds.submit( new Callable< Void>() {
+					public Void call() {
+						final long start = System.currentTimeMillis();
+						try {
+							result.name = result.builder.build( result.directory);
+						} catch ( Throwable t) {
+							result.failure = t;
+						}
+						result.time = System.currentTimeMillis() - start;
+						return null;
+					}
+				}));
+			}
+			for ( Future< Void> future : futures) future.get();
+		} catch ( InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted while building packages.");
+		} catch ( ExecutionException e) {
+			throw new RuntimeException( e.getCause());
+		} finally {
+			for ( Future< Void> future : futures) future.cancel( true);
+			builds.shutdownNow();
+			digests.shutdownNow();
+			consumers.shutdownNow();
+		}
+		return new ArrayList< Result>( results);
+	}
+
+	private static ThreadFactory factory( final String name) {
+		return new ThreadFactory() {
+			public Thread newThread( final Runnable runnable) {
+				final Thread thread = new Thread( runnable, name);
+				thread.setDaemon( true);
+				return thread;
+			}
+		};
+	}
+}
@@ -0,0 +1,123 @@
+package org.redline_rpm;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of equally sized buffers for copying file contents, so that large builds and
+ * scans reuse a few large buffers rather than allocating small ones for every file. The
+ * buffers are direct by default, so that channels read into and write from them without
+ * an intermediate copy. Buffers may be acquired and released from any thread.
+ */
+public class BufferPool {
+
+	/**
+	 * The default size of each buffer.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+	/**
+	 * The default number of released buffers kept for reuse.
+	 */
+	public static final int DEFAULT_CAPACITY = 32;
+
+	private static volatile BufferPool shared = new BufferPool( DEFAULT_BUFFER_SIZE, DEFAULT_CAPACITY, true);
+
+	private final int bufferSize;
+	private final int capacity;
+	private final boolean direct;
+	private final Queue< ByteBuffer> free = new ConcurrentLinkedQueue< ByteBuffer>();
+	private final AtomicInteger pooled = new AtomicInteger();
+	private final AtomicLong usage = new AtomicLong();
+	private final AtomicLong peak = new AtomicLong();
+
+	/**
+	 * Creates a pool of buffers.
+	 *
+	 * @param bufferSize the size of each buffer
+	 * @param capacity the number of released buffers kept for reuse, beyond which released
+	 * buffers are left to the garbage collector
+	 * @param direct true for direct buffers, false for buffers on the heap
+	 */
+	public BufferPool( final int bufferSize, final int capacity, final boolean direct) {
+		if ( bufferSize < 1) throw new IllegalArgumentException( "Buffer size must be positive.");
+		if ( capacity < 0) throw new IllegalArgumentException( "Capacity must not be negative.");
+		this.bufferSize = bufferSize;
+		this.capacity = capacity;
+		this.direct = direct;
+	}
+
+	/**
+	 * Gets the pool used by builds and scans.
+	 *
+	 * @return the shared pool
+	 */
+	public static BufferPool getShared() {
+		return shared;
+	}
+
+	/**
+	 * Replaces the pool used by builds and scans, for example to change the size of the buffers.
+	 *
+	 * @param pool the new shared pool
+	 */
+	public static void setShared( final BufferPool pool) {
+		if ( pool == null) throw new IllegalArgumentException( "Pool must not be null.");
+		shared = pool;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Gets the most bytes of buffers acquired and not yet released at any one time since the
+	 * pool was created or {@link #resetPeakUsage()} was last called.
+	 *
+	 * @return the peak usage in bytes
+	 */
+	public long getPeakUsage() {
+		return peak.get();
+	}
+
+	/**
+	 * Restarts measuring the peak usage from the current usage.
+	 */
+	public void resetPeakUsage() {
+		peak.set( usage.get());
+	}
+
+	/**
+	 * Takes a buffer from the pool, allocating one if none is free.
+	 *
+	 * @return a cleared buffer of {@link #getBufferSize()} bytes
+	 */
+	public ByteBuffer acquire() {
+		final long used = usage.addAndGet( bufferSize);
+		for ( long max = peak.get(); used > max && !peak.compareAndSet( max, used); max = peak.get());
+		final ByteBuffer buffer = free.poll();
+		if ( buffer == null) return direct ? ByteBuffer.allocateDirect( bufferSize) : ByteBuffer.allocate( bufferSize);
+		pooled.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer to the pool. The buffer must not be used after it is released.
+	 * Buffers that did not come from a pool of this size and kind are ignored.
+	 *
+	 * @param buffer the buffer to return, or null
+	 */
+	public void release( final ByteBuffer buffer) {
+		if ( buffer == null || buffer.capacity() != bufferSize || buffer.isDirect() != direct || buffer.isReadOnly()) return;
+		usage.addAndGet( -bufferSize);
+		if ( pooled.incrementAndGet() > capacity) {
+			pooled.decrementAndGet();
+			return;
+		}
+		free.add( buffer);
+	}
+}
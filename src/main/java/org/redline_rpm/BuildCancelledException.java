@@ -0,0 +1,15 @@
+package org.redline_rpm;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Thrown by a build whose {@link CancellationToken} was cancelled.
+ */
+public class BuildCancelledException extends InterruptedIOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public BuildCancelledException() {
+		super( "Build cancelled.");
+	}
+}
@@ -1,17 +1,25 @@
 package org.redline_rpm;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.io.RandomAccessFile;
 import java.net.URL;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.util.HashSet;
@@ -20,22 +28,31 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPOutputStream;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 
 import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.redline_rpm.Metrics.Phase;
 import org.redline_rpm.changelog.ChangelogHandler;
 import org.redline_rpm.changelog.ChangelogParseException;
 import org.redline_rpm.header.Architecture;
 import org.redline_rpm.header.Format;
 import org.redline_rpm.header.Os;
+import org.redline_rpm.header.PayloadCompressionType;
 import org.redline_rpm.header.RpmType;
+import org.redline_rpm.payload.ContentSource;
 import org.redline_rpm.payload.Contents;
+import org.redline_rpm.payload.DigestCache;
 import org.redline_rpm.payload.CpioHeader;
 import org.redline_rpm.payload.Directive;
+import org.redline_rpm.payload.FileTable;
+import org.redline_rpm.payload.ParallelBlockOutputStream;
+import org.redline_rpm.payload.PayloadCodec;
+import org.redline_rpm.payload.PayloadCodecs;
 
 import static org.redline_rpm.ChannelWrapper.*;
 import static org.redline_rpm.header.AbstractHeader.*;
@@ -63,6 +80,9 @@ public class Builder {
 	private static final int MD5SIZE = 32;
 
 	private static final String DEFAULTSCRIPTPROG = "/bin/sh";
+	private static final String FINGERPRINT_VERSION = "redline-fingerprint 1";
+	private static final String FINGERPRINT_SUFFIX = ".fingerprint";
+	private static final long TRANSFER_SIZE = 16 * 1024 * 1024;
 
 	private static final char[] ILLEGAL_CHARS_VARIABLE = new char[] { '-', '/' };
 	private static final char[] ILLEGAL_CHARS_NAME = new char[] { '/', ' ', '\t', '\n', '\r' };
@@ -96,6 +116,28 @@ public class Builder {
     protected String privateKeyId;
     protected String privateKeyPassphrase;
     protected PGPPrivateKey privateKey;
+    protected boolean cachePrivateKey;
+	/**
+	 * Sizes from this value up do not fit the 32 bit size entries and cpio headers.
+	 */
+	private static final long LARGE_SIZE = 0xFFFFFFFFL;
+
+	protected boolean spoolPayload;
+	protected File spoolDirectory;
+	protected int compressionThreads;
+	protected int digestThreads;
+	protected DigestCache digestCache;
+	protected ExecutorService digestExecutor;
+	protected boolean parallelDigests;
+	protected Executor parallelDigestExecutor;
+	protected MetricsListener metricsListener;
+	protected ProgressListener progressListener;
+	protected CancellationToken cancellationToken;
+	private Metrics metrics;
+	private Progress progress;
+	protected boolean fingerprint;
+	protected PayloadCodec payloadCodec = PayloadCodecs.GZIP;
+	protected int compressionLevel = PayloadCodecs.GZIP.getDefaultLevel();
 
 	/**
 	 * Initializes the builder and sets some required fields to known values.
@@ -1072,6 +1114,22 @@ public class Builder {
         contents.addURL( path, source, mode, directive, username, group, dirmode);
     }
 
+	/**
+	 * Adds a file to the repository whose content is read from a source, such as a byte array or
+	 * a stream created by {@link org.redline_rpm.payload.ContentSources}.
+	 *
+	 * @param path the absolute path at which this file will be installed.
+	 * @param source the file content to include in this rpm.
+	 * @param mode the mode of the target file in standard three octet notation, or -1 for default.
+	 * @param dirmode the mode of the parent directories in standard three octet notation, or -1 for default.
+	 * @param directive directive indicating special handling for this file, or null.
+	 * @param username ownership of added file, or null for default.
+	 * @param group ownership of added file, or null for default.
+	 */
+	public void addSource( final String path, final ContentSource source, final int mode, final int dirmode, final Directive directive, final String username, final String group) {
+		contents.addSource( path, source, mode, directive, username, group, dirmode);
+	}
+
 	/**
 	 * Adds the directory to the repository with the default mode of <code>644</code>.
 	 *
@@ -1224,6 +1282,207 @@ public class Builder {
         this.privateKey = privateKey;
     }
 
+    /**
+     * Keeps the private key read from the {@link #setPrivateKeyRingFile(java.io.File) key ring file}
+     * in the process wide {@link PrivateKeyCache}, so that other builds signing with the same key do
+     * not read and decrypt it again.
+     * @param cachePrivateKey true to share the decrypted key between builds
+     */
+    public void setCachePrivateKey( boolean cachePrivateKey ) {
+        this.cachePrivateKey = cachePrivateKey;
+    }
+
+	/**
+	 * Selects single pass payload generation. When enabled the compressed payload is generated
+	 * once into a temporary spool file, while its digest and size are computed, and then copied
+	 * into the RPM. When disabled, the payload is generated twice: once to compute the digest
+	 * recorded in the header and once more to write it.
+	 *
+	 * @param spoolPayload true to generate the payload once through a spool file
+	 */
+	public void setSpoolPayload( final boolean spoolPayload) {
+		this.spoolPayload = spoolPayload;
+	}
+
+	/**
+	 * Sets the directory in which payload spool files are created and enables single pass payload
+	 * generation. See {@link #setSpoolPayload(boolean)}.
+	 *
+	 * @param spoolDirectory the directory for spool files, or null for the default temporary directory
+	 */
+	public void setSpoolDirectory( final File spoolDirectory) {
+		this.spoolDirectory = spoolDirectory;
+		this.spoolPayload = true;
+	}
+
+	/**
+	 * Sets the number of threads used to compress the payload. For gzip and xz, any value greater than
+	 * zero selects a block parallel compressor, whose output is identical for every thread count and
+	 * which bounds memory by the block size times the thread count; zstd hands the value to its own
+	 * worker threads.
+	 * Zero, the default, compresses the payload as a single stream on the building thread.
+	 *
+	 * @param compressionThreads the number of compression threads, or zero to compress on the calling thread
+	 */
+	public void setCompressionThreads( final int compressionThreads) {
+		if ( compressionThreads < 0) throw new IllegalArgumentException( "Compression threads must not be negative.");
+		this.compressionThreads = compressionThreads;
+	}
+
+	/**
+	 * Sets the number of threads used to calculate the file digests. The digests are recorded in
+	 * the same order whatever the number of threads, so the package is unchanged. Zero or one,
+	 * the default, reads the files on the building thread.
+	 *
+	 * @param digestThreads the number of digest threads
+	 */
+	public void setDigestThreads( final int digestThreads) {
+		if ( digestThreads < 0) throw new IllegalArgumentException( "Digest threads must not be negative.");
+		this.digestThreads = digestThreads;
+	}
+
+	/**
+	 * Sets a persistent cache of file digests, so that files which have not changed since an earlier
+	 * build are not read again to calculate their digests. The cache may be shared by concurrent builds.
+	 *
+	 * @param cacheFile the file holding the cache, which is created if it does not exist
+	 * @throws IOException if the cache cannot be read
+	 */
+	public void setDigestCache( final File cacheFile) throws IOException {
+		this.digestCache = cacheFile == null ? null : new DigestCache( cacheFile);
+	}
+
+	/**
+	 * Sets a persistent cache of file digests that may be shared with other builders in this process.
+	 *
+	 * @param digestCache the digest cache, or null to read every file
+	 */
+	public void setDigestCache( final DigestCache digestCache) {
+		this.digestCache = digestCache;
+	}
+
+	/**
+	 * Calculates file digests on a shared executor instead of a pool of this builder's own, with the
+	 * number of concurrent workers set by {@link #setDigestThreads(int)}. The executor is left running.
+	 *
+	 * @param digestExecutor the executor to calculate digests on, or null for a pool of this builder's own
+	 */
+	public void setDigestExecutor( final ExecutorService digestExecutor) {
+		this.digestExecutor = digestExecutor;
+	}
+
+	/**
+	 * Calculates the package digests and signatures each on a thread of its own while the package
+	 * is written, instead of one after another on the building thread. The package is unchanged.
+	 * See {@link ChannelWrapper#setParallel(Executor)}.
+	 *
+	 * @param parallelDigests true to calculate the package digests in parallel
+	 */
+	public void setParallelDigests( final boolean parallelDigests) {
+		this.parallelDigests = parallelDigests;
+	}
+
+	/**
+	 * Runs the package digests and signatures calculated in parallel on the given executor, which
+	 * must be able to run all of them at once, such as a cached pool. The executor is left running.
+	 *
+	 * @param parallelDigestExecutor the executor, or null for {@link ChannelWrapper#getSharedExecutor()}
+	 */
+	public void setParallelDigestExecutor( final Executor parallelDigestExecutor) {
+		this.parallelDigestExecutor = parallelDigestExecutor;
+	}
+
+	/**
+	 * Measures each build, reporting the time spent in each {@link Metrics.Phase phase} and the sizes read
+	 * and written to the given listener once the build completes. Builds are not measured without one.
+	 *
+	 * @param metricsListener the listener to report to, or null to stop measuring builds
+	 */
+	public void setMetricsListener( final MetricsListener metricsListener) {
+		this.metricsListener = metricsListener;
+	}
+
+	/**
+	 * Reports the progress of each build through digesting the packaged files and writing them
+	 * to the payload to the given listener.
+	 *
+	 * @param progressListener the listener to report to, or null for none
+	 */
+	public void setProgressListener( final ProgressListener progressListener) {
+		this.progressListener = progressListener;
+	}
+
+	/**
+	 * Lets builds be cancelled through the given token. The token is checked before each packaged file
+	 * and after each buffer read from one, and once cancelled the build stops its digest and compression
+	 * threads and fails with a {@link BuildCancelledException}. {@link #build(File)} then deletes the
+	 * partly written RPM, while other forms of build leave their channel or stream to the caller.
+	 *
+	 * @param cancellationToken the token, or null if builds cannot be cancelled
+	 */
+	public void setCancellationToken( final CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken;
+	}
+
+	/**
+	 * Selects fingerprinting of builds to a directory. When enabled, {@link #build(File)} records a
+	 * fingerprint of its inputs in a file beside the RPM, named after it with a <code>.fingerprint</code>
+	 * suffix, and returns at once when the RPM it would build already exists with the same fingerprint.
+	 * The fingerprint covers the lead, every header entry but the build time, the dependencies and
+	 * triggers, the payload compression, the signing key and the metadata of each file together with
+	 * the path, size, modification time and inode of its source. File contents are never read, so a
+	 * source file is only seen to change when one of those attributes does. Packages with URL sources
+	 * are always built.
+	 *
+	 * @param fingerprint true to skip building an RPM whose inputs are unchanged
+	 */
+	public void setFingerprint( final boolean fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Sets the compression applied to the payload, at the default level for that compression.
+	 * The payload is compressed with gzip unless set otherwise.
+	 *
+	 * @param type the payload compression
+	 */
+	public void setPayloadCompression( final PayloadCompressionType type) {
+		setPayloadCodec( PayloadCodecs.get( type));
+	}
+
+	/**
+	 * Sets the compression applied to the payload and its level.
+	 *
+	 * @param type the payload compression
+	 * @param level the compression level, recorded in the payload flags
+	 */
+	public void setPayloadCompression( final PayloadCompressionType type, final int level) {
+		setPayloadCodec( PayloadCodecs.get( type), level);
+	}
+
+	/**
+	 * Sets the codec used to compress the payload, at its default level. The rpmlib feature the
+	 * codec needs, if any, is added to the requirements of the package when it is built.
+	 *
+	 * @param codec the payload codec
+	 */
+	public void setPayloadCodec( final PayloadCodec codec) {
+		setPayloadCodec( codec, codec.getDefaultLevel());
+	}
+
+	/**
+	 * Sets the codec used to compress the payload and its level.
+	 *
+	 * @param codec the payload codec
+	 * @param level the compression level, recorded in the payload flags
+	 */
+	public void setPayloadCodec( final PayloadCodec codec, final int level) {
+		if ( codec == null) throw new IllegalArgumentException( "Payload codec must not be null.");
+		this.payloadCodec = codec;
+		this.compressionLevel = level;
+		format.getHeader().createEntry( PAYLOADCOMPRESSOR, codec.getName());
+	}
+
     /**
 	 * Generates an RPM with a standard name consisting of the RPM package name, version, release,
 	 * and type in the given directory.
@@ -1236,13 +1495,101 @@ public class Builder {
 	public String build( final File directory) throws NoSuchAlgorithmException, IOException {
 		final String rpm = format.getLead().getName() + "." + format.getLead().getArch().toString().toLowerCase() + ".rpm";
 		final File file = new File( directory, rpm);
+		final File fingerprintFile = new File( directory, rpm + FINGERPRINT_SUFFIX);
+		final String fingerprint = this.fingerprint ? fingerprint() : null;
+		if ( fingerprint != null && fingerprint.equals( readFingerprint( file, fingerprintFile))) return rpm;
+		if ( fingerprintFile.exists()) fingerprintFile.delete();
 		if ( file.exists()) file.delete();
 		RandomAccessFile raFile = new RandomAccessFile( file, "rw");
-		build(raFile.getChannel());
-		raFile.close();
+		boolean built = false;
+		try {
+			build(raFile.getChannel());
+			built = true;
+		} finally {
+			raFile.close();
+			if ( !built) file.delete();
+		}
+		if ( fingerprint != null) writeFingerprint( file, fingerprintFile, fingerprint);
 		return rpm;
 	}
 
+	/**
+	 * Calculates a fingerprint of everything that determines the RPM this builder generates, apart
+	 * from the build time and the contents of the source files. See {@link #setFingerprint(boolean)}.
+	 *
+	 * @return the fingerprint, or null if the package has a source that cannot be fingerprinted
+	 * @throws NoSuchAlgorithmException the algorithm isn't supported
+	 * @throws IOException there was an IO error
+	 */
+	protected String fingerprint() throws NoSuchAlgorithmException, IOException {
+		final MessageDigest digest = MessageDigest.getInstance( "SHA-256");
+		final DataOutputStream out = new DataOutputStream( new DigestOutputStream( nullOutputStream(), digest));
+		out.writeUTF( FINGERPRINT_VERSION);
+		format.getLead().write( Channels.newChannel( out));
+		for ( Entry< ?> entry : format.getHeader().getEntries()) {
+			if ( entry.getTag() == BUILDTIME.getCode() || !entry.ready()) continue;
+			final ByteBuffer data = ByteBuffer.allocate( entry.size());
+			entry.write( data);
+			out.writeInt( entry.getTag());
+			out.writeInt( entry.getType());
+			out.writeInt( data.position());
+			out.write( data.array(), 0, data.position());
+		}
+		fingerprint( out, requires);
+		fingerprint( out, obsoletes);
+		fingerprint( out, conflicts);
+		fingerprint( out, new LinkedList< Dependency>( provides.values()));
+		for ( List< ?> values : new List< ?>[] { triggerscripts, triggerscriptprogs, triggernames, triggerversions, triggerflags, triggerindexes}) {
+			out.writeInt( values.size());
+			for ( Object value : values) out.writeUTF( String.valueOf( value));
+		}
+		out.writeUTF( payloadCodec.getName());
+		out.writeInt( compressionLevel);
+		out.writeBoolean( compressionThreads > 0);
+		out.writeUTF( String.valueOf( privateKeyRingFile));
+		out.writeUTF( String.valueOf( privateKeyId));
+		out.writeLong( privateKey == null ? 0 : privateKey.getKeyID());
+		out.writeInt( signatures.size());
+		if ( !contents.describe( out)) return null;
+		out.flush();
+		return Util.hex( digest.digest());
+	}
+
+	private static void fingerprint( final DataOutputStream out, final List< Dependency> dependencies) throws IOException {
+		out.writeInt( dependencies.size());
+		for ( Dependency dependency : dependencies) {
+			out.writeUTF( dependency.getName());
+			out.writeUTF( dependency.getVersion());
+			out.writeInt( dependency.getFlags());
+		}
+	}
+
+	/**
+	 * Reads the fingerprint recorded for an RPM, which is only valid while the RPM has the size and
+	 * modification time it had when the fingerprint was written.
+	 */
+	private static String readFingerprint( final File rpm, final File fingerprintFile) throws IOException {
+		if ( !rpm.isFile() || !fingerprintFile.isFile()) return null;
+		final BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( fingerprintFile), "UTF-8"));
+		try {
+			final String line = reader.readLine();
+			final String[] fields = line == null ? new String[ 0] : line.split( " ");
+			if ( fields.length != 3 || !fields[ 1].equals( String.valueOf( rpm.length())) || !fields[ 2].equals( String.valueOf( rpm.lastModified()))) return null;
+			return fields[ 0];
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static void writeFingerprint( final File rpm, final File fingerprintFile, final String fingerprint) throws IOException {
+		final Writer writer = new OutputStreamWriter( new FileOutputStream( fingerprintFile), "UTF-8");
+		try {
+			writer.write( fingerprint + " " + rpm.length() + " " + rpm.lastModified() + "\n");
+		} finally {
+			writer.close();
+		}
+	}
+
 	/**
 	 * Generates the rpm file to the provided file channel. This file channel must support memory mapping
 	 * and therefore should be created from a {@link RandomAccessFile}, otherwise an {@link IOException} will be
@@ -1252,13 +1599,253 @@ public class Builder {
 	 * @throws NoSuchAlgorithmException the algorithm isn't supported
 	 * @throws IOException there was an IO error
 	 */
-	@SuppressWarnings( "unchecked")
 	public void build( final FileChannel original) throws NoSuchAlgorithmException, IOException {
 		final WritableChannelWrapper output = new WritableChannelWrapper( original);
+		output.setParallel( getParallelDigestExecutor());
+		final long start = original.position();
+		startMetrics();
+		startProgress();
+
+		createHeaderEntries();
+		final PendingEntries pending = new PendingEntries();
+		enter( Phase.SIGN);
+        SignatureGenerator signatureGenerator = createSignatureGenerator();
+        signatureGenerator.prepare( format.getSignature() );
+		enter( Phase.HEADER);
+
+		final PayloadSpool spool = spoolPayload ? spoolPayload() : null;
+		try {
+			format.getLead().write( original);
+			signature.setValues( getSignature( format.getSignature().count()));
+			Util.empty( output, Util.zeros( format.getSignature().write( original)));
+
+			final Key< Long> sigsizekey = output.startLong();
+			final Key< byte[]> shakey = output.start( "SHA");
+			final Key< byte[]> md5key = output.start( "MD5");
+			final Key< byte[]> sha256key = output.start( "SHA-256");
+			signatureGenerator.startBeforeHeader( output );
+			immutable.setValues(getImmutable( format.getHeader().count()));
+			String[] payloadDigestValue =  new String[] { Util.hex( spool == null ? calcPayloadDigest() : spool.getDigest()) };
+			pending.payloadDigest.setValues( payloadDigestValue );
+			pending.payloadDigestAlt.setValues( payloadDigestValue );
+			format.getHeader().write( output);
+			pending.sha.setValues( new String[] { Util.hex( output.finish( shakey))});
+			pending.sha256.setValues( new String[] { Util.hex( output.finish( sha256key) ) });
+			enter( Phase.SIGN);
+			signatureGenerator.finishAfterHeader( output );
+			final long payloadStart = original.position();
+			long payloadLength;
+			if ( spool == null) {
+				payloadLength = processPayload( output);
+			} else {
+				enter( Phase.WRITE);
+				spool.transferTo( output);
+				payloadLength = spool.getArchiveSize();
+			}
+			if ( metrics != null) metrics.setPayloadSize( original.position() - payloadStart);
+			enter( Phase.SIGN);
+			pending.md5.setValues( output.finish( md5key));
+			pending.setSizes( output.finish( sigsizekey), payloadLength);
+			signatureGenerator.finishAfterPayload( output );
+			if ( metrics != null) metrics.setBytesWritten( original.position() - start);
+			format.getSignature().writePending( original);
+			finishMetrics();
+		} finally {
+			output.discard();
+			if ( spool != null) spool.close();
+			contents.release();
+		}
+	}
+
+	/**
+	 * Generates the rpm to the provided channel, writing strictly sequentially. The payload is
+	 * first spooled to a temporary file, see {@link #setSpoolDirectory(File)}, and every signature
+	 * value is calculated before the lead is written, so the channel need not support seeking or
+	 * mapping. This allows an RPM to be streamed to a pipe, a socket or a buffer in memory.
+	 *
+	 * @param channel the channel to which the resulting RPM will be written.
+	 * @throws NoSuchAlgorithmException the algorithm isn't supported
+	 * @throws IOException there was an IO error
+	 */
+	public void build( WritableByteChannel channel) throws NoSuchAlgorithmException, IOException {
+		startMetrics();
+		startProgress();
+		if ( metrics != null) channel = metrics.counted( channel);
+		createHeaderEntries();
+		final PendingEntries pending = new PendingEntries();
+		enter( Phase.SIGN);
+		final SignatureGenerator signatureGenerator = createSignatureGenerator();
+		signatureGenerator.prepare( format.getSignature());
+		enter( Phase.HEADER);
+
+		final PayloadSpool spool = spoolPayload();
+		final WritableChannelWrapper digests = new WritableChannelWrapper( Channels.newChannel( nullOutputStream()));
+		digests.setParallel( getParallelDigestExecutor());
+		try {
+			immutable.setValues( getImmutable( format.getHeader().count()));
+			final String[] payloadDigestValue = new String[] { Util.hex( spool.getDigest()) };
+			pending.payloadDigest.setValues( payloadDigestValue);
+			pending.payloadDigestAlt.setValues( payloadDigestValue);
+			final ByteArrayOutputStream header = new ByteArrayOutputStream();
+			format.getHeader().write( Channels.newChannel( header));
+
+			final Key< Long> sigsizekey = digests.startLong();
+			final Key< byte[]> shakey = digests.start( "SHA");
+			final Key< byte[]> md5key = digests.start( "MD5");
+			final Key< byte[]> sha256key = digests.start( "SHA-256");
+			enter( Phase.SIGN);
+			signatureGenerator.startBeforeHeader( digests);
+			Util.empty( digests, ByteBuffer.wrap( header.toByteArray()));
+			pending.sha.setValues( new String[] { Util.hex( digests.finish( shakey))});
+			pending.sha256.setValues( new String[] { Util.hex( digests.finish( sha256key))});
+			signatureGenerator.finishAfterHeader( digests);
+			spool.transferTo( digests);
+			pending.md5.setValues( digests.finish( md5key));
+			pending.setSizes( digests.finish( sigsizekey), spool.getArchiveSize());
+			signatureGenerator.finishAfterPayload( digests);
+
+			enter( Phase.HEADER);
+			format.getLead().write( channel);
+			signature.setValues( getSignature( format.getSignature().count()));
+			Util.empty( channel, Util.zeros( format.getSignature().write( channel)));
+			Util.empty( channel, ByteBuffer.wrap( header.toByteArray()));
+			enter( Phase.WRITE);
+			spool.transferTo( channel);
+			if ( metrics != null) metrics.setPayloadSize( spool.getLength());
+			finishMetrics();
+		} finally {
+			digests.discard();
+			spool.close();
+			contents.release();
+		}
+	}
+
+	private Executor getParallelDigestExecutor() {
+		if ( !parallelDigests) return null;
+		return parallelDigestExecutor == null ? ChannelWrapper.getSharedExecutor() : parallelDigestExecutor;
+	}
+
+	private void startMetrics() {
+		metrics = metricsListener == null ? null : new Metrics();
+		enter( Phase.HEADER);
+	}
+
+	private void startProgress() {
+		progress = progressListener == null && cancellationToken == null ? null : new Progress( progressListener, cancellationToken);
+		contents.setProgress( progress);
+	}
 
-		format.getHeader().createEntry( REQUIRENAME, Dependency.getArrayOfNames(requires));
-		format.getHeader().createEntry( REQUIREVERSION, Dependency.getArrayOfVersions(requires));
-		format.getHeader().createEntry( REQUIREFLAGS, convert(Dependency.getArrayOfFlags(requires)));
+	private Phase enter( final Phase phase) {
+		return metrics == null ? null : metrics.enter( phase);
+	}
+
+	private void finishMetrics() {
+		if ( metrics == null) return;
+		final Metrics completed = metrics;
+		metrics = null;
+		completed.setFiles( contents.size());
+		completed.finish();
+		metricsListener.completed( completed);
+	}
+
+	/**
+	 * Generates the rpm to the provided stream, writing strictly sequentially.
+	 * See {@link #build(WritableByteChannel)}.
+	 *
+	 * @param out the stream to which the resulting RPM will be written.
+	 * @throws NoSuchAlgorithmException the algorithm isn't supported
+	 * @throws IOException there was an IO error
+	 */
+	public void build( final OutputStream out) throws NoSuchAlgorithmException, IOException {
+		build( Channels.newChannel( out));
+		out.flush();
+	}
+
+	/**
+	 * The signature and header entries whose values are only known once the header and
+	 * payload have been generated. The sizes are recorded in 64 bit entries when the archive
+	 * may reach 4 GB, since the entries must be sized before the payload is compressed.
+	 */
+	private class PendingEntries {
+		final boolean large = isLargeArchive();
+		final Entry< String[]> payloadDigest;
+		final Entry< String[]> payloadDigestAlt;
+		final Entry< ?> sigsize;
+		final Entry< ?> payload;
+		final Entry< byte[]> md5;
+		final Entry< String[]> sha;
+		final Entry< String[]> sha256;
+
+		@SuppressWarnings( "unchecked")
+		PendingEntries() {
+			payloadDigest = ( Entry< String[]>) format.getHeader().addEntry( PAYLOADDIGEST, 1);
+			payloadDigestAlt = ( Entry< String[]>) format.getHeader().addEntry( PAYLOADDIGESTALT, 1);
+			sigsize = format.getSignature().addEntry( large ? LONGSIGSIZE : LEGACY_SIGSIZE, 1);
+			payload = format.getSignature().addEntry( large ? LONGARCHIVESIZE : PAYLOADSIZE, 1);
+			md5 = ( Entry< byte[]>) format.getSignature().addEntry( LEGACY_MD5, 16);
+			sha = ( Entry< String[]>) format.getSignature().addEntry( SHA1HEADER, 1);
+			sha256 = ( Entry< String[]>) format.getSignature().addEntry( SHA256HEADER, 1);
+			sha.setSize( SHASIZE);
+			sha256.setSize( SHA256_SIZE);
+			payloadDigest.setSize( SHA256_SIZE);
+			payloadDigestAlt.setSize( SHA256_SIZE);
+		}
+
+		@SuppressWarnings( "unchecked")
+		void setSizes( final long signed, final long archive) {
+			if ( large) {
+				(( Entry< long[]>) sigsize).setValues( new long[] { signed});
+				(( Entry< long[]>) payload).setValues( new long[] { archive});
+			} else {
+				(( Entry< int[]>) sigsize).setValues( new int[] {( int) signed});
+				(( Entry< int[]>) payload).setValues( new int[] {( int) archive});
+			}
+		}
+	}
+
+	/**
+	 * Whether the uncompressed archive, or the header and compressed payload, may reach 4 GB.
+	 * The estimate allows for cpio headers, padding and compression overhead, and errs on the
+	 * side of 64 bit size entries, which rpm accepts for packages of any size.
+	 *
+	 * @return true if the sizes must be recorded in 64 bit entries
+	 */
+	protected boolean isLargeArchive() {
+		long estimate = 0;
+		for ( CpioHeader header : contents.headers()) estimate += 128 + 3L * header.getName().length() + Math.max( 0, header.getFileSize());
+		return estimate + estimate / 64 + 64 * 1024 * 1024 >= LARGE_SIZE;
+	}
+
+	/**
+	 * Whether any file is too large for the 32 bit size entries and cpio headers, in which case
+	 * the sizes are recorded in LONGFILESIZES and the payload is written with stripped entries.
+	 *
+	 * @param sizes the sizes of the files
+	 * @return true if the file sizes must be recorded in 64 bit entries
+	 */
+	boolean hasLargeFiles( final long[] sizes) {
+		for ( long size : sizes) if ( size >= LARGE_SIZE) return true;
+		return false;
+	}
+
+	/**
+	 * Creates the header entries describing the package contents and its dependencies.
+	 *
+	 * @throws NoSuchAlgorithmException the algorithm isn't supported
+	 * @throws IOException there was an IO error
+	 */
+	protected void createHeaderEntries() throws NoSuchAlgorithmException, IOException {
+		final FileTable table = contents.getFileTable();
+		final long[] sizes = table.getLongSizes();
+		final boolean largeFiles = hasLargeFiles( sizes);
+
+		final List< Dependency> required = new LinkedList< Dependency>( requires);
+		final Dependency compression = payloadCodec.getRequirement();
+		if ( compression != null) required.add( compression);
+		if ( largeFiles) required.add( new Dependency( "rpmlib(LargeFiles)", "4.12.0-1", LESS | EQUAL | RPMLIB));
+		format.getHeader().createEntry( REQUIRENAME, Dependency.getArrayOfNames(required));
+		format.getHeader().createEntry( REQUIREVERSION, Dependency.getArrayOfVersions(required));
+		format.getHeader().createEntry( REQUIREFLAGS, convert(Dependency.getArrayOfFlags(required)));
 
 		if (0 < obsoletes.size())
 		{
@@ -1281,12 +1868,14 @@ public class Builder {
 			format.getHeader().createEntry( PROVIDEFLAGS, convert(Dependency.getArrayOfFlags(provides)));
 		}
 
-		format.getHeader().createEntry( SIZE, contents.getTotalSize());
+		final long totalSize = table.getTotalSize();
+		if ( totalSize >= LARGE_SIZE) format.getHeader().createEntry( LONGSIZE, new long[] { totalSize});
+		else format.getHeader().createEntry( SIZE, ( int) totalSize);
 
 		if (0 < contents.size()) {
-			format.getHeader().createEntry(DIRNAMES, contents.getDirNames());
-			format.getHeader().createEntry(DIRINDEXES, contents.getDirIndexes());
-			format.getHeader().createEntry(BASENAMES, contents.getBaseNames());
+			format.getHeader().createEntry(DIRNAMES, table.getDirNames());
+			format.getHeader().createEntry(DIRINDEXES, table.getDirIndexes());
+			format.getHeader().createEntry(BASENAMES, table.getBaseNames());
 		}
 
 
@@ -1300,105 +1889,132 @@ public class Builder {
 		}
 
 		if (0 < contents.size()) {
-			String[] checksums = contents.getFileChecksums();
+			if ( digestCache != null) contents.setDigestCache( digestCache);
+			final Phase previous = enter( Phase.DIGEST);
+			String[] checksums = digestExecutor == null ? contents.getFileChecksums( digestThreads) : contents.getFileChecksums( digestExecutor, Math.max( 1, digestThreads));
+			enter( previous);
 			format.getHeader().createEntry(FILEDIGESTALGO, 8);
 			format.getHeader().createEntry(PAYLOADDIGESTALGO, 8);
 			format.getHeader().createEntry(FILEDIGESTS, checksums);
-			format.getHeader().createEntry(FILESIZES, contents.getSizes());
-			format.getHeader().createEntry(FILEMODES, contents.getModes());
-			format.getHeader().createEntry(FILERDEVS, contents.getRdevs());
-			format.getHeader().createEntry(FILEMTIMES, contents.getMtimes());
-			format.getHeader().createEntry(FILELINKTOS, contents.getLinkTos());
-			format.getHeader().createEntry(FILEFLAGS, contents.getFlags());
-			format.getHeader().createEntry(FILEUSERNAME, contents.getUsers());
-			format.getHeader().createEntry(FILEGROUPNAME, contents.getGroups());
-			format.getHeader().createEntry(FILEVERIFYFLAGS, contents.getVerifyFlags());
-			format.getHeader().createEntry(FILEDEVICES, contents.getDevices());
-			format.getHeader().createEntry(FILEINODES, contents.getInodes());
-			format.getHeader().createEntry(FILELANGS, contents.getLangs());
-			format.getHeader().createEntry(FILECONTEXTS, contents.getContexts());
+			if ( largeFiles) format.getHeader().createEntry( LONGFILESIZES, sizes);
+			else format.getHeader().createEntry(FILESIZES, table.getSizes());
+			format.getHeader().createEntry(FILEMODES, table.getModes());
+			format.getHeader().createEntry(FILERDEVS, table.getRdevs());
+			format.getHeader().createEntry(FILEMTIMES, table.getMtimes());
+			format.getHeader().createEntry(FILELINKTOS, table.getLinkTos());
+			format.getHeader().createEntry(FILEFLAGS, table.getFlags());
+			format.getHeader().createEntry(FILEUSERNAME, table.getUsers());
+			format.getHeader().createEntry(FILEGROUPNAME, table.getGroups());
+			format.getHeader().createEntry(FILEVERIFYFLAGS, table.getVerifyFlags());
+			format.getHeader().createEntry(FILEDEVICES, table.getDevices());
+			format.getHeader().createEntry(FILEINODES, table.getInodes());
+			format.getHeader().createEntry(FILELANGS, table.getLangs());
+			format.getHeader().createEntry(FILECONTEXTS, table.getContexts());
 		}
 
-		format.getHeader().createEntry( PAYLOADFLAGS, new String[] { "9"});
-		final Entry<String[]> payloadDigest = ( Entry< String[]>) format.getHeader().addEntry( PAYLOADDIGEST, 1);
-		final Entry<String[]> payloadDigestAlt = ( Entry< String[]>) format.getHeader().addEntry( PAYLOADDIGESTALT, 1);
-
-		final Entry< int[]> sigsize = ( Entry< int[]>) format.getSignature().addEntry( LEGACY_SIGSIZE, 1);
-		final Entry< int[]> payload = ( Entry< int[]>) format.getSignature().addEntry( PAYLOADSIZE, 1);
-		final Entry< byte[]> md5 = ( Entry< byte[]>) format.getSignature().addEntry( LEGACY_MD5, 16);
-		final Entry< String[]> sha = ( Entry< String[]>) format.getSignature().addEntry( SHA1HEADER, 1);
-		final Entry<String[]> sha256 = ( Entry< String[]>) format.getSignature().addEntry( SHA256HEADER, 1);
-		sha.setSize( SHASIZE);
-		sha256.setSize(SHA256_SIZE);
-		payloadDigest.setSize(SHA256_SIZE);
-		payloadDigestAlt.setSize(SHA256_SIZE);
+		format.getHeader().createEntry( PAYLOADFLAGS, new String[] { String.valueOf( compressionLevel)});
+	}
 
-        SignatureGenerator signatureGenerator = createSignatureGenerator();
-        signatureGenerator.prepare( format.getSignature() );
+	/**
+	 * Generates the compressed payload once into a spool file, computing its digest and size
+	 * from the same bytes that are later copied into the RPM.
+	 *
+	 * @return the spooled payload
+	 * @throws NoSuchAlgorithmException the algorithm isn't supported
+	 * @throws IOException there was an IO error
+	 */
+	protected PayloadSpool spoolPayload() throws NoSuchAlgorithmException, IOException {
+		final PayloadSpool spool = new PayloadSpool( spoolDirectory);
+		try {
+			final WritableChannelWrapper channel = new WritableChannelWrapper( spool.getChannel());
+			final Key< byte[]> digestKey = channel.start( "SHA-256");
+			spool.setArchiveSize( processPayload( channel));
+			spool.setDigest( channel.finish( digestKey));
+			spool.setLength( spool.getChannel().position());
+			return spool;
+		} catch ( IOException e) {
+			spool.close();
+			throw e;
+		}
+	}
 
-		format.getLead().write( original);
-		signature.setValues( getSignature( format.getSignature().count()));
-		Util.empty( output, ByteBuffer.allocate( format.getSignature().write( original)));
-
-		final Key< Integer> sigsizekey = output.start();
-		final Key< byte[]> shakey = output.start( "SHA");
-		final Key< byte[]> md5key = output.start( "MD5");
-		final Key< byte[]> sha256key = output.start( "SHA-256");
-        signatureGenerator.startBeforeHeader( output );
-		immutable.setValues(getImmutable( format.getHeader().count()));
-		String[] payloadDigestValue =  new String[] { Util.hex(calcPayloadDigest()) };
-		payloadDigest.setValues( payloadDigestValue );
-		payloadDigestAlt.setValues( payloadDigestValue );
-		format.getHeader().write( output);
-		sha.setValues( new String[] { Util.hex( output.finish( shakey))});
-		sha256.setValues( new String[] { Util.hex( output.finish( sha256key) ) });
-		signatureGenerator.finishAfterHeader( output );
-		int payloadLength = processPayload(Channels.newOutputStream(output));
-		payload.setValues( new int[] { payloadLength });
-		md5.setValues( output.finish( md5key));
-		sigsize.setValues( new int[] { output.finish( sigsizekey)});
-        signatureGenerator.finishAfterPayload( output );
-        format.getSignature().writePending( original);
-	}
-
-	private int processPayload(OutputStream output) throws IOException {
-		final GZIPOutputStream zip = new GZIPOutputStream(output);
-		final WritableChannelWrapper compressor = new WritableChannelWrapper( Channels.newChannel( zip));
-		final Key< Integer> payloadkey = compressor.start();
-
-		int total = 0;
-		final ByteBuffer buffer = ByteBuffer.allocate( 4096);
-		for ( CpioHeader header : contents.headers()) {
-			if ( ( header.getFlags() & Directive.RPMFILE_GHOST ) == Directive.RPMFILE_GHOST ) {
-				continue;
-			}
-			final String path = header.getName();
-			if ( path.startsWith( "/")) header.setName( "." + path);
-			total = header.write( compressor, total);
-
-			final Object object = contents.getSource( header);
-			if ( object instanceof File) {
-				FileInputStream fin = new FileInputStream(( File) object);
-				final FileChannel in = fin.getChannel();
-				while ( in.read(( ByteBuffer) buffer.rewind()) > 0) {
-					total += compressor.write(( ByteBuffer) buffer.flip());
-					buffer.compact();
+	/**
+	 * Writes the compressed payload to the given channel. Without compression, the contents of
+	 * sources held in files are copied by {@link WritableChannelWrapper#transferFrom(FileChannel, long, long)},
+	 * which reads them by position into pooled direct buffers. The archive size and the signature
+	 * digests observe every byte of the payload, so the contents are always copied through those
+	 * buffers, and never moved by {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+	 *
+	 * @param output the channel to write the payload to
+	 * @return the size of the uncompressed archive
+	 * @throws IOException there was an IO error
+	 */
+	private long processPayload( final WritableByteChannel output) throws IOException {
+		final Phase previous = enter( Phase.PAYLOAD);
+		final boolean direct = payloadCodec == PayloadCodecs.NONE;
+		OutputStream stream = new UnclosedOutputStream( Channels.newOutputStream( output));
+		if ( metrics != null) stream = metrics.timed( stream, Phase.WRITE);
+		final OutputStream zip = direct ? null : payloadCodec.compress( stream, compressionLevel, compressionThreads);
+		final WritableChannelWrapper compressor = new WritableChannelWrapper( direct ? output : Channels.newChannel( zip));
+		final Key< Long> payloadkey = compressor.startLong();
+		final boolean stripped = format.getHeader().getEntry( LONGFILESIZES) != null;
+
+		long total = 0;
+		int index = -1;
+		if ( progress != null) progress.start( Phase.PAYLOAD, contents.size(), contents.getLongTotalSize());
+		final BufferPool pool = BufferPool.getShared();
+		final ByteBuffer buffer = pool.acquire();
+		boolean copied = false;
+		try {
+			for ( CpioHeader header : contents.headers()) {
+				++index;
+				if ( progress != null && index > 0) progress.addFile();
+				if ( ( header.getFlags() & Directive.RPMFILE_GHOST ) == Directive.RPMFILE_GHOST ) {
+					continue;
 				}
-				total += header.skip( compressor, total);
-				fin.close();
-			} else if ( object instanceof URL) {
-				final ReadableByteChannel in = Channels.newChannel((( URL) object).openConnection().getInputStream());
-				while ( in.read(( ByteBuffer) buffer.rewind()) > 0) {
-					total += compressor.write(( ByteBuffer) buffer.flip());
-					buffer.compact();
+				final String path = header.getName();
+				if ( path.startsWith( "/")) header.setName( "." + path);
+				if ( stripped) total = header.writeStripped( compressor, total, index);
+				else total = header.write( compressor, total);
+
+				final Object object = contents.getSource( header);
+				if ( object instanceof ContentSource) {
+					final ReadableByteChannel in = (( ContentSource) object).open();
+					try {
+						final long size = header.getFileSize();
+						if ( direct && in instanceof FileChannel) {
+							for ( long position = 0; position < size; position += TRANSFER_SIZE) {
+								final long count = Math.min( size - position, TRANSFER_SIZE);
+								total += compressor.transferFrom(( FileChannel) in, position, count);
+								if ( metrics != null) metrics.addBytesRead( count);
+								if ( progress != null) progress.addBytes( count);
+							}
+						} else {
+							for ( long remaining = size; remaining > 0;) {
+								buffer.clear();
+								if ( remaining < buffer.capacity()) buffer.limit(( int) remaining);
+								if ( read( in, buffer) == -1) throw new IOException( "File '" + path + "' ended '" + remaining + "' bytes short of its '" + size + "' bytes.");
+								buffer.flip();
+								remaining -= buffer.remaining();
+								Util.empty( compressor, buffer);
+								total += buffer.position();
+							}
+						}
+					} finally {
+						in.close();
+					}
+					total += header.skip( compressor, total);
+				} else if ( object instanceof CharSequence) {
+					final CharSequence target = ( CharSequence) object;
+					total += compressor.write( ByteBuffer.wrap( String.valueOf( target).getBytes( "UTF-8")));
+					total += header.skip( compressor, total);
 				}
-				total += header.skip( compressor, total);
-				in.close();
-			} else if ( object instanceof CharSequence) {
-				final CharSequence target = ( CharSequence) object;
-				total += compressor.write( ByteBuffer.wrap( String.valueOf( target).getBytes()));
-				total += header.skip( compressor, target.length());
 			}
+			if ( progress != null && index >= 0) progress.addFile();
+			copied = true;
+		} finally {
+			pool.release( buffer);
+			if ( !copied && zip instanceof ParallelBlockOutputStream) (( ParallelBlockOutputStream< ?>) zip).abort();
 		}
 
 		final CpioHeader trailer = new CpioHeader();
@@ -1406,15 +2022,54 @@ public class Builder {
 		total = trailer.write( compressor, total);
 		trailer.skip( compressor, total);
 
-		int length = compressor.finish( payloadkey);
+		long length = compressor.finish( payloadkey);
 		int pad = Util.difference( length, 3);
-		Util.empty( compressor, ByteBuffer.allocate( pad));
+		Util.empty( compressor, Util.zeros( pad));
 		length += pad;
 
-		zip.finish();
+		if ( zip != null) zip.close();
+		if ( metrics != null) metrics.setArchiveSize( length);
+		enter( previous);
 		return length;
 	}
 
+	private int read( final ReadableByteChannel in, final ByteBuffer buffer) throws IOException {
+		final int read;
+		if ( metrics == null) {
+			read = in.read( buffer);
+		} else {
+			final Phase previous = metrics.enter( Phase.READ);
+			read = in.read( buffer);
+			metrics.enter( previous);
+			if ( read > 0) metrics.addBytesRead( read);
+		}
+		if ( read > 0 && progress != null) progress.addBytes( read);
+		return read;
+	}
+
+	/**
+	 * Lets a codec complete its compressed stream on close without closing the stream beneath it.
+	 */
+	private static class UnclosedOutputStream extends FilterOutputStream {
+		UnclosedOutputStream( final OutputStream out) {
+			super( out);
+		}
+
+		public void write( final byte[] data, final int offset, final int length) throws IOException {
+			out.write( data, offset, length);
+		}
+
+		public void close() throws IOException {
+			flush();
+		}
+	}
+
+	/**
+	 * Digests the payload by generating it once without writing it. The pass is timed as
+	 * {@link Phase#DIGEST} and is not reported as progress, nor are its bytes counted, so that
+	 * the metrics and progress of the payload describe only the pass that writes it. The build
+	 * may still be cancelled during the pass.
+	 */
 	private byte[] calcPayloadDigest() throws IOException {
 		final MessageDigest digest;
 		try {
@@ -1423,7 +2078,18 @@ public class Builder {
 			throw new RuntimeException( e);
 		}
 		DigestOutputStream digestOutputStream = new DigestOutputStream(nullOutputStream(), digest);
-		processPayload(digestOutputStream);
+		final Phase previous = enter( Phase.DIGEST);
+		final Metrics measured = metrics;
+		final Progress reported = progress;
+		metrics = null;
+		progress = reported == null ? null : new Progress( null, cancellationToken);
+		try {
+			processPayload( Channels.newChannel( digestOutputStream));
+		} finally {
+			metrics = measured;
+			progress = reported;
+		}
+		enter( previous);
 		return digest.digest();
 	}
 
@@ -1431,6 +2097,9 @@ public class Builder {
         if (privateKey != null) {
            return new SignatureGenerator( privateKey );
         }
+        if ( cachePrivateKey && privateKeyRingFile != null ) {
+            return new SignatureGenerator( PrivateKeyCache.get( privateKeyRingFile, privateKeyId, privateKeyPassphrase ) );
+        }
         return new SignatureGenerator( privateKeyRingFile, privateKeyId, privateKeyPassphrase);
     }
 
@@ -0,0 +1,32 @@
+package org.redline_rpm;
+
+/**
+ * Requests that a build stop. A token is given to a {@link Builder} before building, and may be
+ * cancelled from any thread while the build runs. The build checks the token between files and
+ * between the buffers of each file it reads, and then fails with a {@link BuildCancelledException}.
+ * A cancelled token stays cancelled, so a new token is needed for each build that may be cancelled.
+ */
+public class CancellationToken {
+
+	private volatile boolean cancelled;
+
+	/**
+	 * Requests that the builds using this token stop as soon as they can.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Fails if this token has been cancelled.
+	 *
+	 * @throws BuildCancelledException if the token has been cancelled
+	 */
+	public void check() throws BuildCancelledException {
+		if ( cancelled) throw new BuildCancelledException();
+	}
+}
@@ -6,11 +6,25 @@ import org.bouncycastle.openpgp.PGPSignatureGenerator;
 import org.bouncycastle.openpgp.operator.bc.BcPGPContentSignerBuilder;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
 import java.security.SignatureException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -27,6 +41,9 @@ import static org.bouncycastle.openpgp.PGPSignature.BINARY_DOCUMENT;
  * byte output for use in generating headers, calculating
  * a signature across output bytes, and digesting output
  * bytes using a one-way secure hash.
+ *
+ * In {@link #setParallel(Executor) parallel} mode digests and signatures each run
+ * as a task of their own, fed with read only slices of the observed bytes.
  */
 public abstract class ChannelWrapper {
 
@@ -52,8 +69,212 @@ public abstract class ChannelWrapper {
 		T finish();
 	}
 
+	/**
+	 * Size of the slices observed bytes are copied into for parallel consumers.
+	 */
+	private static final int SLICE_SIZE = 256 * 1024;
+
+	/**
+	 * Number of slices that may wait for parallel consumers before the channel blocks.
+	 */
+	private static final int SLICES = 16;
+
+	private static final Slice END = new Slice( null, null, 0);
+	private static final Slice DISCARD = new Slice( null, null, 0);
+
 	protected Map< Key< ?>, Consumer< ?>> consumers = new HashMap< Key< ?>, Consumer< ?>>();
 
+	private Executor executor;
+	private final Map< Key< ?>, Parallel< ?>> running = new HashMap< Key< ?>, Parallel< ?>>();
+	private final Semaphore ring = new Semaphore( SLICES);
+	private final Queue< byte[]> free = new ConcurrentLinkedQueue< byte[]>();
+	private byte[] pending;
+	private int filled;
+
+	/**
+	 * Runs the digests and signatures started after this call on the {@link #getSharedExecutor()
+	 * shared executor}, or on the channel's thread.
+	 *
+	 * @param parallel true to run digests and signatures as tasks of their own
+	 */
+	public void setParallel( final boolean parallel) {
+		setParallel( parallel ? getSharedExecutor() : null);
+	}
+
+	/**
+	 * Runs the digests and signatures started after this call each as a task of its own on the
+	 * given executor, rather than on the thread using the channel. Observed bytes are copied once
+	 * into a bounded ring of slices shared by those consumers, and the channel blocks while the
+	 * ring is full, so that a slow consumer holds back the output rather than letting the slices
+	 * pile up. Each task runs until its consumer is finished, so the executor must be able to run
+	 * every consumer of the channel at once, as a cached pool can. The results are the same in
+	 * either mode. Byte counters always run on the channel's thread.
+	 *
+	 * @param executor the executor to run digests and signatures on, or null to run them on the
+	 * channel's thread
+	 */
+	public void setParallel( final Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Gets the executor that parallel consumers run on unless another is given, a cached pool of
+	 * daemon threads that are reused across channels and expire once idle.
+	 *
+	 * @return the shared executor
+	 */
+	public static ExecutorService getSharedExecutor() {
+		return Shared.EXECUTOR;
+	}
+
+	private static class Shared {
+		static final ExecutorService EXECUTOR = Executors.newCachedThreadPool( new ThreadFactory() {
+			public Thread newThread( final Runnable runnable) {
+				final Thread thread = new Thread( runnable, "redline-consumer");
+				thread.setDaemon( true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Passes observed bytes to every consumer, leaving the buffer untouched. Parallel consumers
+	 * receive a copy, since the buffer may be reused once this method returns.
+	 *
+	 * @param buffer the observed bytes
+	 * @throws IOException if interrupted while waiting for a free slice
+	 */
+	protected void consume( final ByteBuffer buffer) throws IOException {
+		for ( Consumer< ?> consumer : consumers.values()) consumer.consume( buffer.duplicate());
+		if ( running.isEmpty()) return;
+		final ByteBuffer copy = buffer.duplicate();
+		while ( copy.hasRemaining()) {
+			if ( pending == null) {
+				acquire();
+				pending = free.poll();
+				if ( pending == null) pending = new byte[ SLICE_SIZE];
+				filled = 0;
+			}
+			final int length = Math.min( copy.remaining(), SLICE_SIZE - filled);
+			copy.get( pending, filled, length);
+			filled += length;
+			if ( filled == SLICE_SIZE) flush();
+		}
+	}
+
+	/**
+	 * Abandons every unfinished operation, stopping the tasks of any parallel consumers.
+	 * Unlike {@link #close()} this does not fail if operations are unfinished, so that it
+	 * may be used to clean up after an error.
+	 */
+	public void discard() {
+		for ( Parallel< ?> consumer : running.values()) consumer.queue.add( DISCARD);
+		running.clear();
+		consumers.clear();
+		pending = null;
+	}
+
+	private void acquire() throws IOException {
+		try {
+			ring.acquire();
+		} catch ( InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted while waiting for parallel consumers.");
+		}
+	}
+
+	private void flush() {
+		if ( pending == null) return;
+		publish( new Slice( ByteBuffer.wrap( pending, 0, filled).asReadOnlyBuffer(), pending, running.size()));
+		pending = null;
+	}
+
+	private void publish( final Slice slice) {
+		for ( Parallel< ?> consumer : running.values()) consumer.queue.add( slice);
+	}
+
+	/**
+	 * Starts a digest or signature, as a task of its own if this channel is in parallel mode.
+	 */
+	private < T> Key< T> observe( final Consumer< T> consumer) {
+		final Key< T> object = new Key< T>();
+		if ( executor == null) {
+			consumers.put( object, consumer);
+		} else {
+			flush();
+			running.put( object, new Parallel< T>( consumer, executor));
+		}
+		return object;
+	}
+
+	/**
+	 * A part of the observed bytes, shared by the parallel consumers. The last consumer
+	 * to finish with a slice returns it to the ring.
+	 */
+	private static class Slice {
+		final ByteBuffer buffer;
+		final byte[] array;
+		final AtomicInteger readers;
+
+		Slice( final ByteBuffer buffer, final byte[] array, final int readers) {
+			this.buffer = buffer;
+			this.array = array;
+			this.readers = new AtomicInteger( readers);
+		}
+	}
+
+	/**
+	 * Runs a consumer as a task of its own, taking slices from a queue until it is finished.
+	 */
+	private class Parallel< T> implements Callable< T> {
+		final BlockingQueue< Slice> queue = new LinkedBlockingQueue< Slice>();
+		final Consumer< T> consumer;
+		final FutureTask< T> result = new FutureTask< T>( this);
+
+		Parallel( final Consumer< T> consumer, final Executor executor) {
+			this.consumer = consumer;
+			executor.execute( result);
+		}
+
+		public T call() throws InterruptedException {
+			RuntimeException failure = null;
+			while ( true) {
+				final Slice slice = queue.take();
+				if ( slice == DISCARD) return null;
+				if ( slice == END) break;
+				try {
+					if ( failure == null) consumer.consume( slice.buffer.duplicate());
+				} catch ( RuntimeException e) {
+					failure = e;
+				} finally {
+					if ( slice.readers.decrementAndGet() == 0) {
+						if ( slice.array != null) free.add( slice.array);
+						ring.release();
+					}
+				}
+			}
+			if ( failure != null) throw failure;
+			return consumer.finish();
+		}
+
+		/**
+		 * Ends the consumer's input and waits for its result. The consumer must already have
+		 * been removed from the running consumers.
+		 */
+		T finish() {
+			queue.add( END);
+			try {
+				return result.get();
+			} catch ( ExecutionException e) {
+				if ( e.getCause() instanceof RuntimeException) throw ( RuntimeException) e.getCause();
+				throw new RuntimeException( e.getCause());
+			} catch ( InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException( "Interrupted while waiting for a parallel consumer.", e);
+			}
+		}
+	}
+
 	public Key< Integer> start( final WritableByteChannel output) {
 		final Key< Integer> object = new Key< Integer>();
 		consumers.put( object, new Consumer< Integer>() {
@@ -84,6 +305,20 @@ public abstract class ChannelWrapper {
 		return object;
 	}
 
+	/**
+	 * Initializes a 64 bit byte counter on this channel, for output that may exceed 2 GB.
+	 * @return reference to the new key added to the consumers
+	 */
+	public Key< Long> startLong() {
+		final Key< Long> object = new Key< Long>();
+		consumers.put( object, new Consumer< Long>() {
+			long count;
+			public void consume( final ByteBuffer buffer) { count += buffer.remaining(); }
+			public Long finish() { return count; }
+		});
+		return object;
+	}
+
 	/**
 	 * Initialize a signature on this channel.
 	 *
@@ -95,8 +330,7 @@ public abstract class ChannelWrapper {
 	public Key< byte[]> start( final PrivateKey key) throws NoSuchAlgorithmException, InvalidKeyException {
 		final Signature signature = Signature.getInstance( key.getAlgorithm());
 		signature.initSign( key);
-		final Key< byte[]> object = new Key< byte[]>();
-		consumers.put( object, new Consumer< byte[]>() {
+		return observe( new Consumer< byte[]>() {
 			public void consume( final ByteBuffer buffer) {
 				try {
 					signature.update( buffer);
@@ -112,7 +346,6 @@ public abstract class ChannelWrapper {
 				}
 			}
 		});
-		return object;
 	}
 
     /**
@@ -131,8 +364,8 @@ public abstract class ChannelWrapper {
             throw new RuntimeException( "Could not initialize PGP signature generator", e );
         }
 
-        final Key<byte[]> object = new Key<byte[]>();
-        consumers.put( object, new Consumer<byte[]>() {
+        return observe( new Consumer<byte[]>() {
+            byte[] bytes;
 
             public void consume( final ByteBuffer buffer ) {
                 if ( !buffer.hasRemaining() ) {
@@ -155,7 +388,9 @@ public abstract class ChannelWrapper {
                     buffer.position( limit );
                 } else {
                     int length = buffer.remaining();
-                    byte[] bytes = new byte[Util.getTempArraySize( length )];
+                    if ( bytes == null || bytes.length < Util.getTempArraySize( length ) ) {
+                        bytes = new byte[Util.getTempArraySize( length )];
+                    }
                     while ( length > 0 ) {
                         int chunk = Math.min( length, bytes.length );
                         buffer.get( bytes, 0, chunk );
@@ -173,7 +408,6 @@ public abstract class ChannelWrapper {
                 }
             }
         });
-        return object;
     }
 
     /**
@@ -185,8 +419,7 @@ public abstract class ChannelWrapper {
 	 */
 	public Key< byte[]> start( final String algorithm) throws NoSuchAlgorithmException {
 		final MessageDigest digest = MessageDigest.getInstance( algorithm);
-		final Key< byte[]> object = new Key< byte[]>();
-		consumers.put( object, new Consumer< byte[]>() {
+		return observe( new Consumer< byte[]>() {
 			public void consume( final ByteBuffer buffer) {
 				try {
 					digest.update( buffer);
@@ -202,15 +435,27 @@ public abstract class ChannelWrapper {
 				}
 			}
 		});
-		return object;
 	}
 
 	@SuppressWarnings( "unchecked")
 	public < T> T finish( final Key< T> object) {
-		return ( T) consumers.remove( object).finish();
+		final Consumer< ?> consumer = consumers.remove( object);
+		if ( consumer != null) return ( T) consumer.finish();
+		flush();
+		return ( T) running.remove( object).finish();
+	}
+
+	/**
+	 * Whether any operation observes the bytes passing through this channel.
+	 *
+	 * @return true if there are unfinished operations
+	 */
+	protected boolean isObserved() {
+		return !consumers.isEmpty() || !running.isEmpty();
 	}
 
 	public void close() throws IOException {
-		if ( !consumers.isEmpty()) throw new IOException( "There are '" + consumers.size() + "' unfinished operations.");
+		final int unfinished = consumers.size() + running.size();
+		if ( unfinished > 0) throw new IOException( "There are '" + unfinished + "' unfinished operations.");
 	}
 }
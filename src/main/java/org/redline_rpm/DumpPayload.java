@@ -29,7 +29,7 @@ public final class DumpPayload {
 		
 		long position = 0;
 		long read;
-		while (( read = out.transferFrom( in, position, 1024)) > 0) position += read;
+		while (( read = out.transferFrom( in, position, BufferPool.DEFAULT_BUFFER_SIZE)) > 0) position += read;
 		fout.close();
 	}
 }
@@ -0,0 +1,16 @@
+package org.redline_rpm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs a one line summary of the metrics of each build or scan.
+ */
+public class LoggingMetricsListener implements MetricsListener {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger( LoggingMetricsListener.class);
+
+	public void completed( final Metrics metrics) {
+		LOGGER.info( "{}", metrics);
+	}
+}
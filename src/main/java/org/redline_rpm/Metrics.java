@@ -0,0 +1,209 @@
+package org.redline_rpm;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Timings and sizes of a single build or scan, reported to a {@link MetricsListener}. Time is
+ * charged to one phase at a time, so the phase times add up to the total. CPU times are those
+ * of the building or scanning thread only, and so leave out the work of digest, compression
+ * and parallel consumer threads, whose effect shows as wall time in the phase waiting on them.
+ */
+public class Metrics {
+
+	/**
+	 * The phases of a build or scan.
+	 */
+	public enum Phase {
+		/** Reading the lead of a scanned package. */
+		LEAD,
+		/** Reading the signature header of a scanned package. */
+		SIGNATURE,
+		/** Creating, writing or reading the package header. */
+		HEADER,
+		/** Calculating the digests of the packaged files and of the payload. */
+		DIGEST,
+		/** Reading the contents of the packaged files into the payload. */
+		READ,
+		/** Generating the cpio archive and compressing it. */
+		PAYLOAD,
+		/** Writing the compressed payload out. */
+		WRITE,
+		/** Reading the signing key and generating the signatures. */
+		SIGN
+	}
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private final long[] wall = new long[ Phase.values().length];
+	private final long[] cpu = new long[ Phase.values().length];
+	private final boolean cpuTime = THREADS.isCurrentThreadCpuTimeSupported();
+	private final long started = System.nanoTime();
+	private long finished;
+	private Phase current;
+	private long wallMark;
+	private long cpuMark;
+
+	private int files;
+	private long bytesRead;
+	private long archiveSize;
+	private long payloadSize;
+	private long bytesWritten;
+	private long peakBufferUsage;
+
+	Metrics() {
+		BufferPool.getShared().resetPeakUsage();
+	}
+
+	/**
+	 * Charges the time since the last change of phase to the current phase and starts the given one.
+	 *
+	 * @param phase the phase to start, or null to charge time to no phase
+	 * @return the phase that was current, to restore once the given phase is over
+	 */
+	Phase enter( final Phase phase) {
+		final long wallNow = System.nanoTime();
+		final long cpuNow = cpuTime ? THREADS.getCurrentThreadCpuTime() : 0;
+		if ( current != null) {
+			wall[ current.ordinal()] += wallNow - wallMark;
+			cpu[ current.ordinal()] += cpuNow - cpuMark;
+		}
+		final Phase previous = current;
+		current = phase;
+		wallMark = wallNow;
+		cpuMark = cpuNow;
+		return previous;
+	}
+
+	void finish() {
+		enter( null);
+		finished = System.nanoTime();
+		peakBufferUsage = BufferPool.getShared().getPeakUsage();
+	}
+
+	void setFiles( final int files) { this.files = files; }
+	void addBytesRead( final long bytes) { bytesRead += bytes; }
+	void setArchiveSize( final long archiveSize) { this.archiveSize = archiveSize; }
+	void setPayloadSize( final long payloadSize) { this.payloadSize = payloadSize; }
+	void setBytesWritten( final long bytesWritten) { this.bytesWritten = bytesWritten; }
+
+	/**
+	 * Wraps a stream so that time spent writing to it is charged to the given phase.
+	 */
+	OutputStream timed( final OutputStream out, final Phase phase) {
+		return new FilterOutputStream( out) {
+			public void write( final int b) throws IOException {
+				final Phase previous = enter( phase);
+				out.write( b);
+				enter( previous);
+			}
+			public void write( final byte[] b, final int offset, final int length) throws IOException {
+				final Phase previous = enter( phase);
+				out.write( b, offset, length);
+				enter( previous);
+			}
+		};
+	}
+
+	/**
+	 * Wraps a channel so that the bytes written to it are counted as written.
+	 */
+	WritableByteChannel counted( final WritableByteChannel channel) {
+		return new WritableByteChannel() {
+			public int write( final ByteBuffer buffer) throws IOException {
+				final int written = channel.write( buffer);
+				bytesWritten += written;
+				return written;
+			}
+			public boolean isOpen() { return channel.isOpen(); }
+			public void close() throws IOException { channel.close(); }
+		};
+	}
+
+	/**
+	 * @param phase the phase
+	 * @return the wall time spent in the phase, in nanoseconds
+	 */
+	public long getWallTime( final Phase phase) { return wall[ phase.ordinal()]; }
+
+	/**
+	 * @param phase the phase
+	 * @return the CPU time of the building or scanning thread in the phase, in nanoseconds, or zero
+	 * if the JVM does not measure thread CPU time
+	 */
+	public long getCpuTime( final Phase phase) { return cpu[ phase.ordinal()]; }
+
+	/**
+	 * @return the wall time of the whole build or scan, in nanoseconds
+	 */
+	public long getTotalTime() { return finished - started; }
+
+	/**
+	 * @return the number of entries in the package
+	 */
+	public int getFiles() { return files; }
+
+	/**
+	 * @return the bytes read from packaged files while generating the payload, or from the
+	 * package while scanning it
+	 */
+	public long getBytesRead() { return bytesRead; }
+
+	/**
+	 * @return the size of the uncompressed cpio archive
+	 */
+	public long getArchiveSize() { return archiveSize; }
+
+	/**
+	 * @return the size of the compressed payload
+	 */
+	public long getPayloadSize() { return payloadSize; }
+
+	/**
+	 * @return the size of the package written
+	 */
+	public long getBytesWritten() { return bytesWritten; }
+
+	/**
+	 * @return the size of the archive divided by the size of the compressed payload, or zero if there is no payload
+	 */
+	public double getCompressionRatio() { return payloadSize == 0 ? 0 : ( double) archiveSize / payloadSize; }
+
+	/**
+	 * @return the most bytes of {@link BufferPool#getShared() shared pool} buffers in use at once during
+	 * the build or scan, which includes those of any concurrent builds
+	 */
+	public long getPeakBufferUsage() { return peakBufferUsage; }
+
+	/**
+	 * Summarizes the metrics on a single line.
+	 */
+	public String toString() {
+		final StringBuilder builder = new StringBuilder();
+		builder.append( "Completed in ").append( millis( getTotalTime())).append( " ms:");
+		String separator = " ";
+		for ( Phase phase : Phase.values()) {
+			if ( wall[ phase.ordinal()] == 0) continue;
+			builder.append( separator).append( phase.name().toLowerCase()).append( ' ').append( millis( wall[ phase.ordinal()])).append( " ms");
+			if ( cpuTime) builder.append( " (cpu ").append( millis( cpu[ phase.ordinal()])).append( " ms)");
+			separator = ", ";
+		}
+		builder.append( "; ").append( files).append( " files, ").append( bytesRead).append( " bytes read");
+		if ( archiveSize > 0) {
+			builder.append( ", archive ").append( archiveSize).append( " bytes, payload ").append( payloadSize).append( " bytes");
+			builder.append( String.format( " (ratio %.2f)", getCompressionRatio()));
+		}
+		if ( bytesWritten > 0) builder.append( ", ").append( bytesWritten).append( " bytes written");
+		builder.append( ", peak buffers ").append( peakBufferUsage).append( " bytes.");
+		return builder.toString();
+	}
+
+	private static long millis( final long nanos) {
+		return nanos / 1000000L;
+	}
+}
@@ -0,0 +1,16 @@
+package org.redline_rpm;
+
+/**
+ * Receives the {@link Metrics} of each completed build or scan. See
+ * {@link Builder#setMetricsListener(MetricsListener)} and {@link Scanner#setMetricsListener(MetricsListener)}.
+ * Without a listener no metrics are gathered.
+ */
+public interface MetricsListener {
+
+	/**
+	 * Called on the building or scanning thread once a build or scan completes.
+	 *
+	 * @param metrics the metrics of the build or scan
+	 */
+	void completed( Metrics metrics);
+}
@@ -0,0 +1,470 @@
+package org.redline_rpm;
+
+import org.redline_rpm.header.Header;
+import org.redline_rpm.payload.CpioHeader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Extracts the payload of an RPM into a directory. The payload is decompressed once, on the calling
+ * thread, which parses the cpio entries and reads the contents of each file into buffers from the
+ * {@link BufferPool#getShared() shared pool}, while a pool of writer threads writes the files out,
+ * so that many files are written at once. At most {@link #MAX_PENDING_BUFFERS} buffers are read ahead
+ * of the writers.
+ *
+ * Directories, regular files, hard links and symbolic links are created with the permissions and
+ * modification times recorded in the archive, or in the RPM header for the stripped entries of
+ * packages with files of 4 GB or more. Device nodes, fifos and sockets are skipped, and
+ * ownership and the set id and sticky bits are not applied. Existing files are replaced, and an entry
+ * that would be written outside the directory, by its name or through a symbolic link, is refused,
+ * as is a symbolic link that would replace a directory or an entry already extracted. Files are
+ * created anew and attributes are applied without following symbolic links.
+ */
+public class PayloadExtractor {
+
+	/**
+	 * The most buffers of file contents read and not yet written.
+	 */
+	public static final int MAX_PENDING_BUFFERS = 32;
+
+	private static final Charset UTF_8 = Charset.forName( "UTF-8");
+	private static final ByteBuffer END = ByteBuffer.allocate( 0);
+	private static final boolean POSIX = FileSystems.getDefault().supportedFileAttributeViews().contains( "posix");
+	private static final LinkOption[] NOFOLLOW = { LinkOption.NOFOLLOW_LINKS};
+	private static final PosixFilePermission[] PERMISSIONS = {
+		PosixFilePermission.OTHERS_EXECUTE, PosixFilePermission.OTHERS_WRITE, PosixFilePermission.OTHERS_READ,
+		PosixFilePermission.GROUP_EXECUTE, PosixFilePermission.GROUP_WRITE, PosixFilePermission.GROUP_READ,
+		PosixFilePermission.OWNER_EXECUTE, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_READ
+	};
+
+	private final File directory;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private ExecutorService executor;
+
+	/**
+	 * Creates an extractor into the given directory, which is created if it does not exist.
+	 *
+	 * @param directory the directory to extract into
+	 */
+	public PayloadExtractor( final File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Extracts the payload of the RPM file named by the first argument into the directory
+	 * named by the second.
+	 *
+	 * @param args command line arguments
+	 * @throws Exception an exception occurred
+	 */
+	public static void main( final String[] args) throws Exception {
+		final RpmFile rpm = new RpmFile( new File( args[ 0]));
+		try {
+			new PayloadExtractor( new File( args[ 1])).extract( rpm);
+		} finally {
+			rpm.close();
+		}
+	}
+
+	/**
+	 * Sets the number of threads writing files, which defaults to the number of processors.
+	 *
+	 * @param threads the number of writer threads
+	 */
+	public void setThreads( final int threads) {
+		if ( threads < 1) throw new IllegalArgumentException( "Threads must be positive.");
+		this.threads = threads;
+	}
+
+	/**
+	 * Writes files on a shared executor instead of a pool of this extractor's own. The executor is
+	 * left running.
+	 *
+	 * @param executor the executor to write files on, or null for a pool of this extractor's own
+	 */
+	public void setExecutor( final ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Extracts the payload of an opened RPM.
+	 *
+	 * @param rpm the RPM
+	 * @return the number of entries extracted
+	 * @throws IOException there was an IO error, or the payload is not a valid cpio archive
+	 */
+	public int extract( final RpmFile rpm) throws IOException {
+		final InputStream in = rpm.openPayload();
+		try {
+			return extract( rpm.getHeader(), in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Extracts a payload.
+	 *
+	 * @param header the header of the RPM, which describes the entries of a stripped payload
+	 * @param payload the uncompressed payload
+	 * @return the number of entries extracted
+	 * @throws IOException there was an IO error, or the payload is not a valid cpio archive
+	 */
+	public int extract( final Header header, final InputStream payload) throws IOException {
+		final ExecutorService pool = executor != null ? executor : Executors.newFixedThreadPool( threads, new ThreadFactory() {
+			public Thread newThread( final Runnable runnable) {
+				final Thread thread = new Thread( runnable, "redline-extract");
+				thread.setDaemon( true);
+				return thread;
+			}
+		});
+		try {
+			return new Extraction( header, Channels.newChannel( payload), pool).run();
+		} finally {
+			if ( executor == null) pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * The state of a single extraction.
+	 */
+	private class Extraction {
+		private final Header rpmHeader;
+		private final ReadableByteChannel in;
+		private final ExecutorService pool;
+		private final BufferPool buffers = BufferPool.getShared();
+		private final Semaphore pending = new Semaphore( MAX_PENDING_BUFFERS);
+		private final List< Future< Void>> writes = new ArrayList< Future< Void>>();
+		private final List< Entry> directories = new ArrayList< Entry>();
+		private final Map< Long, List< Entry>> links = new HashMap< Long, List< Entry>>();
+		private final Map< File, Integer> extracted = new HashMap< File, Integer>();
+		private final Set< File> safe = new HashSet< File>();
+		private StrippedEntries stripped;
+		private File root;
+
+		Extraction( final Header rpmHeader, final ReadableByteChannel in, final ExecutorService pool) {
+			this.rpmHeader = rpmHeader;
+			this.in = in;
+			this.pool = pool;
+		}
+
+		int run() throws IOException {
+			if ( !directory.isDirectory() && !directory.mkdirs()) throw new IOException( "Could not create directory '" + directory + "'.");
+			root = directory.getCanonicalFile();
+			safe.add( root);
+			int count = 0;
+			long total = 0;
+			boolean completed = false;
+			try {
+				while ( true) {
+					final CpioHeader header = new CpioHeader();
+					total = header.read( in, total);
+					if ( header.isLast()) break;
+					if ( header.isStripped()) {
+						if ( stripped == null) stripped = new StrippedEntries( rpmHeader);
+						stripped.describe( header);
+					}
+					final File file = resolve( header.getName());
+					final long size = header.getFileSize();
+					if ( header.getType() == CpioHeader.DIR) {
+						claim( header, file);
+						directory( file);
+						directories.add( new Entry( header, file));
+					} else if ( header.getType() == CpioHeader.FILE) {
+						claim( header, file);
+						file( header, file);
+					} else if ( header.getType() == CpioHeader.SYMLINK) {
+						claim( header, file);
+						link( file, new String( Util.fill( in, ( int) size).array(), UTF_8));
+					} else {
+						skip( size);
+					}
+					total += size;
+					count++;
+				}
+				for ( List< Entry> linked : links.values()) {
+					final Entry first = linked.remove( 0);
+					final Writer writer = new Writer( first.file, first.header.getPermissions(), first.header.getMtime(), files( linked));
+					writer.queue.add( END);
+					writes.add( pool.submit( writer));
+				}
+				for ( Future< Void> write : writes) get( write);
+				for ( int i = directories.size() - 1; i >= 0; i--) {
+					final Entry entry = directories.get( i);
+					attributes( entry.file, entry.header.getPermissions(), entry.header.getMtime());
+				}
+				completed = true;
+			} finally {
+				if ( !completed) for ( Future< Void> write : writes) write.cancel( true);
+			}
+			return count;
+		}
+
+		/**
+		 * Hands a file to a writer as its contents are read. Files that are hard linked, found by
+		 * their inode and device, are written once, at the entry that carries their contents, and
+		 * linked once written.
+		 */
+		private void file( final CpioHeader header, final File file) throws IOException {
+			List< File> others = null;
+			if ( header.getNlink() > 1) {
+				final Long key = (( long) (( header.getDevMajor() << 8) + header.getDevMinor()) << 32) | ( header.getInode() & 0xFFFFFFFFL);
+				List< Entry> linked = links.get( key);
+				if ( linked == null) links.put( key, linked = new ArrayList< Entry>());
+				if ( header.getFileSize() == 0) {
+					linked.add( new Entry( header, file));
+					return;
+				}
+				others = files( links.remove( key));
+			}
+			final Writer writer = new Writer( file, header.getPermissions(), header.getMtime(), others);
+			writes.add( pool.submit( writer));
+			try {
+				for ( long remaining = header.getFileSize(); remaining > 0;) {
+					acquire();
+					final ByteBuffer buffer = buffers.acquire();
+					if ( remaining < buffer.capacity()) buffer.limit(( int) remaining);
+					try {
+						while ( buffer.hasRemaining()) if ( in.read( buffer) == -1) throw new IOException( "Payload ended within '" + header.getName() + "'.");
+					} catch ( IOException e) {
+						buffers.release( buffer);
+						pending.release();
+						throw e;
+					}
+					buffer.flip();
+					remaining -= buffer.remaining();
+					writer.queue.add( buffer);
+				}
+			} finally {
+				writer.queue.add( END);
+			}
+		}
+
+		/**
+		 * Records that an entry is extracted to a file, refusing a second entry for the same file
+		 * unless both are directories, so that nothing replaces a file that may still be being
+		 * written, or a directory that entries have been extracted into.
+		 */
+		private void claim( final CpioHeader header, final File file) throws IOException {
+			final Integer previous = extracted.put( file, header.getType());
+			if ( previous != null && ( previous != CpioHeader.DIR || header.getType() != CpioHeader.DIR)) {
+				throw new IOException( "Refusing to extract '" + header.getName() + "' over an entry already extracted.");
+			}
+		}
+
+		/**
+		 * Creates a directory, replacing a symbolic link left in its place by an earlier extraction.
+		 */
+		private void directory( final File file) throws IOException {
+			final Path path = file.toPath();
+			if ( Files.isSymbolicLink( path)) Files.delete( path);
+			if ( !Files.isDirectory( path, NOFOLLOW)) Files.createDirectory( path);
+		}
+
+		private void link( final File file, final String target) throws IOException {
+			final Path path = file.toPath();
+			if ( Files.isDirectory( path, NOFOLLOW)) throw new IOException( "Refusing to replace directory '" + file + "' with a symbolic link.");
+			Files.deleteIfExists( path);
+			Files.createSymbolicLink( path, Paths.get( target));
+			safe.clear();
+			safe.add( root);
+		}
+
+		private void skip( long size) throws IOException {
+			final ByteBuffer buffer = buffers.acquire();
+			try {
+				while ( size > 0) {
+					buffer.clear();
+					if ( size < buffer.capacity()) buffer.limit(( int) size);
+					final int read = in.read( buffer);
+					if ( read == -1) throw new IOException( "Payload ended while skipping an entry.");
+					size -= read;
+				}
+			} finally {
+				buffers.release( buffer);
+			}
+		}
+
+		/**
+		 * Finds where an entry is extracted to, refusing names that climb out of the directory and
+		 * parents that resolve outside it through a symbolic link.
+		 */
+		private File resolve( final String name) throws IOException {
+			File file = root;
+			for ( String part : name.split( "/")) {
+				if ( part.length() == 0 || ".".equals( part)) continue;
+				if ( "..".equals( part)) throw new IOException( "Refusing to extract '" + name + "' outside of '" + root + "'.");
+				file = new File( file, part);
+			}
+			if ( file.equals( root)) throw new IOException( "Refusing to extract '" + name + "' over '" + root + "'.");
+			final File parent = file.getParentFile();
+			if ( !safe.contains( parent)) {
+				final List< File> missing = new ArrayList< File>();
+				File existing = parent;
+				for ( ; !Files.exists( existing.toPath(), NOFOLLOW); existing = existing.getParentFile()) missing.add( existing);
+				if ( !inside( existing)) throw new IOException( "Refusing to extract '" + name + "' outside of '" + root + "'.");
+				if ( Files.isSymbolicLink( existing.toPath()) && !existing.isDirectory()) throw new IOException( "Refusing to extract '" + name + "' through dangling link '" + existing + "'.");
+				for ( int i = missing.size() - 1; i >= 0; i--) Files.createDirectory( missing.get( i).toPath());
+				if ( !parent.isDirectory()) throw new IOException( "Could not create directory '" + parent + "'.");
+				if ( !inside( parent)) throw new IOException( "Refusing to extract '" + name + "' outside of '" + root + "'.");
+				safe.add( parent);
+			}
+			return file;
+		}
+
+		/**
+		 * Whether an existing file resolves, through any symbolic links, to the directory or below it.
+		 */
+		private boolean inside( final File file) throws IOException {
+			final String canonical = file.getCanonicalPath();
+			return canonical.equals( root.getPath()) || canonical.startsWith( root.getPath() + File.separator);
+		}
+
+		private List< File> files( final List< Entry> entries) {
+			final List< File> files = new ArrayList< File>( entries.size());
+			for ( Entry entry : entries) files.add( entry.file);
+			return files;
+		}
+
+		private void acquire() throws IOException {
+			try {
+				pending.acquire();
+			} catch ( InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException( "Interrupted while extracting payload.");
+			}
+		}
+
+		private void get( final Future< Void> write) throws IOException {
+			try {
+				write.get();
+			} catch ( InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException( "Interrupted while extracting payload.");
+			} catch ( ExecutionException e) {
+				final Throwable cause = e.getCause();
+				if ( cause instanceof IOException) throw ( IOException) cause;
+				if ( cause instanceof RuntimeException) throw ( RuntimeException) cause;
+				throw new RuntimeException( cause);
+			}
+		}
+
+		/**
+		 * Writes one file from the buffers queued for it, releasing each once written. A writer that
+		 * fails keeps taking its buffers, so the reader is never left waiting for them.
+		 */
+		private class Writer implements Callable< Void> {
+			private final BlockingQueue< ByteBuffer> queue = new LinkedBlockingQueue< ByteBuffer>();
+			private final File file;
+			private final int permissions;
+			private final int mtime;
+			private final List< File> links;
+
+			Writer( final File file, final int permissions, final int mtime, final List< File> links) {
+				this.file = file;
+				this.permissions = permissions;
+				this.mtime = mtime;
+				this.links = links;
+			}
+
+			public Void call() throws Exception {
+				IOException failure = null;
+				FileChannel out = null;
+				try {
+					Files.deleteIfExists( file.toPath());
+					out = FileChannel.open( file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS);
+				} catch ( IOException e) {
+					failure = e;
+				}
+				try {
+					for ( ByteBuffer buffer = queue.take(); buffer != END; buffer = queue.take()) {
+						try {
+							if ( failure == null) Util.empty( out, buffer);
+						} catch ( IOException e) {
+							failure = e;
+						} finally {
+							buffers.release( buffer);
+							pending.release();
+						}
+					}
+				} finally {
+					if ( out != null) out.close();
+				}
+				if ( failure != null) throw failure;
+				if ( links != null) {
+					for ( File link : links) {
+						Files.deleteIfExists( link.toPath());
+						Files.createLink( link.toPath(), file.toPath());
+					}
+				}
+				attributes( file, permissions, mtime);
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * An entry and the file it was resolved to when it was read.
+	 */
+	private static class Entry {
+		final CpioHeader header;
+		final File file;
+
+		Entry( final CpioHeader header, final File file) {
+			this.header = header;
+			this.file = file;
+		}
+	}
+
+	/**
+	 * Applies the permissions and modification time of an entry to the file itself, refusing to
+	 * follow a symbolic link that has taken its place.
+	 */
+	private static void attributes( final File file, final int permissions, final int mtime) throws IOException {
+		final Path path = file.toPath();
+		if ( Files.isSymbolicLink( path)) throw new IOException( "Refusing to set the attributes of '" + file + "' through a symbolic link.");
+		if ( POSIX) {
+			final Set< PosixFilePermission> set = EnumSet.noneOf( PosixFilePermission.class);
+			for ( int i = 0; i < PERMISSIONS.length; i++) if (( permissions & ( 1 << i)) != 0) set.add( PERMISSIONS[ i]);
+			Files.getFileAttributeView( path, PosixFileAttributeView.class, NOFOLLOW).setPermissions( set);
+		} else {
+			file.setWritable(( permissions & 0200) != 0);
+			file.setExecutable(( permissions & 0100) != 0);
+		}
+		Files.getFileAttributeView( path, BasicFileAttributeView.class, NOFOLLOW).setTimes( FileTime.fromMillis( mtime * 1000L), null, null);
+	}
+}
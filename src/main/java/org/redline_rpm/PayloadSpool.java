@@ -0,0 +1,114 @@
+package org.redline_rpm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Holds a compressed payload that has been generated exactly once into a
+ * temporary file, together with the values that describe it. The spooled
+ * bytes are the bytes later copied into the RPM, so the digest recorded
+ * in the header always matches the payload that follows it, even if the
+ * source files change while the package is being built.
+ */
+public class PayloadSpool {
+
+	private final File file;
+	private final RandomAccessFile raFile;
+	private byte[] digest;
+	private long archiveSize;
+	private long length;
+
+	/**
+	 * Creates a new, empty spool file.
+	 *
+	 * @param directory the directory in which to create the spool file, or null for the
+	 * default temporary directory
+	 * @throws IOException if the spool file cannot be created
+	 */
+	public PayloadSpool( final File directory) throws IOException {
+		file = File.createTempFile( "redline", ".payload", directory);
+		raFile = new RandomAccessFile( file, "rw");
+	}
+
+	/**
+	 * The channel to which the compressed payload is written.
+	 * @return the spool file channel
+	 */
+	public FileChannel getChannel() {
+		return raFile.getChannel();
+	}
+
+	/**
+	 * The SHA-256 digest of the spooled, compressed payload.
+	 * @return the digest bytes
+	 */
+	public byte[] getDigest() {
+		return digest;
+	}
+
+	/**
+	 * The size of the uncompressed archive contained in the payload.
+	 * @return the archive size
+	 */
+	public long getArchiveSize() {
+		return archiveSize;
+	}
+
+	/**
+	 * The number of compressed bytes in the spool.
+	 * @return the spooled length
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	void setDigest( final byte[] digest) {
+		this.digest = digest;
+	}
+
+	void setArchiveSize( final long archiveSize) {
+		this.archiveSize = archiveSize;
+	}
+
+	void setLength( final long length) {
+		this.length = length;
+	}
+
+	/**
+	 * Copies the spooled payload to the given channel. The bytes are moved by the file system
+	 * rather than through the heap, including to a {@link WritableChannelWrapper}, whose
+	 * consumers see them through a pooled direct buffer.
+	 *
+	 * @param out the channel to write the payload to
+	 * @throws IOException if an IO error occurs
+	 */
+	public void transferTo( final WritableByteChannel out) throws IOException {
+		final FileChannel in = raFile.getChannel();
+		if ( out instanceof WritableChannelWrapper) {
+			(( WritableChannelWrapper) out).transferFrom( in, 0, length);
+			return;
+		}
+		long position = 0;
+		while ( position < length) {
+			final long sent = in.transferTo( position, length - position, out);
+			if ( sent <= 0) throw new IOException( "Payload spool ended at '" + position + "' of '" + length + "' bytes.");
+			position += sent;
+		}
+	}
+
+	/**
+	 * Closes and removes the spool file.
+	 *
+	 * @throws IOException if an IO error occurs
+	 */
+	public void close() throws IOException {
+		try {
+			raFile.close();
+		} finally {
+			file.delete();
+		}
+	}
+}
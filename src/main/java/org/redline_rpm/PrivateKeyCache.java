@@ -0,0 +1,137 @@
+package org.redline_rpm;
+
+import org.bouncycastle.openpgp.PGPPrivateKey;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A process wide cache of the private keys read from key ring files, so that signing many packages
+ * with one key reads the key ring and runs the deliberately slow passphrase decryption once rather
+ * than for every package. Keys are cached by key ring path and key id, are held for a
+ * {@link #setExpiry(long) limited time}, and are read again if the key ring file changes or a
+ * different passphrase is given. Concurrent requests for a key that is not yet cached wait for a
+ * single decryption. A key that cannot be read is not cached.
+ */
+public final class PrivateKeyCache {
+
+    /**
+     * The default time a key is held, in milliseconds.
+     */
+    public static final long DEFAULT_EXPIRY = 10 * 60 * 1000L;
+
+    private static final ConcurrentMap< String, Cached> KEYS = new ConcurrentHashMap< String, Cached>();
+    private static final byte[] SALT = new byte[ 16 ];
+    private static volatile long expiry = DEFAULT_EXPIRY;
+    static {
+        new SecureRandom().nextBytes( SALT );
+    }
+
+    private PrivateKeyCache() {
+    }
+
+    /**
+     * Gets the signing key from a key ring, reading and decrypting it only if it is not already cached.
+     * @param privateKeyRingFile the private key ring file
+     * @param privateKeyId hex key id, or null for the first signing key
+     * @param privateKeyPassphrase the private key pass phrase
+     * @return the private key, or null if it could not be extracted with the given pass phrase
+     * @throws IllegalArgumentException if the key ring cannot be read or has no matching key
+     */
+    public static PGPPrivateKey get( final File privateKeyRingFile, final String privateKeyId, final String privateKeyPassphrase ) {
+        final String name = privateKeyRingFile.getAbsolutePath() + '\0' + ( privateKeyId == null ? "" : privateKeyId.toLowerCase() );
+        final byte[] secret = digest( privateKeyPassphrase );
+        while ( true ) {
+            Cached cached = KEYS.get( name );
+            if ( cached != null && !cached.isCurrent( privateKeyRingFile, secret ) ) {
+                KEYS.remove( name, cached );
+                cached = null;
+            }
+            if ( cached == null ) {
+                final Cached created = new Cached( privateKeyRingFile, privateKeyId, privateKeyPassphrase, secret );
+                cached = KEYS.putIfAbsent( name, created );
+                if ( cached == null ) {
+                    cached = created;
+                    created.task.run();
+                } else {
+                    continue;
+                }
+            }
+            try {
+                final PGPPrivateKey key = cached.task.get();
+                if ( key == null ) KEYS.remove( name, cached );
+                return key;
+            } catch ( ExecutionException e ) {
+                KEYS.remove( name, cached );
+                if ( e.getCause() instanceof RuntimeException ) throw ( RuntimeException ) e.getCause();
+                throw new IllegalArgumentException( "Could not read private key from: " + privateKeyRingFile, e.getCause() );
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException( "Interrupted while waiting for private key from: " + privateKeyRingFile, e );
+            }
+        }
+    }
+
+    /**
+     * Sets the time a key is held before it is read from its key ring again.
+     * @param milliseconds the expiry time in milliseconds
+     */
+    public static void setExpiry( final long milliseconds ) {
+        expiry = milliseconds;
+    }
+
+    /**
+     * Discards every cached key.
+     */
+    public static void clear() {
+        KEYS.clear();
+    }
+
+    private static byte[] digest( final String passphrase ) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+            digest.update( SALT );
+            if ( passphrase != null ) digest.update( passphrase.getBytes( "UTF-8" ) );
+            else digest.update( ( byte ) 1 );
+            return digest.digest();
+        } catch ( NoSuchAlgorithmException e ) {
+            throw new RuntimeException( e );
+        } catch ( UnsupportedEncodingException e ) {
+            throw new RuntimeException( e );
+        }
+    }
+
+    private static class Cached {
+        private final long loaded = System.currentTimeMillis();
+        private final long modified;
+        private final long length;
+        private final byte[] secret;
+        private final FutureTask< PGPPrivateKey> task;
+
+        Cached( final File privateKeyRingFile, final String privateKeyId, final String privateKeyPassphrase, final byte[] secret ) {
+            this.modified = privateKeyRingFile.lastModified();
+            this.length = privateKeyRingFile.length();
+            this.secret = secret;
+            this.task = new FutureTask< PGPPrivateKey>( new Callable< PGPPrivateKey>() {
+                public PGPPrivateKey call() {
+                    return new SignatureGenerator( privateKeyRingFile, privateKeyId, privateKeyPassphrase ).privateKey;
+                }
+            } );
+        }
+
+        boolean isCurrent( final File privateKeyRingFile, final byte[] secret ) {
+            return System.currentTimeMillis() - loaded < expiry
+                    && privateKeyRingFile.lastModified() == modified
+                    && privateKeyRingFile.length() == length
+                    && MessageDigest.isEqual( this.secret, secret );
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.redline_rpm;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the progress of a build for a {@link ProgressListener} and checks its
+ * {@link CancellationToken}. The counts may be updated from several threads at once.
+ */
+public class Progress {
+
+	private final ProgressListener listener;
+	private final CancellationToken token;
+	private final AtomicInteger files = new AtomicInteger();
+	private final AtomicLong bytes = new AtomicLong();
+	private volatile Metrics.Phase phase;
+	private volatile int totalFiles;
+	private volatile long totalBytes;
+
+	/**
+	 * Creates a tracker.
+	 *
+	 * @param listener the listener to report to, or null
+	 * @param token the token to check, or null if the build cannot be cancelled
+	 */
+	public Progress( final ProgressListener listener, final CancellationToken token) {
+		this.listener = listener;
+		this.token = token;
+	}
+
+	/**
+	 * Starts counting a phase from nothing.
+	 *
+	 * @param phase the phase
+	 * @param totalFiles the files in the package
+	 * @param totalBytes the bytes of file contents in the package
+	 * @throws BuildCancelledException if the build has been cancelled
+	 */
+	public void start( final Metrics.Phase phase, final int totalFiles, final long totalBytes) throws BuildCancelledException {
+		check();
+		this.phase = phase;
+		this.totalFiles = totalFiles;
+		this.totalBytes = totalBytes;
+		files.set( 0);
+		bytes.set( 0);
+		report();
+	}
+
+	/**
+	 * Counts a file as done.
+	 *
+	 * @throws BuildCancelledException if the build has been cancelled
+	 */
+	public void addFile() throws BuildCancelledException {
+		files.incrementAndGet();
+		report();
+		check();
+	}
+
+	/**
+	 * Counts bytes of file contents as done.
+	 *
+	 * @param count the number of bytes
+	 * @throws BuildCancelledException if the build has been cancelled
+	 */
+	public void addBytes( final long count) throws BuildCancelledException {
+		bytes.addAndGet( count);
+		report();
+		check();
+	}
+
+	/**
+	 * Fails if the build has been cancelled.
+	 *
+	 * @throws BuildCancelledException if the build has been cancelled
+	 */
+	public void check() throws BuildCancelledException {
+		if ( token != null) token.check();
+	}
+
+	private void report() {
+		if ( listener == null) return;
+		synchronized ( this) {
+			listener.progress( phase, files.get(), totalFiles, bytes.get(), totalBytes);
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package org.redline_rpm;
+
+/**
+ * Receives the progress of a build through its longest phases, {@link Metrics.Phase#DIGEST}
+ * while the packaged files are digested and {@link Metrics.Phase#PAYLOAD} while they are
+ * written to the payload. See {@link Builder#setProgressListener(ProgressListener)}.
+ */
+public interface ProgressListener {
+
+	/**
+	 * Called when a phase starts, after each buffer of file contents and after each file. Calls
+	 * may come from the worker threads of the build, but never two at once.
+	 *
+	 * @param phase the current phase
+	 * @param files the files done in the current phase
+	 * @param totalFiles the files in the package
+	 * @param bytes the bytes of file contents done in the current phase
+	 * @param totalBytes the bytes of file contents in the package
+	 */
+	void progress( Metrics.Phase phase, int files, int totalFiles, long bytes, long totalBytes);
+}
@@ -0,0 +1,143 @@
+package org.redline_rpm;
+
+import org.redline_rpm.header.Format;
+import org.redline_rpm.header.Header;
+import org.redline_rpm.header.Lead;
+import org.redline_rpm.header.Signature;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+
+/**
+ * An RPM file opened for random access. The file is mapped into memory and the lead, signature
+ * and header are read straight from the mapping, with their entries decoded only when they are
+ * first requested, so reading a few tags from a package costs a few page faults rather than a
+ * copy of its metadata. Unlike the {@link Scanner}, the payload is not read at all unless asked
+ * for, and is available either mapped as it is stored or decompressed as a stream.
+ *
+ * The mapping outlives {@link #close()}, so entries may still be read from a closed file, but
+ * the payload may not.
+ */
+public class RpmFile implements Closeable {
+
+	private final File file;
+	private final FileInputStream in;
+	private final FileChannel channel;
+	private final MappedByteBuffer mapped;
+	private final Format format = new Format();
+	private final long payloadOffset;
+	private final long payloadLength;
+
+	/**
+	 * Opens and reads the metadata of an RPM file.
+	 *
+	 * @param file the RPM file
+	 * @throws IOException the file cannot be read or is not an RPM
+	 */
+	public RpmFile( final File file) throws IOException {
+		this.file = file;
+		this.in = new FileInputStream( file);
+		try {
+			channel = in.getChannel();
+			final long size = channel.size();
+			mapped = channel.map( READ_ONLY, 0, Math.min( size, Integer.MAX_VALUE));
+			format.getSignature().setLazy( true);
+			format.getHeader().setLazy( true);
+			format.read( mapped.duplicate());
+			payloadOffset = format.getHeader().getEndPos();
+			payloadLength = size - payloadOffset;
+		} catch ( IOException e) {
+			in.close();
+			throw e;
+		} catch ( RuntimeException e) {
+			in.close();
+			throw new IOException( "Could not read RPM from '" + file + "'.", e);
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public Format getFormat() {
+		return format;
+	}
+
+	public Lead getLead() {
+		return format.getLead();
+	}
+
+	public Signature getSignature() {
+		return format.getSignature();
+	}
+
+	public Header getHeader() {
+		return format.getHeader();
+	}
+
+	/**
+	 * Gets the position in the file at which the compressed payload starts, just after the header.
+	 *
+	 * @return the offset of the payload in bytes
+	 */
+	public long getPayloadOffset() {
+		return payloadOffset;
+	}
+
+	/**
+	 * Gets the length of the compressed payload, which runs to the end of the file.
+	 *
+	 * @return the length of the payload in bytes
+	 */
+	public long getPayloadLength() {
+		return payloadLength;
+	}
+
+	/**
+	 * Maps the compressed payload as it is stored in the file.
+	 *
+	 * @return a read only buffer holding the compressed payload
+	 * @throws IOException the payload cannot be mapped, or is too large to be held in one buffer
+	 */
+	public ByteBuffer getRawPayload() throws IOException {
+		if ( payloadLength > Integer.MAX_VALUE) throw new IOException( "Payload of '" + payloadLength + "' bytes is too large to map.");
+		return channel.map( READ_ONLY, payloadOffset, payloadLength);
+	}
+
+	/**
+	 * Opens a stream of the payload, decompressed with the codec named in the header. The stream
+	 * reads the file independently of any other payload stream opened on this file, and must be
+	 * closed.
+	 *
+	 * @return the uncompressed cpio archive
+	 * @throws IOException the payload cannot be read or its codec is not supported
+	 */
+	public InputStream openPayload() throws IOException {
+		final FileInputStream payload = new FileInputStream( file);
+		try {
+			payload.getChannel().position( payloadOffset);
+			return Util.openPayloadStream( format.getHeader(), Channels.newInputStream( payload.getChannel()));
+		} catch ( IOException e) {
+			payload.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Closes the file. Entries not yet decoded may still be read from the mapping.
+	 *
+	 * @throws IOException there was an IO error
+	 */
+	public void close() throws IOException {
+		in.close();
+	}
+}
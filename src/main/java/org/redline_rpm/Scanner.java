@@ -33,6 +33,7 @@ import static org.redline_rpm.header.Signature.SignatureTag.SIGNATURES;
 public class Scanner {
     private static final Logger LOGGER = LoggerFactory.getLogger(Scanner.class);  
     private final PrintStream output;
+    private MetricsListener metricsListener;
 
     public Scanner() {
         this(null);
@@ -42,6 +43,16 @@ public class Scanner {
         this.output = out;
     }
 
+    /**
+     * Measures each scan, reporting the time spent reading the lead, signature and header to
+     * the given listener once the scan completes. Scans are not measured without one.
+     *
+     * @param metricsListener the listener to report to, or null to stop measuring scans
+     */
+    public void setMetricsListener(final MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
     /**
 	 * Scans a file and prints out useful information.
 	 * This utility reads from standard input, and parses
@@ -62,15 +73,32 @@ public class Scanner {
 		InputStream uncompressed = Util.openPayloadStream(rpmHeader, fios);
 		in = new ReadableChannelWrapper( Channels.newChannel( uncompressed));
 		CpioHeader header;
-		int total = 0;
-		do {
-			header = new CpioHeader();
-			total = header.read( in, total);
-            scanner.log(header.toString());
-			final int skip = header.getFileSize();
-			if ( uncompressed.skip( skip) != skip) throw new RuntimeException( "Skip failed.");
-			total += header.getFileSize();
-		} while ( !header.isLast());
+		long total = 0;
+		StrippedEntries stripped = null;
+		final BufferPool pool = BufferPool.getShared();
+		final ByteBuffer buffer = pool.acquire();
+		try {
+			do {
+				header = new CpioHeader();
+				total = header.read( in, total);
+				if ( header.isStripped()) {
+					if ( stripped == null) stripped = new StrippedEntries( rpmHeader);
+					stripped.describe( header);
+				}
+				scanner.log(header.toString());
+				long skip = header.getFileSize();
+				while ( skip > 0) {
+					buffer.clear();
+					if ( skip < buffer.capacity()) buffer.limit(( int) skip);
+					final int read = in.read( buffer);
+					if ( read == -1) throw new RuntimeException( "Skip failed.");
+					skip -= read;
+				}
+				total += header.getFileSize();
+			} while ( !header.isLast());
+		} finally {
+			pool.release( buffer);
+		}
 	}
 
 	/**
@@ -83,12 +111,15 @@ public class Scanner {
 	 */
 	public Format run( ReadableChannelWrapper in) throws IOException {
 		Format format = new Format();
+		final Metrics metrics = metricsListener == null ? null : new Metrics();
         	Key< Integer> headerStartKey = in.start();
 		
+		if ( metrics != null) metrics.enter( Metrics.Phase.LEAD);
 		Key< Integer> lead = in.start();
 		format.getLead().read( in);
 		log( "Lead ended at '" + in.finish( lead) + "'.");
 
+		if ( metrics != null) metrics.enter( Metrics.Phase.SIGNATURE);
 		Key< Integer> signature = in.start();
 		int count = format.getSignature().read( in);
 		Entry<?> sigEntry = format.getSignature().getEntry(SIGNATURES);
@@ -97,6 +128,7 @@ public class Scanner {
 
         	Integer headerStartPos = in.finish(headerStartKey);
         	format.getHeader().setStartPos(headerStartPos);
+		if ( metrics != null) metrics.enter( Metrics.Phase.HEADER);
 		Key< Integer> headerKey = in.start();
 		count = format.getHeader().read( in);
 		Entry<?> immutableEntry = format.getHeader().getEntry( HEADERIMMUTABLE);
@@ -105,6 +137,12 @@ public class Scanner {
         	format.getHeader().setEndPos(headerStartPos + headerLength);
         	log( "Header ended at '" + headerLength + " and contained '" + count + "' headers (expected '" + expected + "').");
 
+		if ( metrics != null) {
+			metrics.addBytesRead( headerStartPos + headerLength);
+			metrics.finish();
+			metricsListener.completed( metrics);
+		}
+
 		return format;
 	}
 
@@ -0,0 +1,96 @@
+package org.redline_rpm;
+
+import org.redline_rpm.header.AbstractHeader.Entry;
+import org.redline_rpm.header.Header;
+import org.redline_rpm.header.Header.HeaderTag;
+import org.redline_rpm.payload.CpioHeader;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Completes headers read from stripped cpio entries, which record only the index of their file,
+ * with what the RPM header records for that file. The hard link sets of the package are found
+ * once, by inode and device, so that each entry is described without searching the header.
+ */
+class StrippedEntries {
+
+	private final String[] dirNames;
+	private final int[] dirIndexes;
+	private final String[] baseNames;
+	private final short[] modes;
+	private final long[] sizes;
+	private final String[] linkTos;
+	private final int[] mtimes;
+	private final int[] devices;
+	private final int[] inodes;
+	private final int[] nlinks;
+	private final boolean[] carriers;
+
+	/**
+	 * Reads the file entries of an RPM header.
+	 *
+	 * @param rpmHeader the RPM header
+	 */
+	StrippedEntries( final Header rpmHeader) {
+		dirNames = ( String[]) rpmHeader.getEntry( HeaderTag.DIRNAMES).getValues();
+		dirIndexes = ( int[]) rpmHeader.getEntry( HeaderTag.DIRINDEXES).getValues();
+		baseNames = ( String[]) rpmHeader.getEntry( HeaderTag.BASENAMES).getValues();
+		modes = ( short[]) rpmHeader.getEntry( HeaderTag.FILEMODES).getValues();
+		sizes = ( long[]) rpmHeader.getEntry( HeaderTag.LONGFILESIZES).getValues();
+		linkTos = ( String[]) rpmHeader.getEntry( HeaderTag.FILELINKTOS).getValues();
+		mtimes = values( rpmHeader, HeaderTag.FILEMTIMES);
+		devices = values( rpmHeader, HeaderTag.FILEDEVICES);
+		inodes = values( rpmHeader, HeaderTag.FILEINODES);
+
+		nlinks = new int[ baseNames.length];
+		carriers = new boolean[ baseNames.length];
+		final Map< Long, int[]> sets = new HashMap< Long, int[]>();
+		for ( int index = 0; index < baseNames.length; index++) {
+			if ( inodes == null || ( modes[ index] & 0xffff) >>> 12 != CpioHeader.FILE) continue;
+			final Long key = key( index);
+			final int[] set = sets.get( key);
+			if ( set == null) sets.put( key, new int[] { 1, index});
+			else {
+				set[ 0]++;
+				set[ 1] = index;
+			}
+		}
+		for ( int index = 0; index < baseNames.length; index++) {
+			final int[] set = inodes == null ? null : sets.get( key( index));
+			nlinks[ index] = set == null ? 1 : set[ 0];
+			carriers[ index] = set == null || set[ 1] == index;
+		}
+	}
+
+	/**
+	 * Completes a header read from a stripped cpio entry with the name, mode, modification time,
+	 * inode, device and size recorded for its file. Only regular files and symbolic links carry
+	 * data, and of a set of hard linked files only the last in the archive does.
+	 *
+	 * @param header the stripped cpio header
+	 */
+	void describe( final CpioHeader header) {
+		final int index = header.getFileIndex();
+		final int mode = modes[ index] & 0xffff;
+		header.setName( dirNames[ dirIndexes[ index]] + baseNames[ index]);
+		header.setType( mode >>> 12);
+		header.setPermissions( mode & 07777);
+		if ( mtimes != null) header.setMtime( 1000L * mtimes[ index]);
+		if ( inodes != null) header.setInode( inodes[ index]);
+		if ( devices != null) header.setDevice( devices[ index] >>> 8, devices[ index] & 0xff);
+		header.setNlink( nlinks[ index]);
+		if ( header.getType() == CpioHeader.FILE) header.setFileSize( carriers[ index] ? sizes[ index] : 0);
+		else if ( header.getType() == CpioHeader.SYMLINK) header.setFileSize( Util.utf8Length( linkTos[ index]));
+		else header.setFileSize( 0);
+	}
+
+	private Long key( final int index) {
+		return (( long) ( devices == null ? 0 : devices[ index]) << 32) | ( inodes[ index] & 0xFFFFFFFFL);
+	}
+
+	private static int[] values( final Header rpmHeader, final HeaderTag tag) {
+		final Entry< ?> entry = rpmHeader.getEntry( tag);
+		return entry == null ? null : ( int[]) entry.getValues();
+	}
+}
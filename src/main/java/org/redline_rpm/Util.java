@@ -1,10 +1,11 @@
 package org.redline_rpm;
 
-import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
 import org.redline_rpm.header.AbstractHeader.Entry;
 import org.redline_rpm.header.Header;
 import org.redline_rpm.header.Header.HeaderTag;
 import org.redline_rpm.header.PayloadCompressionType;
+import org.redline_rpm.payload.PayloadCodec;
+import org.redline_rpm.payload.PayloadCodecs;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -17,7 +18,6 @@ import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.util.Formatter;
-import java.util.zip.GZIPInputStream;
 
 /**
  * General utilities needed to read and write
@@ -29,6 +29,8 @@ public class Util {
 	
 	private static final int ARRAY_SIZE = 4096;
 
+	private static final ByteBuffer ZEROS = ByteBuffer.allocateDirect( 8).asReadOnlyBuffer();
+
 	private Util() {}
 	
 	public static int getTempArraySize(int totalSize) {
@@ -122,6 +124,10 @@ public class Util {
 		return (( boundary + 1) - ( start & boundary)) & boundary;
 	}
 
+	public static int difference( long start, int boundary) {
+		return difference(( int) ( start & boundary), boundary);
+	}
+
 	public static int round( int start, int boundary) {
 		return ( start + boundary) & ~boundary;
 	}
@@ -139,6 +145,71 @@ public class Util {
 		buffer.position( round( buffer.position(), boundary));
 	}
 
+	/**
+	 * Gets a buffer of zeros for writing alignment padding, shared rather than allocated.
+	 *
+	 * @param count the number of zeros, up to eight
+	 * @return a read only buffer holding the zeros
+	 */
+	public static ByteBuffer zeros( int count) {
+		return ( ByteBuffer) ZEROS.duplicate().limit( count);
+	}
+
+	/**
+	 * Counts the bytes needed to encode the given characters as UTF-8, without encoding them.
+	 * An unpaired surrogate counts as the single replacement byte the UTF-8 charset writes for it.
+	 *
+	 * @param value the characters to measure
+	 * @return the length of the encoded characters in bytes
+	 */
+	public static int utf8Length( final CharSequence value) {
+		final int length = value.length();
+		int bytes = length;
+		for ( int i = 0; i < length; i++) {
+			final char c = value.charAt( i);
+			if ( c < 0x80) continue;
+			if ( c < 0x800) bytes += 1;
+			else if ( Character.isHighSurrogate( c) && i + 1 < length && Character.isLowSurrogate( value.charAt( i + 1))) {
+				bytes += 2;
+				i++;
+			}
+			else if ( !Character.isSurrogate( c)) bytes += 2;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Encodes the given characters as UTF-8 directly into a buffer, writing exactly
+	 * {@link #utf8Length(CharSequence)} bytes and the same bytes as the UTF-8 charset would.
+	 *
+	 * @param buffer the buffer to write to, which must have room for the encoded characters
+	 * @param value the characters to encode
+	 */
+	public static void putUtf8( final ByteBuffer buffer, final CharSequence value) {
+		final int length = value.length();
+		for ( int i = 0; i < length; i++) {
+			final char c = value.charAt( i);
+			if ( c < 0x80) buffer.put(( byte) c);
+			else if ( c < 0x800) {
+				buffer.put(( byte) ( 0xC0 | ( c >> 6)));
+				buffer.put(( byte) ( 0x80 | ( c & 0x3F)));
+			}
+			else if ( Character.isHighSurrogate( c) && i + 1 < length && Character.isLowSurrogate( value.charAt( i + 1))) {
+				final int point = Character.toCodePoint( c, value.charAt( ++i));
+				buffer.put(( byte) ( 0xF0 | ( point >> 18)));
+				buffer.put(( byte) ( 0x80 | (( point >> 12) & 0x3F)));
+				buffer.put(( byte) ( 0x80 | (( point >> 6) & 0x3F)));
+				buffer.put(( byte) ( 0x80 | ( point & 0x3F)));
+			}
+			else if ( Character.isSurrogate( c)) buffer.put(( byte) '?');
+			else {
+				buffer.put(( byte) ( 0xE0 | ( c >> 12)));
+				buffer.put(( byte) ( 0x80 | (( c >> 6) & 0x3F)));
+				buffer.put(( byte) ( 0x80 | ( c & 0x3F)));
+			}
+		}
+	}
+
 	public static void dump( byte[] data) {
 		dump( data, System.out);
 	}
@@ -205,30 +276,9 @@ public class Util {
     */
    public static InputStream openPayloadStream(Header header, InputStream rpmIS) throws IOException {
       Entry< ?> pcEntry = header.getEntry(HeaderTag.PAYLOADCOMPRESSOR);
-      String[] pc = (String[]) pcEntry.getValues();
-      PayloadCompressionType pcType = PayloadCompressionType.valueOf(pc[0]);
-      InputStream payloadIS = rpmIS;
-      switch (pcType) {
-         case none:
-            break;
-         case gzip:
-            payloadIS = new GZIPInputStream(rpmIS);
-            break;
-         case bzip2:
-            try {
-               payloadIS = new org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream(rpmIS);
-            } catch (Exception e) {
-               throw new IOException("Failed to load BZIP2 compression stream", e);
-            }
-            break;
-         case xz:
-            try {
-               payloadIS = new XZCompressorInputStream(rpmIS);
-            } catch (Exception e) {
-               throw new IOException("Failed to load XZ compression stream", e);
-            }
-            break;
-      }
-      return payloadIS;
+      String name = pcEntry == null ? PayloadCompressionType.gzip.name() : ((String[]) pcEntry.getValues())[0];
+      PayloadCodec codec = PayloadCodecs.get(name);
+      if (codec == null) throw new IOException("Unsupported payload compressor '" + name + "'");
+      return codec.decompress(rpmIS);
    }
 }
@@ -2,6 +2,7 @@ package org.redline_rpm;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
 
 /**
@@ -25,10 +26,55 @@ public class WritableChannelWrapper extends ChannelWrapper implements WritableBy
 	 * @throws IOException if an IO error occurs
 	 */
 	public int write( final ByteBuffer buffer) throws IOException {
-		for ( Consumer< ?> consumer : consumers.values()) consumer.consume( buffer.duplicate());
+		consume( buffer);
 		return channel.write( buffer);
 	}
 
+	/**
+	 * Copies a region of a file to the wrapped channel without reading it onto the heap. Without
+	 * consumers the region is moved by {@link FileChannel#transferTo(long, long, WritableByteChannel)},
+	 * or passed on in the same way when the wrapped channel is itself a wrapper. With consumers it
+	 * is read into a direct buffer from the {@link BufferPool#getShared() shared pool}, and the
+	 * bytes read are passed to the consumers and then written, so that what is observed is
+	 * exactly what is written. Payloads written by a {@link Builder} are always observed, by the
+	 * archive size and the signature digests, and so always take the buffered copy.
+	 *
+	 * @param in the file to copy from
+	 * @param position the position of the region in the file
+	 * @param count the length of the region
+	 * @return the number of bytes written
+	 * @throws IOException if an IO error occurs, or the file ends before the region does
+	 */
+	public long transferFrom( final FileChannel in, final long position, final long count) throws IOException {
+		final long end = position + count;
+		if ( !isObserved()) {
+			if ( channel instanceof WritableChannelWrapper) return (( WritableChannelWrapper) channel).transferFrom( in, position, count);
+			for ( long start = position; start < end;) {
+				final long sent = in.transferTo( start, end - start, channel);
+				if ( sent <= 0) throw new IOException( "File ended at '" + start + "' of '" + end + "' bytes.");
+				start += sent;
+			}
+			return count;
+		}
+		final BufferPool pool = BufferPool.getShared();
+		final ByteBuffer buffer = pool.acquire();
+		try {
+			for ( long start = position; start < end;) {
+				buffer.clear();
+				if ( end - start < buffer.capacity()) buffer.limit(( int) ( end - start));
+				final int read = in.read( buffer, start);
+				if ( read <= 0) throw new IOException( "File ended at '" + start + "' of '" + end + "' bytes.");
+				buffer.flip();
+				consume( buffer);
+				Util.empty( channel, buffer);
+				start += read;
+			}
+		} finally {
+			pool.release( buffer);
+		}
+		return count;
+	}
+
 	/**
 	 * Closes the underlying channel and completes
 	 * any outstanding operations in the consumers.
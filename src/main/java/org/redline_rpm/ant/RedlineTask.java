@@ -11,6 +11,7 @@ import org.redline_rpm.changelog.ChangelogParseException;
 import org.redline_rpm.header.Architecture;
 import org.redline_rpm.header.Header;
 import org.redline_rpm.header.Os;
+import org.redline_rpm.header.PayloadCompressionType;
 import org.redline_rpm.header.RpmType;
 import org.redline_rpm.payload.Directive;
 
@@ -84,6 +85,14 @@ public class RedlineTask extends Task {
     
     protected File changeLog;
 
+	protected boolean spoolPayload;
+	protected int compressionThreads;
+	protected int digestThreads;
+	protected File digestCache;
+	protected boolean fingerprint;
+	protected PayloadCompressionType payloadCompression = PayloadCompressionType.gzip;
+	protected Integer compressionLevel;
+
 	public RedlineTask() {
 		try {
 			host = InetAddress.getLocalHost().getHostName();
@@ -125,6 +134,12 @@ public class RedlineTask extends Task {
         builder.setPrivateKeyRingFile( privateKeyRingFile);
         builder.setPrivateKeyId( privateKeyId);
         builder.setPrivateKeyPassphrase( privateKeyPassphrase);
+		builder.setSpoolPayload( spoolPayload);
+		builder.setCompressionThreads( compressionThreads);
+		builder.setDigestThreads( digestThreads);
+		builder.setFingerprint( fingerprint);
+		if ( compressionLevel == null) builder.setPayloadCompression( payloadCompression);
+		else builder.setPayloadCompression( payloadCompression, compressionLevel);
 		if (sourcePackage != null) {
 			builder.addHeaderEntry(Header.HeaderTag.SOURCERPM, sourcePackage);
 		}
@@ -138,6 +153,7 @@ public class RedlineTask extends Task {
 		}
 
 		try {
+			builder.setDigestCache( digestCache);
 			if ( null != preTransScript) {
 				builder.setPreTransScript( preTransScript);
 			}
@@ -284,5 +300,12 @@ public class RedlineTask extends Task {
     public void setPrivateKeyPassphrase( String privateKeyPassphrase ) { this.privateKeyPassphrase = privateKeyPassphrase; }
     public void addBuiltin( BuiltIn builtIn) { builtIns.add(builtIn); }
 	public void setChangeLog(File changeLog) { this.changeLog = changeLog; }
+	public void setSpoolPayload( boolean spoolPayload) { this.spoolPayload = spoolPayload; }
+	public void setCompressionThreads( int compressionThreads) { this.compressionThreads = compressionThreads; }
+	public void setDigestThreads( int digestThreads) { this.digestThreads = digestThreads; }
+	public void setDigestCache( File digestCache) { this.digestCache = digestCache; }
+	public void setFingerprint( boolean fingerprint) { this.fingerprint = fingerprint; }
+	public void setPayloadCompression( PayloadCompressionType payloadCompression) { this.payloadCompression = payloadCompression; }
+	public void setCompressionLevel( Integer compressionLevel) { this.compressionLevel = compressionLevel; }
 	
 }
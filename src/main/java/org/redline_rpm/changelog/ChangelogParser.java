@@ -20,7 +20,7 @@ import java.util.Locale;
  *
  */
 class ChangelogParser {
-	static final SimpleDateFormat fmt = new SimpleDateFormat("EEE MMM dd yyyy", Locale.ENGLISH);
+	private final SimpleDateFormat fmt = new SimpleDateFormat("EEE MMM dd yyyy", Locale.ENGLISH);
 	/**
 	 * @param lines an array of lines read from the Changelog file
 	 * @return a List of ChangeLogEntry objects
@@ -9,13 +9,14 @@ import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
 public abstract class AbstractHeader {
@@ -42,10 +43,15 @@ public abstract class AbstractHeader {
 	protected static final int HEADER_HEADER_SIZE = 16;
 	protected static final int ENTRY_SIZE = 16;
 	protected static final int MAGIC_WORD = 0x8EADE801;
+	private static final Charset UTF_8 = Charset.forName( "UTF-8");
 
 	protected final Map< Integer, Tag> tags = new HashMap< Integer, Tag>();
 	protected final Map< Integer, Entry< ?>> entries = new TreeMap< Integer, Entry< ?>>();
 	protected final Map< Entry< ?>, Integer> pending = new LinkedHashMap< Entry< ?>, Integer>();
+	protected final Map< Integer, int[]> raw = new HashMap< Integer, int[]>();
+	protected ByteBuffer store;
+	protected boolean lazy;
+	protected Set< Integer> projection;
 
     protected int startPos;
     protected int endPos;
@@ -79,14 +85,98 @@ public abstract class AbstractHeader {
 		final int pad = pad() ? Util.round( total, 7) - total : 0;
 		final ByteBuffer data = Util.fill( in, total + pad);
 
+		return read( index, data);
+	}
+
+	/**
+	 * Reads the entire header contents from a buffer, such as a mapped region of a file, starting at
+	 * its current position, and returns the number of entries found. The buffer is left positioned
+	 * after the header, and in lazy mode the data store is kept as a view of the buffer rather than
+	 * copied.
+	 * @param buffer the buffer to read
+	 * @return the number read
+	 * @throws IOException there was an IO error
+	 */
+	public int read( final ByteBuffer buffer) throws IOException {
+		int magic = buffer.getInt();
+		if ( magic == 0) magic = buffer.getInt();
+		Util.check( MAGIC_WORD, magic);
+		buffer.getInt();
+
+		final int count = buffer.getInt();
+		final int total = buffer.getInt();
+		final int pad = pad() ? Util.round( total, 7) - total : 0;
+		final ByteBuffer index = slice( buffer, count * ENTRY_SIZE);
+		final ByteBuffer data = slice( buffer, total + pad);
+
+		return read( index, data);
+	}
+
+	private static ByteBuffer slice( final ByteBuffer buffer, final int length) {
+		final ByteBuffer slice = buffer.slice();
+		slice.limit( length);
+		buffer.position( buffer.position() + length);
+		return slice;
+	}
+
+	private int read( final ByteBuffer index, final ByteBuffer data) {
+		decodeAll();
 		int count = 0;
 		while ( index.remaining() >= ENTRY_SIZE) {
-			readEntry( index.getInt(), index.getInt(), index.getInt(), index.getInt(), data);
+			final int tag = index.getInt();
+			final int type = index.getInt();
+			final int offset = index.getInt();
+			final int length = index.getInt();
+			if ( projection != null && !projection.contains( tag)) continue;
+			if ( lazy) raw.put( tag, new int[] { type, offset, length});
+			else readEntry( tag, type, offset, length, data);
 			count++;
 		}
+		store = raw.isEmpty() ? null : data;
 		return count;
 	}
 
+	/**
+	 * Sets whether reading this header keeps the index and data store as they were read and
+	 * decodes each entry only when it is first requested, so that reading a few tags does not
+	 * pay for decoding large entries such as the file lists or the changelog. Requesting all the
+	 * entries, or writing the header, decodes those not yet decoded.
+	 * @param lazy true to decode entries on demand
+	 */
+	public void setLazy( final boolean lazy) {
+		this.lazy = lazy;
+	}
+
+	/**
+	 * Restricts the entries read into this header to those with the given tags. Entries with other
+	 * tags are skipped without being decoded, so a header read this way must not be written back.
+	 * @param tags the tags to read, or null to read every entry
+	 */
+	public void setProjection( final Tag... tags) {
+		if ( tags == null) {
+			projection = null;
+			return;
+		}
+		projection = new HashSet< Integer>();
+		for ( Tag tag : tags) projection.add( tag.getCode());
+	}
+
+	private Entry< ?> decode( final int tag) {
+		final int[] index = raw.remove( tag);
+		if ( index == null) return null;
+		final Entry< ?> entry = readEntry( tag, index[ 0], index[ 1], index[ 2], store);
+		if ( raw.isEmpty()) store = null;
+		return entry;
+	}
+
+	/**
+	 * Decodes every entry still held in the form it was read in.
+	 */
+	protected void decodeAll() {
+		if ( raw.isEmpty()) return;
+		for ( Integer tag : new ArrayList< Integer>( raw.keySet())) decode( tag);
+	}
+
 	/**
 	 * Writes this header section to the provided file at the current position and returns the
 	 * required padding.  The caller is responsible for adding the padding immediately after
@@ -110,6 +200,7 @@ public abstract class AbstractHeader {
 	}
 
 	public int count() {
+		decodeAll();
 		return entries.size();
 	}
 
@@ -145,55 +236,50 @@ public abstract class AbstractHeader {
 	/**
 	 * Writes the data section of the file, starting at the current position which must be immediately
 	 * after the header section.  Each entry writes its corresponding index into the provided index buffer
-	 * and then writes its data to the file channel.
+	 * and then writes its data into a single buffer, which is sized by a first pass over the entries so
+	 * that each value is encoded once, directly into place.
 	 * @param index ByteBuffer of the index
-	 * @return the total number of bytes written to the data section of the file.
+	 * @return the data section, positioned after the last entry
 	 * @throws IOException there was an IO error
 	 */
 	protected ByteBuffer getData( final ByteBuffer index) throws IOException {
+		decodeAll();
+		final Entry< ?>[] order = entries.values().toArray( new Entry< ?>[ entries.size()]);
+		if ( order.length > 1) {
+			final Entry< ?> first = order[ 0];
+			System.arraycopy( order, 1, order, 0, order.length - 1);
+			order[ order.length - 1] = first;
+		}
+
+		final int[] offsets = new int[ order.length];
 		int offset = 0;
-		final List< ByteBuffer> buffers = new LinkedList< ByteBuffer>();
-		final Iterator< Integer> i = entries.keySet().iterator();
-		
+		for ( int x = 0; x < order.length; x++) {
+			offsets[ x] = order[ x].getOffset( offset);
+			offset = offsets[ x] + order[ x].size();
+		}
+
+		final ByteBuffer data = ByteBuffer.allocate( offset);
 		index.position( 16);
-		final Entry< ?> first = entries.get( i.next());
-		Entry< ?> entry = null;
-		try {
-			while ( i.hasNext()) {
-				entry = entries.get( i.next());
-				offset = writeData( buffers, index, entry, offset);
+		for ( int x = 0; x < order.length; x++) {
+			final Entry< ?> entry = order[ x];
+			if ( x == order.length - 1) index.position( 0);
+			entry.index( index, offsets[ x]);
+			if ( entry.ready()) {
+				data.position( offsets[ x]);
+				try {
+					entry.write( data);
+				} catch ( RuntimeException e) {
+					throw new RuntimeException( "Error while writing '" + entry + "'.", e);
+				}
+				if ( data.position() != offsets[ x] + entry.size()) throw new IllegalStateException( "Entry '" + entry + "' wrote '" + ( data.position() - offsets[ x]) + "' bytes.");
 			}
-			index.position( 0);
-			offset = writeData( buffers, index, first, offset);
-			index.position( index.limit());
-		} catch ( IllegalArgumentException e) {
-			throw new RuntimeException( "Error while writing '" + entry + "'.", e);
+			else pending.put( entry, offsets[ x]);
 		}
-		
-		
-		
-		ByteBuffer data = ByteBuffer.allocate( offset);
-		for ( ByteBuffer buffer : buffers) data.put( buffer);
+		index.position( index.limit());
+		data.position( offset);
 		return data;
 	}
 
-	protected int writeData( final Collection< ByteBuffer> buffers, final ByteBuffer index, final Entry< ?> entry, int offset) {
-		final int shift = entry.getOffset( offset) - offset;
-		if ( shift > 0) buffers.add( ByteBuffer.allocate( shift));
-		offset += shift;
-		
-		final int size = entry.size();
-		final ByteBuffer buffer = ByteBuffer.allocate( size);
-		entry.index( index, offset);
-		if ( entry.ready()) {
-			entry.write( buffer);
-			buffer.flip();
-		}
-		else pending.put( entry, offset);
-		buffers.add( buffer);
-		return offset + size;
-	}
-
 	public void writePending( final FileChannel channel) {
 		for ( Entry< ?> entry : pending.keySet()) {
 			try {
@@ -213,15 +299,26 @@ public abstract class AbstractHeader {
 	}
 
 	public void removeEntry( final Entry< ?> entry) {
+		raw.remove( entry.getTag());
 		entries.remove( entry.getTag());
 	}
 
+	/**
+	 * Returns the entries of this header in tag order.
+	 * @return an unmodifiable view of the entries
+	 */
+	public Collection< Entry< ?>> getEntries() {
+		decodeAll();
+		return Collections.unmodifiableCollection( entries.values());
+	}
+
 	public Entry< ?> getEntry( final Tag tag) {
 		return getEntry( tag.getCode());
 	}
 
 	public Entry< ?> getEntry( final int tag) {
-		return entries.get( tag);
+		final Entry< ?> entry = entries.get( tag);
+		return entry == null && raw.containsKey( tag) ? decode( tag) : entry;
 	}
 
 	@SuppressWarnings( "unchecked")
@@ -323,12 +420,13 @@ public abstract class AbstractHeader {
 		final Entry< ?> entry = createEntry( type);
 		entry.setTag( tag);
 		entry.setCount( count);
+		raw.remove( tag);
 		entries.put( tag, entry);
 		return entry;
 	}
 	
 	public Entry< ?> addOrAppendEntry( final int tag, final int type, final int count) {
-		Entry< ?> entry = entries.get(tag);
+		Entry< ?> entry = getEntry(tag);
 		if (entry == null) {
 			entry = createEntry( type);
 			entry.setTag( tag);
@@ -630,7 +728,7 @@ public abstract class AbstractHeader {
 		public int getType() { return Tag.STRING_ENTRY; }
 		public int size() {
 			if ( size != 0) return size;
-			for ( String s : values) size += Charset.forName( "UTF-8").encode( s).remaining() + 1;
+			for ( String s : values) size += Util.utf8Length( s) + 1;
 			return size;
 		}
 		public void read( final ByteBuffer buffer) {
@@ -642,12 +740,15 @@ public abstract class AbstractHeader {
 				final ByteBuffer slice = buffer.slice();
 				buffer.position( buffer.position() + length + 1);
 				slice.limit( length);
-				values[ x] = Charset.forName( "UTF-8").decode( slice).toString();
+				values[ x] = UTF_8.decode( slice).toString();
 			}
 			setValues( values);
 		}
 		public void write( final ByteBuffer data) {
-			for ( String s : values) data.put( Charset.forName( "UTF-8").encode( s)).put(( byte) 0);
+			for ( String s : values) {
+				Util.putUtf8( data, s);
+				data.put(( byte) 0);
+			}
 		}
 		public String toString() {
 			StringBuilder builder = new StringBuilder( super.toString());
@@ -700,6 +801,7 @@ public abstract class AbstractHeader {
 
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
+		decodeAll();
 		builder.append( "Start Header ( ").append( getClass()).append( ")").append( "\n");
 		int count = 0;
 		for ( int tag : entries.keySet()) {
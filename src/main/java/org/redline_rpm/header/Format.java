@@ -1,6 +1,7 @@
 package org.redline_rpm.header;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 
@@ -28,6 +29,20 @@ public class Format {
 		header.read( channel);
 	}
 
+	/**
+	 * Reads the lead, signature and header from a buffer, such as a mapped region of a file,
+	 * starting at its current position. The buffer is left positioned at the payload.
+	 * @param buffer the buffer to read
+	 * @throws IOException the buffer does not hold a package
+	 */
+	public void read( final ByteBuffer buffer) throws IOException {
+		lead.read( buffer);
+		signature.read( buffer);
+		header.setStartPos( buffer.position());
+		header.read( buffer);
+		header.setEndPos( buffer.position());
+	}
+
 	public void write( final FileChannel channel) throws IOException {
 		lead.write( channel);
 		signature.write( channel);
@@ -107,6 +107,8 @@ public class Header extends AbstractHeader {
 		DISTURL( 1123, STRING_ENTRY, "disturl"),
 		DISTTAG( 1155, STRING_ENTRY, "disttag"),
 
+		LONGFILESIZES( 5008, INT64_ENTRY, "longfilesizes"),
+		LONGSIZE( 5009, INT64_ENTRY, "longsize"),
 		BUGURL( 5012, STRING_ENTRY, "bugurl"),
 		ENCODING( 5062, STRING_ENTRY, "encoding"),
 		PAYLOADDIGEST( 5092, STRING_ARRAY_ENTRY, "payloaddigest"),
@@ -56,8 +56,23 @@ public class Lead {
 	}
 
 	public void read( ReadableByteChannel channel) throws IOException {
-		ByteBuffer lead = Util.fill( channel, LEAD_SIZE);
+		decode( Util.fill( channel, LEAD_SIZE));
+	}
+
+	/**
+	 * Reads the lead from a buffer, such as a mapped region of a file, starting at its current
+	 * position. The buffer is left positioned after the lead.
+	 * @param buffer the buffer to read
+	 * @throws IOException the buffer does not hold a lead
+	 */
+	public void read( final ByteBuffer buffer) throws IOException {
+		final ByteBuffer lead = buffer.slice();
+		lead.limit( LEAD_SIZE);
+		decode( lead);
+		buffer.position( buffer.position() + LEAD_SIZE);
+	}
 
+	private void decode( final ByteBuffer lead) throws IOException {
 		Util.check( MAGIC, lead.getInt());
 
 		major = lead.get();
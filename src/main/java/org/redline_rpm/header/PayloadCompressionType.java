@@ -10,5 +10,6 @@ public enum PayloadCompressionType {
    none,
    gzip,
    bzip2,
-   xz
+   xz,
+   zstd
 }
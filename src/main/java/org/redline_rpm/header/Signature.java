@@ -30,6 +30,9 @@ public class Signature extends AbstractHeader {
 		LEGACY_DSAHEADER( 1011, 7, "dsaheader"),
 		// RSA signature of just the header section, depends on PGP
 		RSAHEADER( 268, 7, "rsaheader"),
+		// 64 bit replacements for sigsize and payloadsize, used when either exceeds 4 GB
+		LONGSIGSIZE( 270, INT64_ENTRY, "longsigsize"),
+		LONGARCHIVESIZE( 271, INT64_ENTRY, "longarchivesize"),
 		SHA256HEADER( 273, STRING_ENTRY, "sha256header"),
 		LEGACY_RSAHEADER( 1012, 7, "rsaheader"),
 		FILEDIGESTALGO( 5011, INT32_ENTRY, "filedigestalgo");
@@ -0,0 +1,438 @@
+package org.redline_rpm.payload;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import static org.redline_rpm.Util.normalizePath;
+import static org.redline_rpm.payload.CpioHeader.DEFAULT_DIRECTORY_PERMISSION;
+import static org.redline_rpm.payload.CpioHeader.DEFAULT_FILE_PERMISSION;
+import static org.redline_rpm.payload.CpioHeader.DEFAULT_GROUP;
+import static org.redline_rpm.payload.CpioHeader.DEFAULT_USERNAME;
+import static org.redline_rpm.payload.CpioHeader.DIR;
+import static org.redline_rpm.payload.CpioHeader.FILE;
+import static org.redline_rpm.payload.CpioHeader.SYMLINK;
+
+/**
+ * The contents of an RPM archive held in columns of primitive values rather than as a
+ * {@link CpioHeader} per entry, for packages of millions of files. A path is stored as an index
+ * into a dictionary of directories and a base name in one shared array of characters, user and
+ * group names as indexes into a dictionary of owners, and the local file an entry is read from
+ * in the same way as its path, so that an entry costs some tens of bytes besides its name.
+ * Headers are created as the archive is traversed and are not retained.
+ *
+ * Paths are normalized as they are added, with repeated and trailing slashes removed. Entries
+ * are sorted when the archive is first read after a change, and a path added more than once
+ * keeps its first entry, as it would in {@link Contents}. To build a package from a compact
+ * archive, pass it to {@link org.redline_rpm.Builder#setFiles(Contents)} before adding files.
+ */
+public class CompactContents extends Contents {
+
+	private final Dictionary dirs = new Dictionary();
+	private final Dictionary owners = new Dictionary();
+	private final Dictionary sourceDirs = new Dictionary();
+	private final Set< String> directories = new HashSet< String>();
+	private final Map< Integer, Object> others = new HashMap< Integer, Object>();
+
+	private int count;
+	private int[] parents = new int[ 0];
+	private int[] names = new int[ 0];
+	private short[] modes = new short[ 0];
+	private long[] sizes = new long[ 0];
+	private int[] mtimes = new int[ 0];
+	private int[] flags = new int[ 0];
+	private int[] verifyFlags = new int[ 0];
+	private int[] users = new int[ 0];
+	private int[] groups = new int[ 0];
+	private int[] sourceParents = new int[ 0];
+	private int[] sourceNames = new int[ 0];
+	private char[] chars = new char[ 1024];
+	private int length;
+	private int[] order;
+	private int[] inodes;
+
+	public synchronized void addLink( final String path, final String target, final int permissions, final String uname, final String gname) {
+		final String name = canonical( path);
+		if ( directories.contains( name)) return;
+		final int x = entry( name, SYMLINK, -1 == permissions ? DEFAULT_FILE_PERMISSION : permissions);
+		sizes[ x] = target.length();
+		mtimes[ x] = ( int) ( System.currentTimeMillis() / 1000L);
+		users[ x] = owner( uname, DEFAULT_USERNAME);
+		groups[ x] = owner( gname, DEFAULT_GROUP);
+		others.put( x, target);
+	}
+
+	public synchronized void addDirectory( final String path, final int permissions, final Directive directive, final String uname, final String gname, final boolean addParents) {
+		final String name = canonical( path);
+		if ( directories.contains( name)) return;
+
+		if ( addParents) addParents( new File( name), permissions, uname, gname);
+		directories.add( name);
+		final int x = entry( name, DIR, -1 == permissions ? DEFAULT_DIRECTORY_PERMISSION : permissions);
+		mtimes[ x] = ( int) ( System.currentTimeMillis() / 1000L);
+		users[ x] = owner( uname, DEFAULT_USERNAME);
+		groups[ x] = owner( gname, DEFAULT_GROUP);
+		if ( directive != null) flags[ x] = directive.flag();
+	}
+
+	public synchronized void addFile( final String path, final File source, final int permissions, final Directive directive, final String uname, final String gname, final int dirmode, final boolean addParents, final int verifyFlags) throws FileNotFoundException {
+		final String name = canonical( path);
+		if ( directories.contains( name)) return;
+
+		if ( addParents) addParents( new File( name), dirmode, uname, gname);
+		final boolean ghost = directive != null && (( directive.flag() & Directive.RPMFILE_GHOST) == Directive.RPMFILE_GHOST);
+		final int x = entry( name, FILE, -1 == permissions ? DEFAULT_FILE_PERMISSION : permissions);
+		sizes[ x] = source.length();
+		mtimes[ x] = ghost ? 0 : ( int) ( source.lastModified() / 1000L);
+		users[ x] = owner( uname, DEFAULT_USERNAME);
+		groups[ x] = owner( gname, DEFAULT_GROUP);
+		this.verifyFlags[ x] = verifyFlags;
+		if ( directive != null) flags[ x] = directive.flag();
+
+		final String parent = source.getParent();
+		sourceParents[ x] = parent == null ? -1 : sourceDirs.index( parent);
+		sourceNames[ x] = matches( names[ x], source.getName()) ? names[ x] : store( source.getName());
+	}
+
+	public synchronized void addSource( final String path, final ContentSource source, final int permissions, final Directive directive, final String uname, final String gname, final int dirmode) {
+		final String name = canonical( path);
+		if ( directories.contains( name)) return;
+
+		addParents( new File( name), dirmode, uname, gname);
+		final long size;
+		final long modified;
+		try {
+			size = source.getLength();
+			modified = source.getLastModified();
+		} catch ( IOException e) {
+			throw new RuntimeException( e);
+		}
+		final int x = entry( name, FILE, -1 == permissions ? DEFAULT_FILE_PERMISSION : permissions);
+		sizes[ x] = size;
+		mtimes[ x] = ( int) ( modified / 1000L);
+		if ( uname != null) users[ x] = owners.index( uname);
+		if ( gname != null) groups[ x] = owners.index( gname);
+		if ( directive != null) flags[ x] = directive.flag();
+		others.put( x, source);
+	}
+
+	public synchronized void release() {
+		for ( Object object : others.values()) {
+			if ( object instanceof ContentSource) (( ContentSource) object).release();
+		}
+	}
+
+	public synchronized int size() { return order().length; }
+
+	public synchronized Iterable< CpioHeader> headers() {
+		final int[] entries = order();
+		return new Iterable< CpioHeader>() {
+			public Iterator< CpioHeader> iterator() {
+				return new Iterator< CpioHeader>() {
+					private int next;
+
+					public boolean hasNext() {
+						return next < entries.length;
+					}
+
+					public CpioHeader next() {
+						if ( !hasNext()) throw new NoSuchElementException();
+						synchronized ( CompactContents.this) {
+							return header( entries[ next++]);
+						}
+					}
+
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	public synchronized Object getSource( final CpioHeader header) {
+		return header instanceof Entry ? source((( Entry) header).index) : null;
+	}
+
+	protected synchronized List< Object> getSources() {
+		final int[] entries = order();
+		return new AbstractList< Object>() {
+			public Object get( final int index) {
+				synchronized ( CompactContents.this) {
+					return source( entries[ index]);
+				}
+			}
+
+			public int size() {
+				return entries.length;
+			}
+		};
+	}
+
+	public synchronized long getLongTotalSize() {
+		long total = 0;
+		for ( int x : order()) {
+			if ( type( x) == FILE) total += sizes[ x];
+		}
+		return total;
+	}
+
+	public synchronized FileTable getFileTable() {
+		final int[] entries = order();
+		final FileTable table = new FileTable( entries.length);
+		final int[] indexes = new int[ dirs.size()];
+		Arrays.fill( indexes, -1);
+		final List< String> dirNames = new ArrayList< String>();
+		for ( int i = 0; i < entries.length; i++) {
+			final int x = entries[ i];
+			final int parent = parents[ x];
+			final String base = string( names[ x]);
+			if ( parent != -1 && !( base.length() == 0 && "/".equals( dirs.get( parent)))) {
+				if ( indexes[ parent] == -1) {
+					indexes[ parent] = dirNames.size();
+					dirNames.add( dirs.get( parent));
+				}
+				table.dirIndexes[ i] = indexes[ parent];
+			}
+			table.baseNames[ i] = base;
+
+			final int type = type( x);
+			if ( type == FILE) {
+				table.sizes[ i] = sizes[ x];
+				table.totalSize += sizes[ x];
+			}
+			else if ( type == DIR) table.sizes[ i] = 4096;
+			else table.sizes[ i] = sizes[ x];
+
+			table.modes[ i] = modes[ x];
+			table.mtimes[ i] = mtimes[ x];
+			table.linkTos[ i] = type == SYMLINK ? ( String) others.get( x) : "";
+			table.flags[ i] = flags[ x];
+			table.users[ i] = users[ x] == -1 ? "root" : owners.get( users[ x]);
+			table.groups[ i] = groups[ x] == -1 ? "root" : owners.get( groups[ x]);
+			table.verifyFlags[ i] = verifyFlags[ x];
+			table.devices[ i] = ( 9 << 8) + 1;
+			table.inodes[ i] = inodes[ x];
+			table.langs[ i] = "";
+			table.contexts[ i] = "<<none>>";
+		}
+		table.dirNames = dirNames.toArray( new String[ dirNames.size()]);
+		return table;
+	}
+
+	/**
+	 * Creates the header of an entry, as {@link Contents} would have held it.
+	 * @param x the index of the entry
+	 * @return the header
+	 */
+	private CpioHeader header( final int x) {
+		final CpioHeader header = new Entry( x, name( x));
+		final int type = type( x);
+		header.setType( type);
+		header.setPermissions( modes[ x] & 07777);
+		final boolean ghost = sourceNames[ x] != -1 && ( flags[ x] & Directive.RPMFILE_GHOST) == Directive.RPMFILE_GHOST;
+		if ( type != DIR && !ghost) header.setFileSize( sizes[ x]);
+		header.setMtime( mtimes[ x] * 1000L);
+		header.setInode( inodes[ x]);
+		header.setFlags( flags[ x]);
+		header.setVerifyFlags( verifyFlags[ x]);
+		if ( users[ x] != -1) header.setUname( owners.get( users[ x]));
+		if ( groups[ x] != -1) header.setGname( owners.get( groups[ x]));
+		return header;
+	}
+
+	private Object source( final int x) {
+		if ( sourceNames[ x] != -1) {
+			final String name = string( sourceNames[ x]);
+			final File file = sourceParents[ x] == -1 ? new File( name) : new File( sourceDirs.get( sourceParents[ x]), name);
+			return ContentSources.file( file, sizes[ x], mtimes[ x] * 1000L);
+		}
+		if ( type( x) == DIR) return "";
+		return others.get( x);
+	}
+
+	private int type( final int x) {
+		return ( modes[ x] & 0xFFFF) >>> 12;
+	}
+
+	private String name( final int x) {
+		final String base = string( names[ x]);
+		return parents[ x] == -1 ? base : dirs.get( parents[ x]) + base;
+	}
+
+	private int owner( final String name, final String defaultName) {
+		return owners.index( name == null || name.length() == 0 ? defaultName : name);
+	}
+
+	/**
+	 * Appends a new entry with the given path, which is split into its directory and base name.
+	 */
+	private int entry( final String name, final int type, final int permissions) {
+		if ( count == modes.length) grow( count + ( count >> 1) + 16);
+		final int x = count++;
+		final int slash = name.lastIndexOf( '/');
+		parents[ x] = slash == -1 ? -1 : dirs.index( name.substring( 0, slash + 1));
+		names[ x] = store( name.substring( slash + 1));
+		modes[ x] = ( short) (( type << 12) | ( permissions & 07777));
+		verifyFlags[ x] = -1;
+		users[ x] = -1;
+		groups[ x] = -1;
+		sourceParents[ x] = -1;
+		sourceNames[ x] = -1;
+		order = null;
+		return x;
+	}
+
+	private void grow( final int capacity) {
+		parents = Arrays.copyOf( parents, capacity);
+		names = Arrays.copyOf( names, capacity);
+		modes = Arrays.copyOf( modes, capacity);
+		sizes = Arrays.copyOf( sizes, capacity);
+		mtimes = Arrays.copyOf( mtimes, capacity);
+		flags = Arrays.copyOf( flags, capacity);
+		verifyFlags = Arrays.copyOf( verifyFlags, capacity);
+		users = Arrays.copyOf( users, capacity);
+		groups = Arrays.copyOf( groups, capacity);
+		sourceParents = Arrays.copyOf( sourceParents, capacity);
+		sourceNames = Arrays.copyOf( sourceNames, capacity);
+	}
+
+	/**
+	 * Stores a name in the shared array of characters, preceded by its length.
+	 * @return the offset of the name
+	 */
+	private int store( final String value) {
+		if ( value.length() > Character.MAX_VALUE) throw new IllegalArgumentException( "Name '" + value + "' is too long.");
+		if ( length + value.length() + 1 > chars.length) chars = Arrays.copyOf( chars, Math.max( chars.length + ( chars.length >> 1), length + value.length() + 1));
+		final int offset = length;
+		chars[ length++] = ( char) value.length();
+		value.getChars( 0, value.length(), chars, length);
+		length += value.length();
+		return offset;
+	}
+
+	private String string( final int offset) {
+		return new String( chars, offset + 1, chars[ offset]);
+	}
+
+	private boolean matches( final int offset, final String value) {
+		if ( chars[ offset] != value.length()) return false;
+		for ( int i = 0; i < value.length(); i++) {
+			if ( chars[ offset + 1 + i] != value.charAt( i)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Sorts the entries by path, dropping all but the first of any entries with the same path, and
+	 * numbers the entries that are kept in the order they were added.
+	 */
+	private int[] order() {
+		if ( order != null) return order;
+		final int[] sorted = new int[ count];
+		for ( int x = 0; x < count; x++) sorted[ x] = x;
+		sort( sorted, new int[ count], 0, count);
+		int n = 0;
+		for ( int x = 0; x < count; x++) {
+			if ( n == 0 || compare( sorted[ n - 1], sorted[ x]) != 0) sorted[ n++] = sorted[ x];
+		}
+		order = n == count ? sorted : Arrays.copyOf( sorted, n);
+
+		final boolean[] kept = new boolean[ count];
+		for ( int x : order) kept[ x] = true;
+		inodes = new int[ count];
+		int inode = 1;
+		for ( int x = 0; x < count; x++) {
+			if ( kept[ x] && type( x) != SYMLINK) inodes[ x] = inode++;
+		}
+		return order;
+	}
+
+	/**
+	 * A stable merge sort, so that entries with the same path stay in the order they were added.
+	 */
+	private void sort( final int[] array, final int[] temp, final int from, final int to) {
+		if ( to - from < 2) return;
+		final int middle = ( from + to) >>> 1;
+		sort( array, temp, from, middle);
+		sort( array, temp, middle, to);
+		if ( compare( array[ middle - 1], array[ middle]) <= 0) return;
+		System.arraycopy( array, from, temp, from, to - from);
+		for ( int i = from, j = middle, k = from; k < to; k++) {
+			if ( j == to || ( i < middle && compare( temp[ i], temp[ j]) <= 0)) array[ k] = temp[ i++];
+			else array[ k] = temp[ j++];
+		}
+	}
+
+	/**
+	 * Compares the paths of two entries as {@link String#compareTo(String)} would, without
+	 * creating them.
+	 */
+	private int compare( final int a, final int b) {
+		final String one = parents[ a] == -1 ? "" : dirs.get( parents[ a]);
+		final String two = parents[ b] == -1 ? "" : dirs.get( parents[ b]);
+		final int total = one.length() + chars[ names[ a]];
+		final int other = two.length() + chars[ names[ b]];
+		final int limit = Math.min( total, other);
+		for ( int i = parents[ a] == parents[ b] ? one.length() : 0; i < limit; i++) {
+			final char c = i < one.length() ? one.charAt( i) : chars[ names[ a] + 1 + i - one.length()];
+			final char d = i < two.length() ? two.charAt( i) : chars[ names[ b] + 1 + i - two.length()];
+			if ( c != d) return c - d;
+		}
+		return total - other;
+	}
+
+	/**
+	 * Normalizes a path, removing repeated and trailing slashes.
+	 */
+	static String canonical( final String path) {
+		String name = normalizePath( path);
+		if ( name.indexOf( "//") != -1) name = name.replaceAll( "/{2,}", "/");
+		if ( name.length() > 1 && name.endsWith( "/")) name = name.substring( 0, name.length() - 1);
+		return name;
+	}
+
+	/**
+	 * A header created while traversing the archive, which remembers the entry it describes.
+	 */
+	private static class Entry extends CpioHeader {
+		final int index;
+
+		Entry( final int index, final String name) {
+			super( name);
+			this.index = index;
+		}
+	}
+
+	/**
+	 * Numbers distinct strings in the order they are first seen.
+	 */
+	private static class Dictionary {
+		private final Map< String, Integer> indexes = new HashMap< String, Integer>();
+		private final List< String> values = new ArrayList< String>();
+
+		int index( final String value) {
+			Integer index = indexes.get( value);
+			if ( index == null) {
+				index = values.size();
+				indexes.put( value, index);
+				values.add( value);
+			}
+			return index;
+		}
+
+		String get( final int index) { return values.get( index); }
+
+		int size() { return values.size(); }
+	}
+}
@@ -0,0 +1,61 @@
+package org.redline_rpm.payload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * The content of a file in the archive. A source captures the metadata of its content once, so
+ * that the archive can be described and written without fetching the content more than needed.
+ * Implementations for files, URLs, byte arrays and streams are created by {@link ContentSources}.
+ */
+public interface ContentSource {
+
+	/**
+	 * Opens the content of a stream source, which may be called more than once.
+	 */
+	interface Opener {
+
+		/**
+		 * Opens a stream over the content.
+		 * @return the stream, which the caller closes
+		 * @throws IOException if the content cannot be opened
+		 */
+		InputStream open() throws IOException;
+	}
+
+	/**
+	 * The length of the content.
+	 * @return the length in bytes
+	 * @throws IOException if the content must be fetched to find its length and cannot be
+	 */
+	long getLength() throws IOException;
+
+	/**
+	 * The modification time of the content.
+	 * @return the modification time in milliseconds, or zero if it is not known
+	 * @throws IOException if the content must be fetched to find its modification time and cannot be
+	 */
+	long getLastModified() throws IOException;
+
+	/**
+	 * Opens a channel over the whole of the content.
+	 * @return the channel, which the caller closes
+	 * @throws IOException if the content cannot be read
+	 */
+	ReadableByteChannel open() throws IOException;
+
+	/**
+	 * The local file holding the content, which allows the content to be copied by the file system
+	 * and its digest to be cached.
+	 * @return the file, or null if the content is not held in a file of its own
+	 */
+	File getFile();
+
+	/**
+	 * Discards any copy of the content this source has fetched. The content is fetched again if it
+	 * is needed afterwards.
+	 */
+	void release();
+}
@@ -0,0 +1,270 @@
+package org.redline_rpm.payload;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates the standard {@link ContentSource} implementations.
+ *
+ * Files and byte arrays are read in place. URLs and streams are fetched once and spooled, so
+ * that the digest and payload passes of a build read the spooled copy rather than fetching the
+ * content again. Content of up to {@link #MEMORY_LIMIT} bytes is spooled in memory while all
+ * sources together hold no more than the {@link #setMemoryBudget(long) memory budget}, and to a
+ * temporary file otherwise. A spooled copy is kept until the source is released at the end of a
+ * build, which also deletes its temporary file.
+ */
+public final class ContentSources {
+
+	/**
+	 * The largest content spooled in memory rather than to a temporary file.
+	 */
+	public static final int MEMORY_LIMIT = 256 * 1024;
+
+	/**
+	 * The default of the most bytes held in memory by all spooled sources at once.
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+	private static final AtomicLong held = new AtomicLong();
+	private static volatile long budget = DEFAULT_MEMORY_BUDGET;
+
+	private ContentSources() {
+	}
+
+	/**
+	 * Sets the most bytes held in memory by all spooled sources at once. Content that would
+	 * exceed it is spooled to a temporary file instead. Content already held is not affected.
+	 *
+	 * @param bytes the budget in bytes
+	 */
+	public static void setMemoryBudget( final long bytes) {
+		budget = bytes;
+	}
+
+	public static long getMemoryBudget() {
+		return budget;
+	}
+
+	/**
+	 * Gets the bytes currently held in memory by spooled sources that have not been released.
+	 *
+	 * @return the bytes held
+	 */
+	public static long getMemoryUsed() {
+		return held.get();
+	}
+
+	private static boolean reserve( final long bytes) {
+		for ( long current = held.get(); current + bytes <= budget; current = held.get()) {
+			if ( held.compareAndSet( current, current + bytes)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * A source that reads a local file, whose length and modification time are captured now.
+	 *
+	 * @param file the file
+	 * @return the source
+	 */
+	public static ContentSource file( final File file) {
+		return new FileSource( file);
+	}
+
+	/**
+	 * A source that reads a local file whose length and modification time are already known.
+	 *
+	 * @param file the file
+	 * @param length the length of the file
+	 * @param lastModified the modification time in milliseconds
+	 * @return the source
+	 */
+	static ContentSource file( final File file, final long length, final long lastModified) {
+		return new FileSource( file, length, lastModified);
+	}
+
+	/**
+	 * A source that fetches a URL once, when its length, modification time or content is first needed.
+	 *
+	 * @param url the URL
+	 * @return the source
+	 */
+	public static ContentSource url( final URL url) {
+		return new SpooledSource( -1, 0) {
+			protected InputStream fetch() throws IOException {
+				final URLConnection connection = url.openConnection();
+				setLastModified( connection.getLastModified());
+				return connection.getInputStream();
+			}
+			public String toString() {
+				return url.toString();
+			}
+		};
+	}
+
+	/**
+	 * A source that reads an array of bytes, which must not be changed afterwards.
+	 *
+	 * @param data the content
+	 * @param lastModified the modification time in milliseconds
+	 * @return the source
+	 */
+	public static ContentSource bytes( final byte[] data, final long lastModified) {
+		return new ContentSource() {
+			public long getLength() { return data.length; }
+			public long getLastModified() { return lastModified; }
+			public ReadableByteChannel open() { return Channels.newChannel( new ByteArrayInputStream( data)); }
+			public File getFile() { return null; }
+			public void release() {}
+		};
+	}
+
+	/**
+	 * A source that reads a stream, opened when the content is first needed and spooled.
+	 *
+	 * @param opener opens the stream
+	 * @param length the length of the content, or -1 if it is not known, in which case the stream
+	 * is read as soon as the length is needed
+	 * @param lastModified the modification time in milliseconds
+	 * @return the source
+	 */
+	public static ContentSource stream( final ContentSource.Opener opener, final long length, final long lastModified) {
+		return new SpooledSource( length, lastModified) {
+			protected InputStream fetch() throws IOException {
+				return opener.open();
+			}
+		};
+	}
+
+	private static class FileSource implements ContentSource {
+		private final File file;
+		private final long length;
+		private final long lastModified;
+
+		FileSource( final File file) {
+			this( file, file.length(), file.lastModified());
+		}
+
+		FileSource( final File file, final long length, final long lastModified) {
+			this.file = file;
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+
+		public long getLength() { return length; }
+		public long getLastModified() { return lastModified; }
+		public ReadableByteChannel open() throws IOException { return new FileInputStream( file).getChannel(); }
+		public File getFile() { return file; }
+		public void release() {}
+		public String toString() { return file.toString(); }
+	}
+
+	/**
+	 * A source whose content is fetched once and kept until it is released.
+	 */
+	private abstract static class SpooledSource implements ContentSource {
+		private final long declared;
+		private long length;
+		private long lastModified;
+		private byte[] data;
+		private File spool;
+		private boolean fetched;
+
+		SpooledSource( final long length, final long lastModified) {
+			this.declared = length;
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+
+		protected abstract InputStream fetch() throws IOException;
+
+		protected void setLastModified( final long lastModified) {
+			this.lastModified = lastModified;
+		}
+
+		public synchronized long getLength() throws IOException {
+			if ( length < 0) load();
+			return length;
+		}
+
+		public synchronized long getLastModified() throws IOException {
+			if ( declared < 0 && !fetched) load();
+			return lastModified;
+		}
+
+		public synchronized ReadableByteChannel open() throws IOException {
+			load();
+			return spool == null ? Channels.newChannel( new ByteArrayInputStream( data)) : new FileInputStream( spool).getChannel();
+		}
+
+		public File getFile() {
+			return null;
+		}
+
+		public synchronized void release() {
+			if ( data != null) held.addAndGet( -data.length);
+			data = null;
+			if ( spool != null) spool.delete();
+			spool = null;
+		}
+
+		private void load() throws IOException {
+			if ( data != null || spool != null) return;
+			final InputStream in = fetch();
+			final ByteArrayOutputStream memory = new ByteArrayOutputStream();
+			OutputStream out = memory;
+			File file = null;
+			long total = 0;
+			long reserved = 0;
+			try {
+				final byte[] buffer = new byte[ 8192];
+				int read;
+				while (( read = in.read( buffer)) != -1) {
+					if ( file == null) {
+						if ( total + read <= MEMORY_LIMIT && reserve( read)) {
+							reserved += read;
+						} else {
+							file = File.createTempFile( "redline", ".source");
+							out = new FileOutputStream( file);
+							memory.writeTo( out);
+							held.addAndGet( -reserved);
+							reserved = 0;
+						}
+					}
+					out.write( buffer, 0, read);
+					total += read;
+				}
+			} catch ( IOException e) {
+				held.addAndGet( -reserved);
+				if ( file != null) {
+					out.close();
+					file.delete();
+				}
+				throw e;
+			} finally {
+				in.close();
+			}
+			if ( file != null) out.close();
+			if ( length >= 0 && total != length) {
+				held.addAndGet( -reserved);
+				if ( file != null) file.delete();
+				throw new IOException( "Source '" + this + "' has '" + total + "' bytes, not the '" + length + "' expected.");
+			}
+			length = total;
+			fetched = true;
+			if ( file == null) data = memory.toByteArray();
+			else spool = file;
+		}
+	}
+}
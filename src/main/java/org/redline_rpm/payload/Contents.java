@@ -1,30 +1,41 @@
 package org.redline_rpm.payload;
 
+import org.redline_rpm.BufferPool;
 import org.redline_rpm.ChannelWrapper.Key;
+import org.redline_rpm.Metrics;
+import org.redline_rpm.Progress;
 import org.redline_rpm.ReadableChannelWrapper;
 import org.redline_rpm.Util;
 
+import java.io.DataOutput;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URL;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
-import static java.util.Arrays.asList;
 import static java.util.logging.Level.FINE;
 import static java.util.logging.Logger.getLogger;
 import static org.redline_rpm.Util.normalizePath;
@@ -43,6 +54,10 @@ import static org.redline_rpm.payload.CpioHeader.SYMLINK;
  */
 public class Contents {
 
+	/**
+	 * Directories assumed to exist on every system. Guarded by itself, as
+	 * {@link #addBuiltinDirectory(String)} may add to it while other threads create archives.
+	 */
 	private static final Set< String> BUILTIN = new HashSet< String>();
 	private static final Set< String> DOC_DIRS = new HashSet< String>();
 	static {
@@ -97,10 +112,14 @@ public class Contents {
 	protected final Set< String> files = new HashSet< String>();
 	protected final Map< CpioHeader, Object> sources = new HashMap< CpioHeader, Object>();
 	protected final Set< String> builtins = new HashSet< String>();
+	protected DigestCache digestCache;
+	protected Progress progress;
 	
 	public Contents()
 	{
-		builtins.addAll(BUILTIN);
+		synchronized ( BUILTIN) {
+			builtins.addAll(BUILTIN);
+		}
 	}
 
 	/**
@@ -352,6 +371,7 @@ public class Contents {
 	 */
 	public synchronized void addFile( final String path, final File source, final int permissions, final Directive directive, final String uname, final String gname, final int dirmode, final boolean addParents, final int verifyFlags) throws FileNotFoundException {
 		if ( files.contains( path)) return;
+		final ContentSource content = ContentSources.file( source);
 
 		if ( addParents) addParents( new File( path), dirmode, uname, gname);
 		files.add( path);
@@ -360,7 +380,7 @@ public class Contents {
 		if ( directive != null && (( directive.flag() & Directive.RPMFILE_GHOST ) == Directive.RPMFILE_GHOST ))
 			header = new CpioHeader( path);
 		else
-			header = new CpioHeader( path, source);
+			header = new CpioHeader( path, content);
 		header.setType( FILE);
 		header.setInode( inode++);
 		if ( null == uname) {
@@ -384,7 +404,7 @@ public class Contents {
 		}
 		header.setVerifyFlags(verifyFlags);
 		headers.add( header);
-		sources.put( header, source);
+		sources.put( header, content);
 
 		if ( directive != null) header.setFlags( directive.flag());
 	}
@@ -402,6 +422,21 @@ public class Contents {
 	 * @throws java.io.FileNotFoundException file wasn't found
 	 */
 	public synchronized void addURL( final String path, final URL source, final int permissions, final Directive directive, final String uname, final String gname, final int dirmode) throws FileNotFoundException {
+		addSource( path, ContentSources.url( source), permissions, directive, uname, gname, dirmode);
+	}
+
+	/**
+	 * Adds an entry to the archive whose content is read from a source.
+	 *
+	 * @param path the destination path for the installed file.
+	 * @param source the source of the data to be added
+	 * @param permissions the permissions flags, use -1 to leave as default.
+	 * @param directive directive indicating special handling for this file, use null to ignore.
+	 * @param uname user owner for the given file, use null for default user.
+	 * @param gname group owner for the given file, use null for default group.
+	 * @param dirmode permission flags for parent directories, use -1 to leave as default.
+	 */
+	public synchronized void addSource( final String path, final ContentSource source, final int permissions, final Directive directive, final String uname, final String gname, final int dirmode) {
 		if ( files.contains( path)) return;
 
 		addParents( new File( path), dirmode, uname, gname);
@@ -441,8 +476,10 @@ public class Contents {
 	 *
 	 * @param directory the directory to add
 	 */
-	public static synchronized void addBuiltinDirectory( final String directory) {
-		BUILTIN.add(directory);
+	public static void addBuiltinDirectory( final String directory) {
+		synchronized ( BUILTIN) {
+			BUILTIN.add(directory);
+		}
 	}
 	
 	/**
@@ -457,6 +494,16 @@ public class Contents {
 		builtins.add(directory);
 	}
 
+	/**
+	 * Releases any copies of file content fetched by the sources in this archive, such as the
+	 * spooled content of URLs. The content is fetched again if the archive is used afterwards.
+	 */
+	public synchronized void release() {
+		for ( Object object : sources.values()) {
+			if ( object instanceof ContentSource) (( ContentSource) object).release();
+		}
+	}
+
 	/**
 	 * Retrieve the size of this archive in number of files. This count includes both directory entries and
 	 * soft links.
@@ -472,7 +519,7 @@ public class Contents {
 	public Iterable< CpioHeader> headers() { return headers; }
 
 	/**
-	 * Retrieves the content for this archive entry, which may be a {@link File} if the entry is a regular file or
+	 * Retrieves the content for this archive entry, which may be a {@link ContentSource} if the entry is a regular file or
 	 * a {@link CharSequence} containing the name of the target path if the entry is a link. This is the value to
 	 * be written to the archive as the body of the entry.
 	 * @param header the header to get the content from
@@ -480,16 +527,34 @@ public class Contents {
 	 */
 	public Object getSource( CpioHeader header) { return sources.get( header); }
 
+	/**
+	 * Retrieves the content of every entry, in archive order, as {@link #getSource(CpioHeader)} would.
+	 * @return the contents, which the caller must not change
+	 */
+	protected List< Object> getSources() {
+		final List< Object> list = new ArrayList< Object>( size());
+		for ( CpioHeader header : headers()) list.add( getSource( header));
+		return list;
+	}
+
 	/**
 	 * Accumulated size of all files included in the archive.
 	 * @return the size of all files included in the archive
 	 */
 	public int getTotalSize() {
-		int total = 0;
+		return ( int) getLongTotalSize();
+	}
+
+	/**
+	 * Retrieve the total size of the files in this archive as a 64 bit value, for archives
+	 * of 2 GB or more.
+	 * @return the total size of the files
+	 */
+	public long getLongTotalSize() {
+		long total = 0;
 		try {
 			for ( Object object : sources.values()) {
-				if ( object instanceof File) total += (( File) object).length();
-				else if ( object instanceof URL) total += (( URL) object).openConnection().getContentLength();
+				if ( object instanceof ContentSource) total += (( ContentSource) object).getLength();
 			}
 		} catch ( IOException e) {
 			throw new RuntimeException( e);
@@ -497,19 +562,68 @@ public class Contents {
 		return total;
 	}
 
+	/**
+	 * Generates every per file header column in a single traversal of the archive. Directory
+	 * names are collected in a dictionary as they are found, so the traversal is linear in the
+	 * number of files.
+	 * @return the file table
+	 */
+	public synchronized FileTable getFileTable() {
+		final FileTable table = new FileTable( size());
+		final Map< String, Integer> dirs = new LinkedHashMap< String, Integer>();
+		int x = 0;
+		try {
+			for ( CpioHeader header : headers()) {
+				final String name = header.getName();
+				final String parent = getParent( name);
+				if ( parent != null) {
+					Integer index = dirs.get( parent);
+					if ( index == null) {
+						index = dirs.size();
+						dirs.put( parent, index);
+					}
+					table.dirIndexes[ x] = index;
+				}
+				table.baseNames[ x] = getBaseName( name);
+
+				final Object source = getSource( header);
+				if ( source instanceof ContentSource) {
+					table.sizes[ x] = (( ContentSource) source).getLength();
+					table.totalSize += table.sizes[ x];
+				}
+				else if ( header.getType() == DIR) table.sizes[ x] = 4096;
+				else if ( header.getType() == SYMLINK) table.sizes[ x] = (( String) source).length();
+
+				table.modes[ x] = ( short) header.getMode();
+				table.rdevs[ x] = ( short) (( header.getRdevMajor() << 8) + header.getRdevMinor());
+				table.mtimes[ x] = header.getMtime();
+				table.linkTos[ x] = source instanceof String ? ( String) source : "";
+				table.flags[ x] = header.getFlags();
+				table.users[ x] = header.getUname() == null ? "root" : header.getUname();
+				table.groups[ x] = header.getGname() == null ? "root" : header.getGname();
+				table.verifyFlags[ x] = header.getVerifyFlags();
+				table.devices[ x] = ( header.getDevMajor() << 8) + header.getDevMinor();
+				table.inodes[ x] = header.getInode();
+				table.langs[ x] = "";
+				table.contexts[ x] = "<<none>>";
+				++x;
+			}
+		} catch ( IOException e) {
+			throw new RuntimeException( e);
+		}
+		table.dirNames = dirs.keySet().toArray( new String[ dirs.size()]);
+		return table;
+	}
+
 	/**
 	 * Gets the dirnames headers values.
 	 * @return the dirnames headers values
 	 */
 	public String[] getDirNames() {
 		final Set< String> set = new LinkedHashSet< String>();
-		for ( CpioHeader header : headers) {
-			String path = new File( header.getName()).getParent();
-			if ( path == null) continue;
-
-			String parent = normalizePath( path);
-			if ( !parent.endsWith( "/")) parent += "/";
-			set.add( parent);
+		for ( CpioHeader header : headers()) {
+			final String parent = getParent( header.getName());
+			if ( parent != null) set.add( parent);
 		}
 		return set.toArray( new String[ set.size()]);
 	}
@@ -518,20 +632,8 @@ public class Contents {
 	 * Gets the dirindexes headers values.
 	 * @return the dirindexes
 	 */
-	// TODO: Fix this (as part of general refactoring) to be much better.
 	public int[] getDirIndexes() {
-		final List< String> dirs = asList( getDirNames());
-		int[] array = new int[ headers.size()];
-		int x = 0;
-		for ( CpioHeader header : headers) {
-			String path = new File( header.getName()).getParent();
-			if ( path == null) continue;
-
-			String parent = normalizePath( path);
-			if ( !parent.endsWith( "/")) parent += "/";
-			array[ x++] = dirs.indexOf( parent);
-		}
-		return array;
+		return getFileTable().getDirIndexes();
 	}
 
 	/**
@@ -539,24 +641,64 @@ public class Contents {
 	 * @return the basename header values
 	 */
 	public String[] getBaseNames() {
-		String[] array = new String[ headers.size()];
+		String[] array = new String[ size()];
 		int x = 0;
-		for ( CpioHeader header : headers) array[ x++] = normalizePath( new File( header.getName()).getName());
+		for ( CpioHeader header : headers()) array[ x++] = getBaseName( header.getName());
 		return array;
 	}
 
+	/**
+	 * Gets the directory of a path as recorded in the dirnames header, with a trailing slash,
+	 * as {@link File#getParent()} would find it but without creating a file for the common case
+	 * of a path already in normal form.
+	 * @param name the path
+	 * @return the directory, or null if the path has none
+	 */
+	private static String getParent( final String name) {
+		String parent;
+		if ( isPlain( name)) {
+			final int slash = name.lastIndexOf( '/');
+			if ( slash == -1 || name.length() == 1) return null;
+			parent = slash == 0 ? "/" : name.substring( 0, slash);
+		} else {
+			parent = new File( name).getParent();
+			if ( parent == null) return null;
+			parent = normalizePath( parent);
+		}
+		return parent.endsWith( "/") ? parent : parent + "/";
+	}
+
+	private static String getBaseName( final String name) {
+		if ( isPlain( name)) return name.length() == 1 && name.charAt( 0) == '/' ? "" : name.substring( name.lastIndexOf( '/') + 1);
+		return normalizePath( new File( name).getName());
+	}
+
+	private static boolean isPlain( final String name) {
+		return name.indexOf( '\\') == -1 && name.indexOf( "//") == -1 && ( name.length() < 2 || name.charAt( name.length() - 1) != '/');
+	}
+
 	/**
 	 * Gets the sizes header values.
 	 * @return the sizes header values
 	 */
 	public int[] getSizes() {
-		int[] array = new int[ headers.size()];
+		final long[] sizes = getLongSizes();
+		int[] array = new int[ sizes.length];
+		for ( int x = 0; x < sizes.length; x++) array[ x] = ( int) sizes[ x];
+		return array;
+	}
+
+	/**
+	 * Gets the sizes header values as 64 bit values, for files of 4 GB or more.
+	 * @return the sizes header values
+	 */
+	public long[] getLongSizes() {
+		long[] array = new long[ size()];
 		int x = 0;
 		try {
-			for ( CpioHeader header : headers) {
-				Object object = sources.get( header);
-				if ( object instanceof File) array[ x] = ( int) (( File) object).length();
-				else if ( object instanceof URL) array[ x] = (( URL) object).openConnection().getContentLength();
+			for ( CpioHeader header : headers()) {
+				Object object = getSource( header);
+				if ( object instanceof ContentSource) array[ x] = (( ContentSource) object).getLength();
 				else if ( header.getType() == DIR) array[ x] = 4096;
 				else if ( header.getType() == SYMLINK) array[ x] = (( String) object).length();
 				++x;
@@ -572,9 +714,9 @@ public class Contents {
 	 * @return the modes header values
 	 */
 	public short[] getModes() {
-		short[] array = new short[ headers.size()];
+		short[] array = new short[ size()];
 		int x = 0;
-		for ( CpioHeader header : headers) array[ x++] = ( short) header.getMode();
+		for ( CpioHeader header : headers()) array[ x++] = ( short) header.getMode();
 		return array;
 	}
 
@@ -583,9 +725,9 @@ public class Contents {
 	 * @return the rdevs header values
 	 */
 	public short[] getRdevs() {
-		short[] array = new short[ headers.size()];
+		short[] array = new short[ size()];
 		int x = 0;
-		for ( CpioHeader header : headers) array[ x++] = ( short) (( header.getRdevMajor() << 8) + header.getRdevMinor());
+		for ( CpioHeader header : headers()) array[ x++] = ( short) (( header.getRdevMajor() << 8) + header.getRdevMinor());
 		return array;
 	}
 
@@ -594,17 +736,35 @@ public class Contents {
 	 * @return the mtimes header values
 	 */
 	public int[] getMtimes() {
-		int[] array = new int[ headers.size()];
+		int[] array = new int[ size()];
 		int x = 0;
-		for ( CpioHeader header : headers) {
+		for ( CpioHeader header : headers()) {
 			array[ x++] = header.getMtime();
 		}
 		return array;
 	}
 
 	/**
-	 * Caclulates an MD5 hash for each file in the archive.
-	 * @return the MD5 hashes
+	 * Sets a persistent cache of file digests, which is consulted and then saved whenever the
+	 * file checksums are calculated.
+	 * @param digestCache the digest cache, or null to read every file
+	 */
+	public void setDigestCache( final DigestCache digestCache) {
+		this.digestCache = digestCache;
+	}
+
+	/**
+	 * Sets the tracker to which the checksum calculation reports the files and bytes it has
+	 * read, and which it checks for cancellation before each file and after each buffer.
+	 * @param progress the tracker, or null for none
+	 */
+	public void setProgress( final Progress progress) {
+		this.progress = progress;
+	}
+
+	/**
+	 * Calculates a SHA-256 hash for each file in the archive.
+	 * @return the SHA-256 hashes
 	 * @throws NoSuchAlgorithmException if the algorithm isn't supported
 	 * @throws IOException there was an IO error
 	 */
@@ -614,41 +774,202 @@ public class Contents {
 		 * but would require placeholder values in the archive and some state. This is left for a
 		 * later refactoring.
 		 */
-		final ByteBuffer buffer = ByteBuffer.allocate( 4096);
-		String[] array = new String[ headers.size()];
-		int x = 0;
-		for ( CpioHeader header : headers) {
-			Object object = sources.get( header);
-			String value = "";
-			if ( object instanceof File) {
-				FileInputStream fileInput = new FileInputStream(( File) object);
-				final ReadableChannelWrapper input = new ReadableChannelWrapper( fileInput.getChannel());
-				final Key< byte[]> key = input.start( "SHA-256");
-				while ( input.read( buffer) != -1) buffer.rewind();
-				value = Util.hex(input.finish(key));
-				input.close();
-				fileInput.close();
-			} else if ( object instanceof URL) {
-				final ReadableChannelWrapper input = new ReadableChannelWrapper( Channels.newChannel((( URL) object).openConnection().getInputStream()));
-				final Key< byte[]> key = input.start( "SHA-256");
-				while ( input.read( buffer) != -1) buffer.rewind();
-				value = Util.hex(input.finish(key));
-				input.close();
+		final List< Object> objects = getSources();
+		String[] array = new String[ objects.size()];
+		if ( progress != null) progress.start( Metrics.Phase.DIGEST, array.length, getLongTotalSize());
+		final BufferPool pool = BufferPool.getShared();
+		final ByteBuffer buffer = pool.acquire();
+		try {
+			for ( int x = 0; x < array.length; x++) {
+				array[ x] = checksum( objects.get( x), x, buffer);
+				if ( progress != null) progress.addFile();
 			}
-			array[ x++] = value;
+		} finally {
+			pool.release( buffer);
+		}
+		if ( digestCache != null) digestCache.save();
+		return array;
+	}
+
+	/**
+	 * Calculates a SHA-256 hash for each file in the archive, reading the files on a pool of
+	 * the given number of threads. The hashes are returned in archive order, exactly as
+	 * {@link #getFileChecksums()} would return them.
+	 * @param threads the number of threads to read files with, where one or less reads them
+	 * on the calling thread
+	 * @return the SHA-256 hashes
+	 * @throws NoSuchAlgorithmException if the algorithm isn't supported
+	 * @throws IOException there was an IO error
+	 */
+	public String[] getFileChecksums( final int threads) throws NoSuchAlgorithmException, IOException {
+		if ( threads < 2) return getFileChecksums();
+		final ExecutorService executor = Executors.newFixedThreadPool( threads, new ThreadFactory() {
+			public Thread newThread( final Runnable runnable) {
+				final Thread thread = new Thread( runnable, "redline-digest");
+				thread.setDaemon( true);
+				return thread;
+			}
+		});
+		try {
+			return getFileChecksums( executor, threads);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Calculates a SHA-256 hash for each file in the archive, reading the files with the given
+	 * number of workers on a shared executor, which is left running. The hashes are returned
+	 * in archive order.
+	 * @param executor the executor to run the workers on
+	 * @param workers the number of workers, each of which hashes one file at a time
+	 * @return the SHA-256 hashes
+	 * @throws NoSuchAlgorithmException if the algorithm isn't supported
+	 * @throws IOException there was an IO error
+	 */
+	public String[] getFileChecksums( final ExecutorService executor, final int workers) throws NoSuchAlgorithmException, IOException {
+		final List< Object> objects = getSources();
+		final String[] array = new String[ objects.size()];
+		if ( progress != null) progress.start( Metrics.Phase.DIGEST, array.length, getLongTotalSize());
+		final AtomicInteger next = new AtomicInteger();
+		final List< Future< Void>> futures = new ArrayList< Future< Void>>( workers);
+		for ( int i = 0; i < Math.min( workers, array.length); i++) {
+			futures.add( executor.submit( new Callable< Void>() {
+				public Void call() throws Exception {
+					final BufferPool pool = BufferPool.getShared();
+					final ByteBuffer buffer = pool.acquire();
+					try {
+						for ( int index = next.getAndIncrement(); index < array.length; index = next.getAndIncrement()) {
+							array[ index] = checksum( objects.get( index), index, buffer);
+							if ( progress != null) progress.addFile();
+						}
+					} catch ( Exception e) {
+						next.set( array.length);
+						throw e;
+					} finally {
+						pool.release( buffer);
+					}
+					return null;
+				}
+			}));
+		}
+		try {
+			for ( Future< Void> future : futures) future.get();
+		} catch ( InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted while calculating file checksums.");
+		} catch ( ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if ( cause instanceof IOException) throw ( IOException) cause;
+			if ( cause instanceof NoSuchAlgorithmException) throw ( NoSuchAlgorithmException) cause;
+			if ( cause instanceof RuntimeException) throw ( RuntimeException) cause;
+			throw new RuntimeException( cause);
+		} finally {
+			next.set( array.length);
+			for ( Future< Void> future : futures) future.cancel( true);
 		}
+		if ( digestCache != null) digestCache.save();
 		return array;
 	}
 
+	private String checksum( final Object object, final int index, final ByteBuffer buffer) throws NoSuchAlgorithmException, IOException {
+		if ( !( object instanceof ContentSource)) return "";
+		final ContentSource source = ( ContentSource) object;
+		final File file = source.getFile();
+		if ( file != null && digestCache != null) {
+			final DigestCache.Identity identity = DigestCache.identify( file);
+			String value = digestCache.get( identity);
+			if ( value == null) {
+				value = checksum( index, source.open(), source.getLength(), buffer);
+				if ( identity.size == source.getLength()) digestCache.put( identity, value);
+			} else if ( progress != null) {
+				progress.addBytes( source.getLength());
+			}
+			return value;
+		}
+		return checksum( index, source.open(), source.getLength(), buffer);
+	}
+
+	private String getName( final int index) {
+		int x = 0;
+		for ( CpioHeader header : headers()) if ( x++ == index) return header.getName();
+		return null;
+	}
+
+	/**
+	 * Digests exactly the given length of content, as the payload copies exactly that much of it,
+	 * so that the digest matches the packaged bytes even if the content has grown since it was
+	 * added.
+	 */
+	private String checksum( final int index, final ReadableByteChannel channel, final long size, final ByteBuffer buffer) throws NoSuchAlgorithmException, IOException {
+		final ReadableChannelWrapper input = new ReadableChannelWrapper( channel);
+		try {
+			final Key< byte[]> key = input.start( "SHA-256");
+			for ( long remaining = size; remaining > 0;) {
+				buffer.clear();
+				if ( remaining < buffer.capacity()) buffer.limit(( int) remaining);
+				final int read = input.read( buffer);
+				if ( read == -1) throw new IOException( "File '" + getName( index) + "' ended '" + remaining + "' bytes short of its '" + size + "' bytes.");
+				remaining -= read;
+				if ( progress != null) progress.addBytes( read);
+			}
+			return Util.hex( input.finish( key));
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes the metadata of every file in the archive, and the identity of the file each is read
+	 * from, without reading any file contents. Files are identified as they are by the
+	 * {@link DigestCache}, by their path, size, modification time and inode.
+	 * @param out the stream to write the description to
+	 * @return false if the archive has a source other than a local file, which cannot be identified
+	 * without reading it
+	 * @throws IOException there was an IO error
+	 */
+	public boolean describe( final DataOutput out) throws IOException {
+		out.writeInt( size());
+		for ( CpioHeader header : headers()) {
+			out.writeUTF( header.getName());
+			out.writeInt( header.getMode());
+			out.writeInt( header.getInode());
+			out.writeInt( header.getMtime());
+			out.writeLong( header.getFileSize());
+			out.writeInt( header.getRdevMajor());
+			out.writeInt( header.getRdevMinor());
+			out.writeInt( header.getDevMajor());
+			out.writeInt( header.getDevMinor());
+			out.writeInt( header.getFlags());
+			out.writeInt( header.getVerifyFlags());
+			out.writeUTF( String.valueOf( header.getUname()));
+			out.writeUTF( String.valueOf( header.getGname()));
+
+			final Object source = getSource( header);
+			if ( source instanceof ContentSource) {
+				final File file = (( ContentSource) source).getFile();
+				if ( file == null) return false;
+				final DigestCache.Identity identity = DigestCache.identify( file);
+				out.writeUTF( identity.path);
+				out.writeLong( identity.size);
+				out.writeLong( identity.mtime);
+				out.writeLong( identity.inode);
+			} else {
+				out.writeUTF( String.valueOf( source));
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Gets the linktos header values.
 	 * @return the linktos header values
 	 */
 	public String[] getLinkTos() {
-		String[] array = new String[ headers.size()];
+		String[] array = new String[ size()];
 		int x = 0;
-		for ( CpioHeader header : headers) {
-			Object object = sources.get( header);
+		for ( CpioHeader header : headers()) {
+			Object object = getSource( header);
 			String value = "";
 			if ( object instanceof String) value = String.valueOf( object);
 			array[ x++] = value;
@@ -661,9 +982,9 @@ public class Contents {
 	 * @return the flags header values
 	 */
 	public int[] getFlags() {
-		int[] array = new int[ headers.size()];
+		int[] array = new int[ size()];
 		int x = 0;
-		for ( CpioHeader header : headers) array[ x++] = header.getFlags();
+		for ( CpioHeader header : headers()) array[ x++] = header.getFlags();
 		return array;
 	}
 
@@ -672,9 +993,9 @@ public class Contents {
 	 * @return the users header values
 	 */
 	public String[] getUsers() {
-		String[] array = new String[ headers.size()];
+		String[] array = new String[ size()];
 		int x = 0;
-		for (CpioHeader header : headers) {
+		for (CpioHeader header : headers()) {
 			array[ x++] = header.getUname() == null ? "root" : header.getUname();
 		}
 		return array;
@@ -685,9 +1006,9 @@ public class Contents {
 	 * @return the groups header values
 	 */
 	public String[] getGroups() {
-		String[] array = new String[ headers.size()];
+		String[] array = new String[ size()];
 		int x = 0;
-		for (CpioHeader header : headers) {
+		for (CpioHeader header : headers()) {
 			array[ x++] = header.getGname() == null ? "root" : header.getGname();
 		}
 		return array;
@@ -698,7 +1019,7 @@ public class Contents {
 	 * @return the colors header values
 	 */
 	public int[] getColors() {
-		return new int[ headers.size()];
+		return new int[ size()];
 	}
 
 	/**
@@ -706,9 +1027,9 @@ public class Contents {
 	 * @return the verifyflags header values
 	 */
 	public int[] getVerifyFlags() {
-		int[] array = new int[ headers.size()];
+		int[] array = new int[ size()];
 		int x = 0;
-		for (CpioHeader header : headers) {
+		for (CpioHeader header : headers()) {
 			array[ x++] = header.getVerifyFlags();
 		}
 		return array;
@@ -719,7 +1040,7 @@ public class Contents {
 	 * @return the classes header values
 	 */
 	public int[] getClasses() {
-		int[] array = new int[ headers.size()];
+		int[] array = new int[ size()];
 		Arrays.fill( array, 1);
 		return array;
 	}
@@ -729,9 +1050,9 @@ public class Contents {
 	 * @return the devices header values
 	 */
 	public int[] getDevices() {
-		int[] array = new int[ headers.size()];
+		int[] array = new int[ size()];
 		int x = 0;
-		for ( CpioHeader header : headers) array[ x++] = ( header.getDevMajor() << 8) + header.getDevMinor();
+		for ( CpioHeader header : headers()) array[ x++] = ( header.getDevMajor() << 8) + header.getDevMinor();
 		return array;
 	}
 
@@ -740,9 +1061,9 @@ public class Contents {
 	 * @return the iNodes header values
 	 */
 	public int[] getInodes() {
-		int[] array = new int[ headers.size()];
+		int[] array = new int[ size()];
 		int x = 0;
-		for ( CpioHeader header : headers) array[ x++] = header.getInode();
+		for ( CpioHeader header : headers()) array[ x++] = header.getInode();
 		return array;
 	}
 
@@ -751,7 +1072,7 @@ public class Contents {
 	 * @return the langs header values
 	 */
 	public String[] getLangs() {
-		String[] array = new String[ headers.size()];
+		String[] array = new String[ size()];
 		Arrays.fill( array, "");
 		return array;
 	}
@@ -761,7 +1082,7 @@ public class Contents {
 	 * @return the dependsx header values
 	 */
 	public int[] getDependsX() {
-		return new int[ headers.size()];
+		return new int[ size()];
 	}
 
 	/**
@@ -769,7 +1090,7 @@ public class Contents {
 	 * @return the dependsn header values
 	 */
 	public int[] getDependsN() {
-		return new int[ headers.size()];
+		return new int[ size()];
 	}
 
 	/**
@@ -777,7 +1098,7 @@ public class Contents {
 	 * @return the contexts header values
 	 */
 	public String[] getContexts() {
-		String[] array = new String[ headers.size()];
+		String[] array = new String[ size()];
 		Arrays.fill( array, "<<none>>");
 		return array;
 	}
@@ -9,7 +9,6 @@ import java.io.IOException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
@@ -22,10 +21,15 @@ import static org.redline_rpm.Util.normalizePath;
  * that is the body of an RPM distributable. Iterative calls to to read header will
  * result in a header description being returned which includes a count of how many bytes
  * to read from the channel for the file content.
+ *
+ * Packages containing files of 4 GB or more use rpm's stripped cpio format, in which each
+ * entry is described only by its index into the file arrays of the RPM header. Stripped
+ * entries are read with an unknown file size and name, which the caller fills in from the
+ * header.
  */
 public class CpioHeader {
-    private final Logger LOGGER = LoggerFactory.getLogger(CpioHeader.class);
-    
+	private static final Logger LOGGER = LoggerFactory.getLogger( CpioHeader.class);
+
 	public static final int DEFAULT_FILE_PERMISSION = 0644;
 	public static final int DEFAULT_DIRECTORY_PERMISSION = 0755;
 	public static final String DEFAULT_USERNAME = "root";
@@ -40,10 +44,13 @@ public class CpioHeader {
 	public static final int SOCKET = 12;
 	
 	protected static final int CPIO_HEADER = 110;
+	protected static final int STRIPPED_HEADER = 14;
 	protected static final String MAGIC = "070701";
+	protected static final String STRIPPED_MAGIC = "07070X";
 	protected static final String TRAILER = "TRAILER!!!";
 
-	protected Charset charset = Charset.forName( "UTF-8");
+	private static final Charset UTF_8 = Charset.forName( "UTF-8");
+	private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
 
 	protected int inode;
 	protected int type;
@@ -54,7 +61,8 @@ public class CpioHeader {
 	protected String gname;
 	protected int nlink = 1;
 	protected long mtime;
-	protected int filesize;
+	protected long filesize;
+	protected int fileIndex = -1;
 	protected int devMinor = 1;
 	protected int devMajor = 9;
 	protected int rdevMinor;
@@ -64,6 +72,17 @@ public class CpioHeader {
 	protected int flags;
 	protected int verifyFlags = -1;
 
+	/**
+	 * Buffers for encoding and decoding, shared by every header read or written on a thread so that
+	 * headers held in {@link Contents} carry none of their own.
+	 */
+	private static final ThreadLocal< ByteBuffer> SCRATCH = new ThreadLocal< ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate( CPIO_HEADER + 64);
+		}
+	};
+
 	public CpioHeader() {
 	}
 
@@ -79,7 +98,7 @@ public class CpioHeader {
 		try {
 			URLConnection connection = url.openConnection();
 			mtime = connection.getLastModified();
-			filesize = connection.getContentLength();
+			filesize = connection.getContentLengthLong();
 			this.name = normalizePath( name);
 			setType( FILE);
 		} catch ( IOException e) {
@@ -87,9 +106,22 @@ public class CpioHeader {
 		}
 	}
 
+	public CpioHeader( final String name, final ContentSource source) {
+		try {
+			mtime = source.getLastModified();
+			filesize = source.getLength();
+			this.name = normalizePath( name);
+			final File file = source.getFile();
+			if ( file != null && file.isDirectory()) setType( DIR);
+			else setType( FILE);
+		} catch ( IOException e) {
+			throw new RuntimeException( e);
+		}
+	}
+
 	public CpioHeader( final String name, final File file) {
 		mtime = file.lastModified();
-		filesize = ( int ) file.length();
+		filesize = file.length();
 		this.name = normalizePath( name);
 		if ( file.isDirectory()) setType( DIR);
 		else setType( FILE);
@@ -103,6 +135,7 @@ public class CpioHeader {
 	public int getDevMinor() { return devMinor; }
 	public int getMtime() { return ( int) ( mtime / 1000L) ; }
 	public int getInode() { return inode; }
+	public int getNlink() { return nlink; }
 	public String getName() { return name; }
 	public int getFlags() { return flags; }
 	public int getVerifyFlags() { return verifyFlags; }
@@ -111,9 +144,11 @@ public class CpioHeader {
 
 	public void setPermissions( int permissions) { this.permissions = permissions; }
 	public void setType( int type) { this.type = type; }
-	public void setFileSize( int filesize) { this.filesize = filesize; }
+	public void setFileSize( long filesize) { this.filesize = filesize; }
 	public void setMtime( long mtime) { this.mtime = mtime; }
 	public void setInode( int inode) { this.inode = inode; }
+	public void setNlink( int nlink) { this.nlink = nlink; }
+	public void setDevice( int major, int minor) { this.devMajor = major; this.devMinor = minor; }
 	public void setFlags( int flags) { this.flags = flags; }
 	public void setVerifyFlags( int verifyFlags) { this.verifyFlags = verifyFlags; }
 
@@ -140,120 +175,186 @@ public class CpioHeader {
 		this.name = name;
 	}
 
-	public int getFileSize() {
+	public long getFileSize() {
 		return filesize;
 	}
 
-	protected ByteBuffer writeSix( CharSequence data) {
-		return charset.encode( pad( data, 6));
+	/**
+	 * Test to see if this header was read from a stripped cpio entry, which records
+	 * only the index of the file in the RPM header.
+	 * @return true if stripped, false if not
+	 */
+	public boolean isStripped() {
+		return fileIndex != -1;
 	}
 
-	protected ByteBuffer writeEight( int data) {
-		return charset.encode( pad( Integer.toHexString( data), 8));
+	/**
+	 * The index of a stripped entry into the file arrays of the RPM header.
+	 * @return the file index, or -1 if this header was not read from a stripped entry
+	 */
+	public int getFileIndex() {
+		return fileIndex;
 	}
 
-	protected CharSequence readSix( CharBuffer buffer) {
-		return readChars( buffer, 6);
+	/**
+	 * Writes a value as the eight lower case hex digits of a cpio header field.
+	 * @param buffer the buffer to write to
+	 * @param value the value to write
+	 */
+	protected static void writeHex( final ByteBuffer buffer, final int value) {
+		for ( int shift = 28; shift >= 0; shift -= 4) buffer.put( HEX[ ( value >>> shift) & 0xF]);
 	}
 
-	protected int readEight( CharBuffer buffer) {
-		return Integer.parseInt( readChars( buffer, 8).toString(), 16);
+	/**
+	 * Reads the eight hex digits of a cpio header field.
+	 * @param buffer the buffer to read from
+	 * @return the value read
+	 */
+	protected static int readHex( final ByteBuffer buffer) {
+		int value = 0;
+		for ( int i = 0; i < 8; i++) {
+			final int c = buffer.get();
+			final int digit;
+			if ( '0' <= c && c <= '9') digit = c - '0';
+			else if ( 'a' <= c && c <= 'f') digit = c - 'a' + 10;
+			else if ( 'A' <= c && c <= 'F') digit = c - 'A' + 10;
+			else throw new IllegalStateException( "Invalid hex digit '" + ( char) ( c & 0xFF) + "' in cpio header.");
+			value = ( value << 4) | digit;
+		}
+		return value;
 	}
 
-	protected CharSequence readChars( CharBuffer buffer, int length) {
-		if ( buffer.remaining() < length) throw new IllegalStateException( "Buffer has '" + buffer.remaining() + "' bytes but '" + length + "' are needed.");
-		try {
-			return buffer.subSequence( 0, length);
-		} finally {
-			buffer.position( buffer.position() + length);
-		}
+	private static void writeMagic( final ByteBuffer buffer, final String magic) {
+		for ( int i = 0; i < magic.length(); i++) buffer.put(( byte) magic.charAt( i));
 	}
 
-	protected String pad( CharSequence sequence, final int length) {
-		while ( sequence.length() < length) sequence = "0" + sequence;
-		return sequence.toString();
+	private static boolean isMagic( final ByteBuffer buffer, final String magic) {
+		for ( int i = 0; i < magic.length(); i++) if ( buffer.get( buffer.position() + i) != magic.charAt( i)) return false;
+		return true;
+	}
+
+	/**
+	 * Gets this thread's buffer for encoding and decoding, cleared and limited to the given size.
+	 */
+	private static ByteBuffer scratch( final int size) {
+		ByteBuffer scratch = SCRATCH.get();
+		if ( scratch.capacity() < size) {
+			scratch = ByteBuffer.allocate( size);
+			SCRATCH.set( scratch);
+		}
+		scratch.clear();
+		scratch.limit( size);
+		return scratch;
 	}
 
-	protected int skip( final ReadableByteChannel channel, final int total) throws IOException {
+	protected int skip( final ReadableByteChannel channel, final long total) throws IOException {
 		int skipped = Util.difference( total, 3);
-		LOGGER.debug("Skipping '{}' bytes from stream at position '{}'.",skipped,total);
-		Util.fill( channel, skipped);
+		if ( LOGGER.isDebugEnabled()) LOGGER.debug( "Skipping '{}' bytes from stream at position '{}'.", skipped, total);
+		Util.fill( channel, scratch( skipped));
 		return skipped;
 	}
 
-	public int skip( final WritableByteChannel channel, int total) throws IOException {
+	public int skip( final WritableByteChannel channel, long total) throws IOException {
 		int skipped = Util.difference( total, 3);
-		Util.empty( channel, ByteBuffer.allocate( skipped));
-        	LOGGER.debug("Skipping '{}' bytes from stream at position '{}'.",skipped,total);
+		Util.empty( channel, Util.zeros( skipped));
+		if ( LOGGER.isDebugEnabled()) LOGGER.debug( "Skipping '{}' bytes from stream at position '{}'.", skipped, total);
 		return skipped;
 	}
 
-	public int read( final ReadableByteChannel channel, int total) throws IOException {
+	public long read( final ReadableByteChannel channel, long total) throws IOException {
 		total += skip( channel, total);
-		ByteBuffer descriptor = Util.fill( channel, CPIO_HEADER);
-		CharBuffer buffer = charset.decode( descriptor);
-
-		final CharSequence magic = readSix( buffer);
-		if ( !MAGIC.equals(magic.toString())) throw new IllegalStateException( "Invalid magic number '" + magic + "' of length '" + magic.length() + "'.");
-		inode = readEight( buffer);
-		
-		final int mode = readEight( buffer);
+		ByteBuffer buffer = Util.fill( channel, scratch( 6));
+		if ( isMagic( buffer, STRIPPED_MAGIC)) {
+			fileIndex = readHex( Util.fill( channel, scratch( 8)));
+			filesize = 0;
+			name = null;
+			return total + STRIPPED_HEADER;
+		}
+		if ( !isMagic( buffer, MAGIC)) throw new IllegalStateException( "Invalid magic number '" + new String( buffer.array(), 0, 6, UTF_8) + "'.");
+		buffer = Util.fill( channel, scratch( CPIO_HEADER - 6));
+		fileIndex = -1;
+		inode = readHex( buffer);
+
+		final int mode = readHex( buffer);
 		permissions = mode & 07777;
 		type = mode >>> 12;
-		
-		uid = readEight( buffer);
-		gid = readEight( buffer);
-		nlink = readEight( buffer);
-		mtime = 1000L * readEight( buffer);
-		filesize = readEight( buffer);
-		devMajor = readEight( buffer);
-		devMinor = readEight( buffer);
-		rdevMajor = readEight( buffer);
-		rdevMinor = readEight( buffer);
-		int namesize = readEight( buffer);
-		checksum = readEight( buffer);
+
+		uid = readHex( buffer);
+		gid = readHex( buffer);
+		nlink = readHex( buffer);
+		mtime = 1000L * readHex( buffer);
+		filesize = readHex( buffer) & 0xFFFFFFFFL;
+		devMajor = readHex( buffer);
+		devMinor = readHex( buffer);
+		rdevMajor = readHex( buffer);
+		rdevMinor = readHex( buffer);
+		final int namesize = readHex( buffer);
+		checksum = readHex( buffer);
 		total += CPIO_HEADER;
 
-		name = charset.decode( Util.fill( channel, namesize - 1)).toString();
-		Util.fill( channel, 1);
-		total += namesize;
-		total += skip( channel, total);
-		return total;
+		final int pad = Util.difference( total + namesize, 3);
+		buffer = Util.fill( channel, scratch( namesize + pad));
+		name = new String( buffer.array(), buffer.arrayOffset(), namesize - 1, UTF_8);
+		if ( LOGGER.isDebugEnabled()) LOGGER.debug( "Skipping '{}' bytes from stream at position '{}'.", pad, total + namesize);
+		return total + namesize + pad;
 	}
 
 	/**
 	 * Write the content for the CPIO header, including the name immediately following. The name data is rounded
-	 * to the nearest 2 byte boundary as CPIO requires by appending a null when needed.
+	 * to the nearest 2 byte boundary as CPIO requires by appending a null when needed. The header, name and
+	 * padding are encoded into one buffer and written at once.
 	 * @param channel which channel to write on
 	 * @param total current size of header?
 	 * @return total written and skipped
 	 * @throws IOException there was an IO error
 	 */
-	public int write( final WritableByteChannel channel, int total) throws IOException {
-		final ByteBuffer buffer = charset.encode( CharBuffer.wrap( name));
-		int length = buffer.remaining() + 1;
-		ByteBuffer descriptor = ByteBuffer.allocate( CPIO_HEADER);
-		descriptor.put( writeSix( MAGIC));
-		descriptor.put( writeEight( inode));
-		descriptor.put( writeEight( getMode()));
-		descriptor.put( writeEight( uid));
-		descriptor.put( writeEight( gid));
-		descriptor.put( writeEight( nlink));
-		descriptor.put( writeEight(( int) ( mtime / 1000)));
-		descriptor.put( writeEight( filesize));
-		descriptor.put( writeEight( devMajor));
-		descriptor.put( writeEight( devMinor));
-		descriptor.put( writeEight( rdevMajor));
-		descriptor.put( writeEight( rdevMinor));
-		descriptor.put( writeEight( length));
-		descriptor.put( writeEight( checksum));
-		descriptor.flip();
-
+	public long write( final WritableByteChannel channel, long total) throws IOException {
+		if ( filesize > 0xFFFFFFFFL) throw new IllegalStateException( "File '" + name + "' is too large for a cpio header, use a stripped entry.");
+		final int length = Util.utf8Length( name) + 1;
 		total += CPIO_HEADER + length;
-		Util.empty( channel, descriptor);
+		final int pad = Util.difference( total, 3);
+		final ByteBuffer buffer = scratch( CPIO_HEADER + length + pad);
+		writeMagic( buffer, MAGIC);
+		writeHex( buffer, inode);
+		writeHex( buffer, getMode());
+		writeHex( buffer, uid);
+		writeHex( buffer, gid);
+		writeHex( buffer, nlink);
+		writeHex( buffer, ( int) ( mtime / 1000));
+		writeHex( buffer, ( int) filesize);
+		writeHex( buffer, devMajor);
+		writeHex( buffer, devMinor);
+		writeHex( buffer, rdevMajor);
+		writeHex( buffer, rdevMinor);
+		writeHex( buffer, length);
+		writeHex( buffer, checksum);
+		Util.putUtf8( buffer, name);
+		while ( buffer.hasRemaining()) buffer.put(( byte) 0);
+		buffer.flip();
+		Util.empty( channel, buffer);
+		if ( LOGGER.isDebugEnabled()) LOGGER.debug( "Skipping '{}' bytes from stream at position '{}'.", pad, total);
+		return total + pad;
+	}
+
+	/**
+	 * Write a stripped cpio entry, which records only the index of the file in the RPM header
+	 * and so places no limit on its size. The entry is preceded by padding to the next 4 byte
+	 * boundary and is not followed by any, so the file data follows it immediately.
+	 * @param channel which channel to write on
+	 * @param total current size of the archive
+	 * @param index the index of the file in the RPM header
+	 * @return total written and skipped
+	 * @throws IOException there was an IO error
+	 */
+	public long writeStripped( final WritableByteChannel channel, long total, final int index) throws IOException {
+		final int pad = Util.difference( total, 3);
+		final ByteBuffer buffer = scratch( pad + STRIPPED_HEADER);
+		while ( buffer.position() < pad) buffer.put(( byte) 0);
+		writeMagic( buffer, STRIPPED_MAGIC);
+		writeHex( buffer, index);
+		buffer.flip();
 		Util.empty( channel, buffer);
-		Util.empty( channel, ByteBuffer.allocate( 1));
-		return total + skip( channel, total);
+		return total + pad + STRIPPED_HEADER;
 	}
 
 	public String toString() {
@@ -272,7 +373,8 @@ public class CpioHeader {
 		builder.append( "DevMajor: ").append( devMajor).append( "\n");
 		builder.append( "RDevMinor: ").append( rdevMinor).append( "\n");
 		builder.append( "RDevMajor: ").append( rdevMajor).append( "\n");
-		builder.append( "NameSize: ").append( name.length() + 1).append( "\n");
+		if ( isStripped()) builder.append( "FileIndex: ").append( fileIndex).append( "\n");
+		else builder.append( "NameSize: ").append( name.length() + 1).append( "\n");
 		builder.append( "Name: ").append( name).append( "\n");
 		return builder.toString();
 	}
@@ -0,0 +1,275 @@
+package org.redline_rpm.payload;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+
+/**
+ * A persistent cache of file digests, so that files which have not changed since an earlier
+ * build are not read again. A cached digest is used only while the path, size, modification
+ * time and inode of the file all match those recorded when it was hashed.
+ *
+ * The cache is a text file that is loaded when the cache is created and merged back into the
+ * file by {@link #save()}. Saving holds an exclusive lock on a companion <code>.lock</code>
+ * file, merges in entries written by other builds since the cache was loaded, evicts the
+ * least recently used entries beyond the size limit, and replaces the cache file by renaming
+ * a complete temporary file over it, so concurrent builds on the same host never read a
+ * partially written cache.
+ */
+public class DigestCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 250000;
+
+	private static final String VERSION = "redline-digest-cache 1";
+
+	/**
+	 * Files modified this recently are not cached, since a further change within the
+	 * resolution of the file system clock would leave their modification time unchanged.
+	 */
+	private static final long RACY_INTERVAL = 2000;
+
+	private static final Object SAVE_LOCK = new Object();
+
+	private final Logger logger = getLogger( DigestCache.class.getName());
+	private final File file;
+	private final int maxEntries;
+	private final Map< String, Record> records = new HashMap< String, Record>();
+	private boolean dirty;
+
+	/**
+	 * The identity of a file at the time it was examined.
+	 */
+	public static class Identity {
+		final File file;
+		final String path;
+		final long size;
+		final long mtime;
+		final long inode;
+
+		Identity( final File file, final long size, final long mtime, final long inode) {
+			this.file = file;
+			this.path = file.getAbsolutePath();
+			this.size = size;
+			this.mtime = mtime;
+			this.inode = inode;
+		}
+
+		boolean matches( final long size, final long mtime, final long inode) {
+			return this.size == size && this.mtime == mtime && this.inode == inode;
+		}
+	}
+
+	private static class Record {
+		final long size;
+		final long mtime;
+		final long inode;
+		final String digest;
+		long used;
+
+		Record( final long size, final long mtime, final long inode, final String digest, final long used) {
+			this.size = size;
+			this.mtime = mtime;
+			this.inode = inode;
+			this.digest = digest;
+			this.used = used;
+		}
+	}
+
+	/**
+	 * Opens a cache with the default size limit.
+	 *
+	 * @param file the cache file, which need not exist yet
+	 * @throws IOException if the cache file exists but cannot be read
+	 */
+	public DigestCache( final File file) throws IOException {
+		this( file, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * Opens a cache.
+	 *
+	 * @param file the cache file, which need not exist yet
+	 * @param maxEntries the number of entries kept when the cache is saved
+	 * @throws IOException if the cache file exists but cannot be read
+	 */
+	public DigestCache( final File file, final int maxEntries) throws IOException {
+		if ( maxEntries < 1) throw new IllegalArgumentException( "A digest cache must hold at least one entry.");
+		this.file = file.getAbsoluteFile();
+		this.maxEntries = maxEntries;
+		read( this.file, records);
+	}
+
+	/**
+	 * Examines a file, recording the attributes that identify its contents.
+	 *
+	 * @param file the file
+	 * @return the identity of the file
+	 * @throws IOException if the file cannot be examined
+	 */
+	public static Identity identify( final File file) throws IOException {
+		final Path path = file.toPath();
+		return new Identity( file, Files.size( path), Files.getLastModifiedTime( path).toMillis(), inode( path));
+	}
+
+	/**
+	 * Looks up the digest of a file.
+	 *
+	 * @param identity the identity of the file
+	 * @return the cached digest, or null if the file has not been cached with this identity
+	 */
+	public synchronized String get( final Identity identity) {
+		final Record record = records.get( identity.path);
+		if ( record == null || !identity.matches( record.size, record.mtime, record.inode)) return null;
+		record.used = System.currentTimeMillis();
+		dirty = true;
+		return record.digest;
+	}
+
+	/**
+	 * Records the digest of a file, unless the file has changed since it was identified or was
+	 * modified too recently for its modification time to be trusted.
+	 *
+	 * @param identity the identity of the file before it was read
+	 * @param digest the digest of the file
+	 * @throws IOException if the file cannot be examined
+	 */
+	public void put( final Identity identity, final String digest) throws IOException {
+		final long now = System.currentTimeMillis();
+		if ( identity.mtime > now - RACY_INTERVAL || identity.path.indexOf( '\n') != -1) return;
+		final Identity after = identify( identity.file);
+		if ( !identity.matches( after.size, after.mtime, after.inode)) return;
+		synchronized ( this) {
+			records.put( identity.path, new Record( identity.size, identity.mtime, identity.inode, digest, now));
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Writes the cache back to its file, merged with any entries saved by other builds since
+	 * it was loaded.
+	 *
+	 * @throws IOException if the cache cannot be written
+	 */
+	public synchronized void save() throws IOException {
+		if ( !dirty) return;
+		final File directory = file.getParentFile();
+		if ( directory != null && !directory.isDirectory() && !directory.mkdirs()) throw new IOException( "Cannot create directory '" + directory + "'.");
+		synchronized ( SAVE_LOCK) {
+			final RandomAccessFile lockFile = new RandomAccessFile( new File( file.getPath() + ".lock"), "rw");
+			try {
+				final FileLock lock = lockFile.getChannel().lock();
+				try {
+					final Map< String, Record> merged = new HashMap< String, Record>();
+					read( file, merged);
+					for ( Map.Entry< String, Record> entry : records.entrySet()) {
+						final Record existing = merged.get( entry.getKey());
+						if ( existing == null || existing.used <= entry.getValue().used) merged.put( entry.getKey(), entry.getValue());
+					}
+					write( evict( merged));
+				} finally {
+					lock.release();
+				}
+			} finally {
+				lockFile.close();
+			}
+		}
+		dirty = false;
+	}
+
+	private List< Map.Entry< String, Record>> evict( final Map< String, Record> merged) {
+		final List< Map.Entry< String, Record>> entries = new ArrayList< Map.Entry< String, Record>>( merged.entrySet());
+		if ( entries.size() > maxEntries) {
+			Collections.sort( entries, new Comparator< Map.Entry< String, Record>>() {
+				public int compare( final Map.Entry< String, Record> one, final Map.Entry< String, Record> two) {
+					final long a = one.getValue().used;
+					final long b = two.getValue().used;
+					return a > b ? -1 : a < b ? 1 : 0;
+				}
+			});
+			logger.log( FINE, "Evicting ''{0}'' digest cache entries.", entries.size() - maxEntries);
+			return entries.subList( 0, maxEntries);
+		}
+		return entries;
+	}
+
+	private void write( final List< Map.Entry< String, Record>> entries) throws IOException {
+		final File temp = File.createTempFile( file.getName(), ".tmp", file.getParentFile());
+		try {
+			final BufferedWriter writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( temp), "UTF-8"));
+			try {
+				writer.write( VERSION);
+				writer.newLine();
+				for ( Map.Entry< String, Record> entry : entries) {
+					final Record record = entry.getValue();
+					writer.write( record.used + " " + record.size + " " + record.mtime + " " + record.inode + " " + record.digest + " " + entry.getKey());
+					writer.newLine();
+				}
+			} finally {
+				writer.close();
+			}
+			try {
+				Files.move( temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch ( AtomicMoveNotSupportedException e) {
+				Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			temp.delete();
+		}
+	}
+
+	private void read( final File source, final Map< String, Record> target) throws IOException {
+		if ( !source.isFile()) return;
+		final BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( source), "UTF-8"));
+		try {
+			if ( !VERSION.equals( reader.readLine())) {
+				logger.log( WARNING, "Ignoring digest cache ''{0}'' with an unknown format.", source);
+				return;
+			}
+			String line;
+			while (( line = reader.readLine()) != null) {
+				final String[] fields = line.split( " ", 6);
+				if ( fields.length != 6) continue;
+				try {
+					target.put( fields[ 5], new Record( Long.parseLong( fields[ 1]), Long.parseLong( fields[ 2]), Long.parseLong( fields[ 3]), fields[ 4], Long.parseLong( fields[ 0])));
+				} catch ( NumberFormatException e) {
+					logger.log( FINE, "Skipping malformed digest cache entry ''{0}''.", line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static long inode( final Path path) throws IOException {
+		try {
+			final Object inode = Files.getAttribute( path, "unix:ino");
+			return inode instanceof Number ? (( Number) inode).longValue() : 0;
+		} catch ( UnsupportedOperationException e) {
+			return 0;
+		} catch ( IllegalArgumentException e) {
+			return 0;
+		}
+	}
+}
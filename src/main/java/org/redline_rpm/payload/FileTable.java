@@ -0,0 +1,78 @@
+package org.redline_rpm.payload;
+
+/**
+ * The per file columns of an RPM header, in archive order, as generated by a single traversal
+ * of the {@link Contents} by {@link Contents#getFileTable()}. The arrays are returned without
+ * copying and must not be changed.
+ */
+public class FileTable {
+
+	String[] dirNames;
+	final int[] dirIndexes;
+	final String[] baseNames;
+	final long[] sizes;
+	final short[] modes;
+	final short[] rdevs;
+	final int[] mtimes;
+	final String[] linkTos;
+	final int[] flags;
+	final String[] users;
+	final String[] groups;
+	final int[] verifyFlags;
+	final int[] devices;
+	final int[] inodes;
+	final String[] langs;
+	final String[] contexts;
+	long totalSize;
+
+	FileTable( final int count) {
+		dirIndexes = new int[ count];
+		baseNames = new String[ count];
+		sizes = new long[ count];
+		modes = new short[ count];
+		rdevs = new short[ count];
+		mtimes = new int[ count];
+		linkTos = new String[ count];
+		flags = new int[ count];
+		users = new String[ count];
+		groups = new String[ count];
+		verifyFlags = new int[ count];
+		devices = new int[ count];
+		inodes = new int[ count];
+		langs = new String[ count];
+		contexts = new String[ count];
+	}
+
+	public String[] getDirNames() { return dirNames; }
+	public int[] getDirIndexes() { return dirIndexes; }
+	public String[] getBaseNames() { return baseNames; }
+	public long[] getLongSizes() { return sizes; }
+	public short[] getModes() { return modes; }
+	public short[] getRdevs() { return rdevs; }
+	public int[] getMtimes() { return mtimes; }
+	public String[] getLinkTos() { return linkTos; }
+	public int[] getFlags() { return flags; }
+	public String[] getUsers() { return users; }
+	public String[] getGroups() { return groups; }
+	public int[] getVerifyFlags() { return verifyFlags; }
+	public int[] getDevices() { return devices; }
+	public int[] getInodes() { return inodes; }
+	public String[] getLangs() { return langs; }
+	public String[] getContexts() { return contexts; }
+
+	/**
+	 * Gets the sizes as 32 bit values, which wrap for files of 4 GB or more.
+	 * @return the sizes header values
+	 */
+	public int[] getSizes() {
+		final int[] array = new int[ sizes.length];
+		for ( int x = 0; x < sizes.length; x++) array[ x] = ( int) sizes[ x];
+		return array;
+	}
+
+	/**
+	 * The total size of the regular files in the archive.
+	 * @return the total size
+	 */
+	public long getTotalSize() { return totalSize; }
+}
@@ -0,0 +1,213 @@
+package org.redline_rpm.payload;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An output stream that splits its input into fixed size blocks, compresses the blocks
+ * concurrently and writes the results in input order. Subclasses supply the compressed
+ * format: the stream header, the compression of a single block and the trailer.
+ *
+ * Memory use is bounded by the number of blocks allowed in flight, each holding at most
+ * one block of input and its compressed form.
+ *
+ * @param <T> the compressed form of a block
+ */
+public abstract class ParallelBlockOutputStream< T> extends OutputStream {
+
+	private final OutputStream out;
+	private final int blockSize;
+	private final int maxPending;
+	private final ExecutorService executor;
+	private final boolean shared;
+	private final LinkedList< Future< T>> pending = new LinkedList< Future< T>>();
+
+	private byte[] block;
+	private int count;
+	private byte[] previous;
+	private boolean started;
+	private boolean finished;
+
+	/**
+	 * @param out the stream to write the compressed data to
+	 * @param blockSize the size of each block of input
+	 * @param maxPending the maximum number of blocks in flight
+	 * @param executor the executor that compresses the blocks
+	 * @param shared whether the executor outlives this stream, rather than being shut down
+	 * when it is finished
+	 */
+	protected ParallelBlockOutputStream( final OutputStream out, final int blockSize, final int maxPending, final ExecutorService executor, final boolean shared) {
+		if ( blockSize < 1) throw new IllegalArgumentException( "Block size must be positive.");
+		if ( maxPending < 1) throw new IllegalArgumentException( "At least one block must be allowed in flight.");
+		this.out = out;
+		this.blockSize = blockSize;
+		this.maxPending = maxPending;
+		this.executor = executor;
+		this.shared = shared;
+		this.block = new byte[ blockSize];
+	}
+
+	/**
+	 * Creates a pool of daemon worker threads for a single stream. The threads expire when
+	 * idle, so a stream that is abandoned without being finished or aborted does not hold on
+	 * to them.
+	 *
+	 * @param threads the number of worker threads
+	 * @param name the name given to the threads
+	 * @return the pool
+	 */
+	protected static ExecutorService newPool( final int threads, final String name) {
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor( threads, threads, 1, TimeUnit.SECONDS, new LinkedBlockingQueue< Runnable>(), new ThreadFactory() {
+			public Thread newThread( final Runnable runnable) {
+				final Thread thread = new Thread( runnable, name);
+				thread.setDaemon( true);
+				return thread;
+			}
+		});
+		pool.allowCoreThreadTimeOut( true);
+		return pool;
+	}
+
+	/**
+	 * Writes whatever precedes the first block.
+	 *
+	 * @param out the underlying stream
+	 * @throws IOException if an IO error occurs
+	 */
+	protected abstract void writeHeader( OutputStream out) throws IOException;
+
+	/**
+	 * Compresses one block of input. Called on a worker thread, concurrently with other blocks.
+	 *
+	 * @param input the block of input, which is not modified after submission
+	 * @param length the number of bytes of input in the block
+	 * @param previous the block submitted before this one, or null for the first block
+	 * @param last whether this is the final block, which may be empty
+	 * @return the compressed block
+	 */
+	protected abstract T compress( byte[] input, int length, byte[] previous, boolean last);
+
+	/**
+	 * Writes a compressed block. Blocks are written in input order on the writing thread.
+	 *
+	 * @param out the underlying stream
+	 * @param compressed the compressed block
+	 * @throws IOException if an IO error occurs
+	 */
+	protected abstract void writeBlock( OutputStream out, T compressed) throws IOException;
+
+	/**
+	 * Writes whatever follows the last block.
+	 *
+	 * @param out the underlying stream
+	 * @throws IOException if an IO error occurs
+	 */
+	protected abstract void writeTrailer( OutputStream out) throws IOException;
+
+	/**
+	 * Observes input as it is written, before it is split into blocks.
+	 *
+	 * @param data the input
+	 * @param offset the offset of the input
+	 * @param length the length of the input
+	 */
+	protected void update( final byte[] data, final int offset, final int length) {
+	}
+
+	public void write( final int b) throws IOException {
+		write( new byte[] { ( byte) b}, 0, 1);
+	}
+
+	public void write( final byte[] data, int offset, int length) throws IOException {
+		if ( finished) throw new IOException( "Stream has been finished.");
+		update( data, offset, length);
+		while ( length > 0) {
+			final int chunk = Math.min( length, blockSize - count);
+			System.arraycopy( data, offset, block, count, chunk);
+			count += chunk;
+			offset += chunk;
+			length -= chunk;
+			if ( count == blockSize) submit( false);
+		}
+	}
+
+	/**
+	 * Compresses any buffered input, writes the trailer and releases the worker threads.
+	 * The underlying stream is left open.
+	 *
+	 * @throws IOException if an IO error occurs
+	 */
+	public void finish() throws IOException {
+		if ( finished) return;
+		try {
+			submit( true);
+			while ( !pending.isEmpty()) drain();
+			writeTrailer( out);
+			finished = true;
+		} finally {
+			abort();
+		}
+	}
+
+	/**
+	 * Stops compression without completing the stream, cancelling blocks in flight and
+	 * releasing the worker threads. Has no further effect once the stream is finished.
+	 */
+	public void abort() {
+		for ( Future< T> future : pending) future.cancel( true);
+		pending.clear();
+		if ( !shared) executor.shutdownNow();
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			out.close();
+		}
+	}
+
+	private void submit( final boolean last) throws IOException {
+		if ( !started) {
+			writeHeader( out);
+			started = true;
+		}
+		final byte[] input = block;
+		final int length = count;
+		final byte[] dictionary = previous;
+		pending.add( executor.submit( new Callable< T>() {
+			public T call() {
+				return compress( input, length, dictionary, last);
+			}
+		}));
+		previous = input;
+		block = last ? null : new byte[ blockSize];
+		count = 0;
+		while ( pending.size() >= maxPending || ( !pending.isEmpty() && pending.getFirst().isDone())) drain();
+	}
+
+	private void drain() throws IOException {
+		try {
+			writeBlock( out, pending.removeFirst().get());
+		} catch ( InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted while compressing payload.");
+		} catch ( ExecutionException e) {
+			throw new IOException( "Failed to compress payload block.", e.getCause());
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package org.redline_rpm.payload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip output stream that compresses fixed size blocks of input concurrently, in the
+ * manner of <code>pigz</code>. Each block is deflated independently on a worker thread,
+ * primed with the last 32 KB of the previous block as a preset dictionary, and ended with
+ * a sync flush so the compressed blocks can be concatenated into a single deflate stream.
+ * The result is a standard, single member gzip stream.
+ *
+ * Because block boundaries depend only on the block size, the output is identical for
+ * any number of worker threads. Memory use is bounded by the number of blocks allowed
+ * in flight, each holding at most one block of input and its compressed form.
+ */
+public class ParallelGzipOutputStream extends ParallelBlockOutputStream< byte[]> {
+
+	public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+	private static final byte[] HEADER = new byte[] { 0x1f, ( byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+	private final int level;
+	private final CRC32 crc = new CRC32();
+	private long size;
+
+	/**
+	 * Creates a compressing stream with its own pool of worker threads, using the default
+	 * block size and allowing two blocks in flight per thread.
+	 *
+	 * @param out the stream to write the compressed data to
+	 * @param level the deflate compression level
+	 * @param threads the number of worker threads
+	 */
+	public ParallelGzipOutputStream( final OutputStream out, final int level, final int threads) {
+		super( out, DEFAULT_BLOCK_SIZE, threads * 2, newPool( threads, "redline-gzip"), false);
+		this.level = level;
+	}
+
+	/**
+	 * Creates a compressing stream that runs on a shared executor, which is not shut down
+	 * when this stream is finished.
+	 *
+	 * @param out the stream to write the compressed data to
+	 * @param level the deflate compression level
+	 * @param blockSize the size of each independently compressed block, at least 32 KB
+	 * @param maxPending the maximum number of blocks in flight
+	 * @param executor the executor that compresses the blocks
+	 */
+	public ParallelGzipOutputStream( final OutputStream out, final int level, final int blockSize, final int maxPending, final ExecutorService executor) {
+		super( out, blockSize, maxPending, executor, true);
+		if ( blockSize < DICTIONARY_SIZE) throw new IllegalArgumentException( "Block size must be at least " + DICTIONARY_SIZE + " bytes.");
+		this.level = level;
+	}
+
+	protected void update( final byte[] data, final int offset, final int length) {
+		crc.update( data, offset, length);
+		size += length;
+	}
+
+	protected void writeHeader( final OutputStream out) throws IOException {
+		out.write( HEADER);
+	}
+
+	protected void writeBlock( final OutputStream out, final byte[] compressed) throws IOException {
+		out.write( compressed);
+	}
+
+	protected void writeTrailer( final OutputStream out) throws IOException {
+		final long value = crc.getValue();
+		out.write( new byte[] {
+			( byte) value, ( byte) ( value >> 8), ( byte) ( value >> 16), ( byte) ( value >> 24),
+			( byte) size, ( byte) ( size >> 8), ( byte) ( size >> 16), ( byte) ( size >> 24)
+		});
+	}
+
+	protected byte[] compress( final byte[] input, final int length, final byte[] dictionary, final boolean last) {
+		final Deflater deflater = new Deflater( level, true);
+		try {
+			if ( dictionary != null) deflater.setDictionary( dictionary, dictionary.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+			deflater.setInput( input, 0, length);
+			final ByteArrayOutputStream output = new ByteArrayOutputStream( length / 2 + 64);
+			final byte[] buffer = new byte[ 16 * 1024];
+			if ( last) {
+				deflater.finish();
+				while ( !deflater.finished()) output.write( buffer, 0, deflater.deflate( buffer));
+			} else {
+				int written;
+				do {
+					written = deflater.deflate( buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+					output.write( buffer, 0, written);
+				} while ( written == buffer.length);
+			}
+			return output.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+}
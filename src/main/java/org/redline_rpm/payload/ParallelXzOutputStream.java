@@ -0,0 +1,189 @@
+package org.redline_rpm.payload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32;
+
+import org.tukaani.xz.FinishableOutputStream;
+import org.tukaani.xz.FinishableWrapperOutputStream;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.UnsupportedOptionsException;
+
+/**
+ * An xz output stream that compresses fixed size blocks of input concurrently, in the
+ * manner of <code>xz -T</code>. Each block is encoded as an independent LZMA2 block on a
+ * worker thread, and the blocks are written in order into a single xz stream, followed by
+ * the index that records their sizes. Block headers carry both the compressed and the
+ * uncompressed size, so readers are able to decompress the blocks in parallel as well.
+ *
+ * Because block boundaries depend only on the block size, the output is identical for any
+ * number of worker threads. Memory use is bounded by the number of blocks allowed in flight,
+ * each holding at most one block of input, its compressed form and an LZMA2 encoder.
+ */
+public class ParallelXzOutputStream extends ParallelBlockOutputStream< ParallelXzOutputStream.Block> {
+
+	private static final int MINIMUM_BLOCK_SIZE = 1024 * 1024;
+	private static final byte[] MAGIC = new byte[] { ( byte) 0xfd, '7', 'z', 'X', 'Z', 0};
+	private static final byte[] FOOTER_MAGIC = new byte[] { 'Y', 'Z'};
+	private static final byte[] FLAGS = new byte[] { 0, 0x01};
+	private static final int CHECK_SIZE = 4;
+	private static final int LZMA2_FILTER = 0x21;
+
+	private final LZMA2Options options;
+	private final List< long[]> records = new LinkedList< long[]>();
+
+	/**
+	 * The compressed form of a block, with the sizes recorded for it in the index.
+	 */
+	protected static class Block {
+		final byte[] data;
+		final long unpadded;
+		final long uncompressed;
+
+		Block( final byte[] data, final long unpadded, final long uncompressed) {
+			this.data = data;
+			this.unpadded = unpadded;
+			this.uncompressed = uncompressed;
+		}
+	}
+
+	/**
+	 * Creates a compressing stream with its own pool of worker threads and one block in flight
+	 * per thread. Blocks are three times the dictionary size of the preset, and at least 1 MB.
+	 *
+	 * @param out the stream to write the compressed data to
+	 * @param preset the xz compression preset, from 0 to 9
+	 * @param threads the number of worker threads
+	 * @throws UnsupportedOptionsException if the preset is not supported
+	 */
+	public ParallelXzOutputStream( final OutputStream out, final int preset, final int threads) throws UnsupportedOptionsException {
+		this( out, new LZMA2Options( preset), defaultBlockSize( new LZMA2Options( preset)), threads + 1, newPool( threads, "redline-xz"), false);
+	}
+
+	/**
+	 * Creates a compressing stream that runs on a shared executor, which is not shut down
+	 * when this stream is finished.
+	 *
+	 * @param out the stream to write the compressed data to
+	 * @param options the LZMA2 options, whose dictionary is limited to the block size
+	 * @param blockSize the size of each independently compressed block
+	 * @param maxPending the maximum number of blocks in flight
+	 * @param executor the executor that compresses the blocks
+	 * @throws UnsupportedOptionsException if the options are not supported
+	 */
+	public ParallelXzOutputStream( final OutputStream out, final LZMA2Options options, final int blockSize, final int maxPending, final ExecutorService executor) throws UnsupportedOptionsException {
+		this( out, options, blockSize, maxPending, executor, true);
+	}
+
+	private ParallelXzOutputStream( final OutputStream out, final LZMA2Options options, final int blockSize, final int maxPending, final ExecutorService executor, final boolean shared) throws UnsupportedOptionsException {
+		super( out, blockSize, maxPending, executor, shared);
+		this.options = ( LZMA2Options) options.clone();
+		if ( this.options.getDictSize() > blockSize) this.options.setDictSize( Math.max( blockSize, LZMA2Options.DICT_SIZE_MIN));
+	}
+
+	private static int defaultBlockSize( final LZMA2Options options) {
+		return ( int) Math.min( Integer.MAX_VALUE - 8, Math.max( 3L * options.getDictSize(), MINIMUM_BLOCK_SIZE));
+	}
+
+	protected void writeHeader( final OutputStream out) throws IOException {
+		out.write( MAGIC);
+		out.write( FLAGS);
+		writeInt( out, crc( FLAGS, 0, FLAGS.length));
+	}
+
+	protected Block compress( final byte[] input, final int length, final byte[] previous, final boolean last) {
+		if ( length == 0) return null;
+		try {
+			final ByteArrayOutputStream lzma2 = new ByteArrayOutputStream( length / 2 + 64);
+			final FinishableOutputStream encoder = options.getOutputStream( new FinishableWrapperOutputStream( lzma2));
+			encoder.write( input, 0, length);
+			encoder.finish();
+			final int compressed = lzma2.size();
+
+			final ByteArrayOutputStream header = new ByteArrayOutputStream( 32);
+			header.write( 0);
+			header.write( 0xc0);
+			writeVli( header, compressed);
+			writeVli( header, length);
+			writeVli( header, LZMA2_FILTER);
+			writeVli( header, 1);
+			header.write( dictionaryProperty( options.getDictSize()));
+			while (( header.size() + CHECK_SIZE) % 4 != 0) header.write( 0);
+			final byte[] head = header.toByteArray();
+			head[ 0] = ( byte) (( head.length + CHECK_SIZE) / 4 - 1);
+
+			final ByteArrayOutputStream block = new ByteArrayOutputStream( head.length + compressed + 12);
+			block.write( head);
+			writeInt( block, crc( head, 0, head.length));
+			lzma2.writeTo( block);
+			while ( block.size() % 4 != 0) block.write( 0);
+			writeInt( block, crc( input, 0, length));
+			return new Block( block.toByteArray(), head.length + CHECK_SIZE + compressed + CHECK_SIZE, length);
+		} catch ( IOException e) {
+			throw new RuntimeException( e);
+		}
+	}
+
+	protected void writeBlock( final OutputStream out, final Block block) throws IOException {
+		if ( block == null) return;
+		out.write( block.data);
+		records.add( new long[] { block.unpadded, block.uncompressed});
+	}
+
+	protected void writeTrailer( final OutputStream out) throws IOException {
+		final ByteArrayOutputStream index = new ByteArrayOutputStream();
+		index.write( 0);
+		writeVli( index, records.size());
+		for ( long[] record : records) {
+			writeVli( index, record[ 0]);
+			writeVli( index, record[ 1]);
+		}
+		while ( index.size() % 4 != 0) index.write( 0);
+		final byte[] bytes = index.toByteArray();
+		out.write( bytes);
+		writeInt( out, crc( bytes, 0, bytes.length));
+
+		final ByteArrayOutputStream footer = new ByteArrayOutputStream( 6);
+		writeInt( footer, ( bytes.length + CHECK_SIZE) / 4 - 1);
+		footer.write( FLAGS);
+		final byte[] fields = footer.toByteArray();
+		writeInt( out, crc( fields, 0, fields.length));
+		out.write( fields);
+		out.write( FOOTER_MAGIC);
+	}
+
+	/**
+	 * Encodes a dictionary size as the single LZMA2 filter property byte, rounding up to the
+	 * nearest size that can be represented.
+	 */
+	private static int dictionaryProperty( final int size) {
+		int property = 0;
+		while ( property < 40 && (( 2L | ( property & 1)) << ( property / 2 + 11)) < size) property++;
+		return property;
+	}
+
+	private static long crc( final byte[] data, final int offset, final int length) {
+		final CRC32 crc = new CRC32();
+		crc.update( data, offset, length);
+		return crc.getValue();
+	}
+
+	private static void writeInt( final OutputStream out, final long value) throws IOException {
+		out.write(( int) value);
+		out.write(( int) ( value >> 8));
+		out.write(( int) ( value >> 16));
+		out.write(( int) ( value >> 24));
+	}
+
+	private static void writeVli( final OutputStream out, long value) throws IOException {
+		while ( value >= 0x80) {
+			out.write(( int) ( value | 0x80));
+			value >>>= 7;
+		}
+		out.write(( int) value);
+	}
+}
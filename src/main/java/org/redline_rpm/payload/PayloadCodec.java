@@ -0,0 +1,59 @@
+package org.redline_rpm.payload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.redline_rpm.Dependency;
+
+/**
+ * Compresses and decompresses the cpio archive carried as the payload of an RPM. A codec is
+ * identified by the value recorded in the <code>PAYLOADCOMPRESSOR</code> header tag. The
+ * standard codecs are available from {@link PayloadCodecs}, and further codecs may be
+ * provided through <code>META-INF/services/org.redline_rpm.payload.PayloadCodec</code>.
+ */
+public interface PayloadCodec {
+
+	/**
+	 * The compressor name recorded in the header, such as <code>gzip</code> or <code>xz</code>.
+	 *
+	 * @return the compressor name
+	 */
+	String getName();
+
+	/**
+	 * The compression level used when none is given.
+	 *
+	 * @return the default level
+	 */
+	int getDefaultLevel();
+
+	/**
+	 * The rpmlib feature an installer needs to read payloads written by this codec.
+	 *
+	 * @return the required rpmlib feature, or null if every rpm version can read the payload
+	 */
+	Dependency getRequirement();
+
+	/**
+	 * Opens a compressing stream. Closing the returned stream completes the compressed data
+	 * and closes the given stream.
+	 *
+	 * @param out the stream to write the compressed payload to
+	 * @param level the compression level
+	 * @param threads the number of threads to compress with, or zero to compress on the calling
+	 * thread. Codecs that cannot compress concurrently ignore this value.
+	 * @return the compressing stream
+	 * @throws IOException if the stream cannot be opened
+	 */
+	OutputStream compress( OutputStream out, int level, int threads) throws IOException;
+
+	/**
+	 * Opens a decompressing stream.
+	 *
+	 * @param in the compressed payload
+	 * @return the uncompressed archive
+	 * @throws IOException if the stream cannot be opened
+	 */
+	InputStream decompress( InputStream in) throws IOException;
+}
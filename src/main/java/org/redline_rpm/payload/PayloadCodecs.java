@@ -0,0 +1,185 @@
+package org.redline_rpm.payload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdUtils;
+import org.redline_rpm.Dependency;
+import org.redline_rpm.header.PayloadCompressionType;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+import static org.redline_rpm.header.Flags.*;
+
+/**
+ * Registry of the available payload codecs. The standard codecs, <code>none</code>,
+ * <code>gzip</code>, <code>bzip2</code>, <code>xz</code> and <code>zstd</code>, are always
+ * registered; codecs found by the {@link ServiceLoader} replace a standard codec of the same
+ * name. The <code>zstd</code> codec needs <code>com.github.luben:zstd-jni</code> on the
+ * classpath, which is an optional dependency of this library.
+ */
+public final class PayloadCodecs {
+
+	public static final PayloadCodec NONE = new None();
+	public static final PayloadCodec GZIP = new Gzip();
+	public static final PayloadCodec BZIP2 = new Bzip2();
+	public static final PayloadCodec XZ = new Xz();
+	public static final PayloadCodec ZSTD = new Zstd();
+
+	private static final Map< String, PayloadCodec> CODECS = new LinkedHashMap< String, PayloadCodec>();
+
+	static {
+		register( NONE);
+		register( GZIP);
+		register( BZIP2);
+		register( XZ);
+		register( ZSTD);
+		for ( PayloadCodec codec : ServiceLoader.load( PayloadCodec.class, PayloadCodecs.class.getClassLoader())) register( codec);
+	}
+
+	private PayloadCodecs() {
+	}
+
+	/**
+	 * Registers a codec, replacing any codec with the same name.
+	 *
+	 * @param codec the codec to register
+	 */
+	public static void register( final PayloadCodec codec) {
+		synchronized ( CODECS) {
+			CODECS.put( codec.getName(), codec);
+		}
+	}
+
+	/**
+	 * Looks up the codec for a <code>PAYLOADCOMPRESSOR</code> value.
+	 *
+	 * @param name the compressor name
+	 * @return the codec, or null if none is registered under that name
+	 */
+	public static PayloadCodec get( final String name) {
+		synchronized ( CODECS) {
+			return CODECS.get( name);
+		}
+	}
+
+	/**
+	 * Looks up the codec for one of the standard compression types.
+	 *
+	 * @param type the compression type
+	 * @return the codec
+	 */
+	public static PayloadCodec get( final PayloadCompressionType type) {
+		final PayloadCodec codec = get( type.name());
+		if ( codec == null) throw new IllegalStateException( "No codec registered for '" + type + "'.");
+		return codec;
+	}
+
+	private static Dependency rpmlib( final String feature, final String version) {
+		return new Dependency( "rpmlib(" + feature + ")", version, LESS | EQUAL | RPMLIB);
+	}
+
+	private static class None implements PayloadCodec {
+		public String getName() { return "none"; }
+		public int getDefaultLevel() { return 0; }
+		public Dependency getRequirement() { return null; }
+
+		public OutputStream compress( final OutputStream out, final int level, final int threads) {
+			return out;
+		}
+
+		public InputStream decompress( final InputStream in) {
+			return in;
+		}
+	}
+
+	private static class Gzip implements PayloadCodec {
+		public String getName() { return "gzip"; }
+		public int getDefaultLevel() { return 6; }
+		public Dependency getRequirement() { return null; }
+
+		public OutputStream compress( final OutputStream out, final int level, final int threads) throws IOException {
+			if ( threads > 0) return new ParallelGzipOutputStream( out, level, threads);
+			return new GZIPOutputStream( out, 64 * 1024) {
+				{
+					def.setLevel( level);
+				}
+			};
+		}
+
+		public InputStream decompress( final InputStream in) throws IOException {
+			return new GZIPInputStream( in);
+		}
+	}
+
+	private static class Bzip2 implements PayloadCodec {
+		public String getName() { return "bzip2"; }
+		public int getDefaultLevel() { return BZip2CompressorOutputStream.MAX_BLOCKSIZE; }
+		public Dependency getRequirement() { return rpmlib( "PayloadIsBzip2", "3.0.5-1"); }
+
+		public OutputStream compress( final OutputStream out, final int level, final int threads) throws IOException {
+			return new BZip2CompressorOutputStream( out, level);
+		}
+
+		public InputStream decompress( final InputStream in) throws IOException {
+			return new BZip2CompressorInputStream( in);
+		}
+	}
+
+	private static class Xz implements PayloadCodec {
+		public String getName() { return "xz"; }
+		public int getDefaultLevel() { return LZMA2Options.PRESET_DEFAULT; }
+		public Dependency getRequirement() { return rpmlib( "PayloadIsXz", "5.2-1"); }
+
+		public OutputStream compress( final OutputStream out, final int level, final int threads) throws IOException {
+			if ( threads > 0) return new ParallelXzOutputStream( out, level, threads);
+			return new XZOutputStream( out, new LZMA2Options( level));
+		}
+
+		public InputStream decompress( final InputStream in) throws IOException {
+			return new XZCompressorInputStream( in);
+		}
+	}
+
+	private static class Zstd implements PayloadCodec {
+		public String getName() { return "zstd"; }
+		public int getDefaultLevel() { return 3; }
+		public Dependency getRequirement() { return rpmlib( "PayloadIsZstd", "5.4.18-1"); }
+
+		public OutputStream compress( final OutputStream out, final int level, final int threads) throws IOException {
+			check();
+			return ZstdStreams.compress( out, level, threads);
+		}
+
+		public InputStream decompress( final InputStream in) throws IOException {
+			check();
+			return new ZstdCompressorInputStream( in);
+		}
+
+		private static void check() throws IOException {
+			if ( !ZstdUtils.isZstdCompressionAvailable()) throw new IOException( "zstd payloads need com.github.luben:zstd-jni on the classpath.");
+		}
+	}
+
+	/**
+	 * Kept apart from {@link Zstd} so the optional zstd-jni classes are only loaded once
+	 * they are known to be present.
+	 */
+	private static class ZstdStreams {
+		static OutputStream compress( final OutputStream out, final int level, final int threads) throws IOException {
+			final com.github.luben.zstd.ZstdOutputStream zstd = new com.github.luben.zstd.ZstdOutputStream( out, level);
+			if ( threads > 0) zstd.setWorkers( threads);
+			return zstd;
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package org.redline_rpm;
+
+import org.junit.Test;
+import org.redline_rpm.header.Header.HeaderTag;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.redline_rpm.header.Architecture.NOARCH;
+import static org.redline_rpm.header.Os.LINUX;
+import static org.redline_rpm.header.RpmType.BINARY;
+
+public class BatchBuilderTest extends TestBase {
+
+    @Test
+    public void testBatchMatchesSequentialBuilds() throws Exception {
+        File sequential = new File( getTargetDir(), "batch-sequential" );
+        File batched = new File( getTargetDir(), "batch-concurrent" );
+        sequential.mkdirs();
+        batched.mkdirs();
+
+        BatchBuilder batch = new BatchBuilder( 3, 2 );
+        for ( int i = 0; i < 6; i++ ) {
+            Builder builder = batchTestBuilder( i );
+            batch.add( batchTestBuilder( i ), batched );
+            builder.build( sequential );
+        }
+        batch.add( batchTestBuilder( 6 ), new File( getTargetDir(), "batch-missing" + File.separator + "nested" ) );
+
+        List< BatchBuilder.Result > results = batch.build();
+        assertEquals( 7, results.size() );
+        for ( int i = 0; i < 6; i++ ) {
+            BatchBuilder.Result result = results.get( i );
+            assertTrue( result.isSuccess() );
+            assertEquals( "batch" + i + "-1.0-1.noarch.rpm", result.getName() );
+            assertArrayEquals( read( new File( sequential, result.getName() ) ), read( new File( batched, result.getName() ) ) );
+        }
+        assertFalse( results.get( 6 ).isSuccess() );
+        assertNull( results.get( 6 ).getName() );
+        assertNotNull( results.get( 6 ).getFailure() );
+    }
+
+    @Test
+    public void testKeyCachingIsLeftToBuilders() throws Exception {
+        File directory = new File( getTargetDir(), "batch-caching" );
+        directory.mkdirs();
+        Builder cached = batchTestBuilder( 0 );
+        cached.setCachePrivateKey( true );
+        Builder uncached = batchTestBuilder( 1 );
+
+        BatchBuilder batch = new BatchBuilder( 2, 1 );
+        batch.add( cached, directory );
+        batch.add( uncached, directory );
+        batch.build();
+        assertTrue( cached.cachePrivateKey );
+        assertFalse( uncached.cachePrivateKey );
+
+        batch = new BatchBuilder( 2, 1 );
+        batch.setCachePrivateKeys( true );
+        batch.add( uncached, directory );
+        batch.build();
+        assertTrue( uncached.cachePrivateKey );
+    }
+
+    protected Builder batchTestBuilder( int index ) throws Exception {
+        Builder builder = new Builder();
+        builder.setPackage( "batch" + index, "1.0", "1" );
+        builder.setBuildHost( "localhost" );
+        builder.setLicense( "GPL" );
+        builder.setPlatform( NOARCH, LINUX );
+        builder.setType( BINARY );
+        builder.addHeaderEntry( HeaderTag.BUILDTIME, 1400000000 );
+        builder.addFile( "/etc/prein.sh", new File( "src/test/resources/prein.sh" ) );
+        if ( index % 2 == 0 ) builder.addFile( "/etc/rpm-1-1.0-1.noarch.rpm", new File( "src/test/resources/rpm-1-1.0-1.noarch.rpm" ) );
+        builder.addLink( "/etc/link", "/etc/prein.sh" );
+        return builder;
+    }
+
+    protected static byte[] read( File file ) throws Exception {
+        byte[] data = new byte[ ( int ) file.length() ];
+        DataInputStream in = new DataInputStream( new FileInputStream( file ) );
+        try {
+            in.readFully( data );
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+}
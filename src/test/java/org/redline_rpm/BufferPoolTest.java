@@ -0,0 +1,47 @@
+package org.redline_rpm;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testReleasedBufferIsReused() {
+        BufferPool pool = new BufferPool( 1024, 1, true );
+        ByteBuffer buffer = pool.acquire();
+        assertTrue( buffer.isDirect() );
+        assertEquals( 1024, buffer.remaining() );
+        buffer.put( ( byte ) 1 ).flip();
+        pool.release( buffer );
+        ByteBuffer again = pool.acquire();
+        assertSame( buffer, again );
+        assertEquals( 1024, again.remaining() );
+    }
+
+    @Test
+    public void testCapacityAndForeignBuffers() {
+        BufferPool pool = new BufferPool( 1024, 1, false );
+        ByteBuffer one = pool.acquire();
+        ByteBuffer two = pool.acquire();
+        pool.release( ByteBuffer.allocate( 512 ) );
+        pool.release( ByteBuffer.allocateDirect( 1024 ) );
+        pool.release( one );
+        pool.release( two );
+        assertSame( one, pool.acquire() );
+        assertNotSame( two, pool.acquire() );
+    }
+
+    @Test
+    public void testZeros() {
+        ByteBuffer zeros = Util.zeros( 3 );
+        assertEquals( 3, zeros.remaining() );
+        while ( zeros.hasRemaining() ) assertEquals( 0, zeros.get() );
+        assertEquals( 7, Util.zeros( 7 ).remaining() );
+    }
+}
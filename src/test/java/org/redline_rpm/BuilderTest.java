@@ -5,13 +5,33 @@ import org.redline_rpm.Scanner;
 import org.redline_rpm.header.Format;
 import org.redline_rpm.header.Header.HeaderTag;
 import org.redline_rpm.header.Header;
+import org.redline_rpm.header.PayloadCompressionType;
+import org.redline_rpm.payload.CompactContents;
+import org.redline_rpm.payload.Contents;
+import org.redline_rpm.payload.CpioHeader;
 import org.redline_rpm.payload.Directive;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.redline_rpm.ScannerTest.channelWrapper;
 import static org.redline_rpm.header.Architecture.NOARCH;
@@ -234,4 +254,473 @@ public class BuilderTest extends TestBase {
     	} catch (ClassCastException e) { /* exception expected*/ }
 
     }
+
+    @Test
+    public void testSpooledPayloadDigest() throws Exception {
+        Builder builder = new Builder();
+        builder.setPackage( "spooltest", "1.0", "1" );
+        builder.setBuildHost( "localhost" );
+        builder.setLicense( "GPL" );
+        builder.setPlatform( NOARCH, LINUX );
+        builder.setType( BINARY );
+        builder.addFile( "/etc/prein.sh", new File( "src/test/resources/prein.sh" ) );
+        builder.addFile( "/etc/postin.sh", new File( "src/test/resources/postin.sh" ) );
+        builder.setSpoolDirectory( new File( getTargetDir() ) );
+        builder.build( new File( getTargetDir() ) );
+
+        File rpm = new File( getTargetDir(), "spooltest-1.0-1.noarch.rpm" );
+        Format format = new Scanner().run( channelWrapper( rpm.getPath() ) );
+        String[] digest = ( String[] ) format.getHeader().getEntry( HeaderTag.PAYLOADDIGEST ).getValues();
+        assertEquals( digest[ 0 ], payloadDigest( rpm, format.getHeader().getEndPos() ) );
+    }
+
+    @Test
+    public void testParallelCompression() throws Exception {
+        Builder builder = new Builder();
+        builder.setPackage( "paralleltest", "1.0", "1" );
+        builder.setBuildHost( "localhost" );
+        builder.setLicense( "GPL" );
+        builder.setPlatform( NOARCH, LINUX );
+        builder.setType( BINARY );
+        builder.addFile( "/etc/prein.sh", new File( "src/test/resources/prein.sh" ) );
+        builder.addFile( "/etc/rpm-1-1.0-1.noarch.rpm", new File( "src/test/resources/rpm-1-1.0-1.noarch.rpm" ) );
+        builder.setCompressionThreads( 3 );
+        builder.build( new File( getTargetDir() ) );
+
+        File rpm = new File( getTargetDir(), "paralleltest-1.0-1.noarch.rpm" );
+        Format format = new Scanner().run( channelWrapper( rpm.getPath() ) );
+        String[] digest = ( String[] ) format.getHeader().getEntry( HeaderTag.PAYLOADDIGEST ).getValues();
+        assertEquals( digest[ 0 ], payloadDigest( rpm, format.getHeader().getEndPos() ) );
+        Scanner.main( new String[] { rpm.getPath() } );
+    }
+
+    @Test
+    public void testXzCompression() throws Exception {
+        File rpm = buildCompressed( "xztest", PayloadCompressionType.xz, 3 );
+        Format format = new Scanner().run( channelWrapper( rpm.getPath() ) );
+        assertEquals( "xz", (( String[] ) format.getHeader().getEntry( HeaderTag.PAYLOADCOMPRESSOR ).getValues())[ 0 ] );
+        assertEquals( "3", (( String[] ) format.getHeader().getEntry( HeaderTag.PAYLOADFLAGS ).getValues())[ 0 ] );
+        assertTrue( Arrays.asList(( String[] ) format.getHeader().getEntry( HeaderTag.REQUIRENAME ).getValues()).contains( "rpmlib(PayloadIsXz)" ) );
+        Scanner.main( new String[] { rpm.getPath() } );
+    }
+
+    @Test
+    public void testZstdCompression() throws Exception {
+        File rpm = buildCompressed( "zstdtest", PayloadCompressionType.zstd, 19 );
+        Format format = new Scanner().run( channelWrapper( rpm.getPath() ) );
+        assertEquals( "zstd", (( String[] ) format.getHeader().getEntry( HeaderTag.PAYLOADCOMPRESSOR ).getValues())[ 0 ] );
+        assertEquals( "19", (( String[] ) format.getHeader().getEntry( HeaderTag.PAYLOADFLAGS ).getValues())[ 0 ] );
+        assertTrue( Arrays.asList(( String[] ) format.getHeader().getEntry( HeaderTag.REQUIRENAME ).getValues()).contains( "rpmlib(PayloadIsZstd)" ) );
+        Scanner.main( new String[] { rpm.getPath() } );
+    }
+
+    @Test
+    public void testUncompressedPayload() throws Exception {
+        File rpm = buildCompressed( "nonetest", PayloadCompressionType.none, 0 );
+        Format format = new Scanner().run( channelWrapper( rpm.getPath() ) );
+        assertEquals( "none", (( String[] ) format.getHeader().getEntry( HeaderTag.PAYLOADCOMPRESSOR ).getValues())[ 0 ] );
+        Scanner.main( new String[] { rpm.getPath() } );
+    }
+
+    @Test
+    public void testSourceChangedBeforeBuild() throws Exception {
+        for ( PayloadCompressionType type : new PayloadCompressionType[] { PayloadCompressionType.none, PayloadCompressionType.gzip } ) {
+            for ( boolean spool : new boolean[] { false, true } ) {
+                File source = new File( getTargetDir(), "changing.dat" );
+                RandomAccessFile file = new RandomAccessFile( source, "rw" );
+                file.setLength( 1000 );
+                Builder shrinking = changingBuilder( source, type, spool );
+                file.setLength( 500 );
+                try {
+                    shrinking.build( new File( getTargetDir() ) );
+                    fail( "Built from a source that shrank." );
+                } catch ( IOException e ) {
+                    assertTrue( e.getMessage(), e.getMessage().contains( "ended" ) );
+                }
+
+                file.setLength( 1000 );
+                Builder growing = changingBuilder( source, type, spool );
+                file.setLength( 3000 );
+                file.close();
+                growing.build( new File( getTargetDir() ) );
+                RpmFile rpm = new RpmFile( new File( getTargetDir(), "changing-1.0-1.noarch.rpm" ) );
+                InputStream in = rpm.openPayload();
+                try {
+                    ReadableChannelWrapper channel = new ReadableChannelWrapper( Channels.newChannel( in ) );
+                    CpioHeader header = new CpioHeader();
+                    long total = header.read( channel, 0 );
+                    assertEquals( 1000, header.getFileSize() );
+                    ChannelWrapper.Key< byte[] > packed = channel.start( "SHA-256" );
+                    total += readFully( channel, header.getFileSize() );
+                    String[] digests = ( String[] ) rpm.getHeader().getEntry( HeaderTag.FILEDIGESTS ).getValues();
+                    assertEquals( Util.hex( channel.finish( packed ) ), digests[ 0 ] );
+                    assertEquals( Util.hex( MessageDigest.getInstance( "SHA-256" ).digest( new byte[ 1000 ] ) ), digests[ 0 ] );
+                    CpioHeader trailer = new CpioHeader();
+                    trailer.read( channel, total );
+                    assertTrue( trailer.isLast() );
+                } finally {
+                    in.close();
+                    rpm.close();
+                }
+            }
+        }
+    }
+
+    private Builder changingBuilder( File source, PayloadCompressionType type, boolean spool ) throws Exception {
+        Builder builder = new Builder();
+        builder.setPackage( "changing", "1.0", "1" );
+        builder.setBuildHost( "localhost" );
+        builder.setLicense( "GPL" );
+        builder.setPlatform( NOARCH, LINUX );
+        builder.setType( BINARY );
+        builder.addFile( "/changing.dat", source );
+        builder.setPayloadCompression( type );
+        builder.setSpoolPayload( spool );
+        return builder;
+    }
+
+    private static long readFully( ReadableByteChannel channel, long length ) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate( ( int ) length );
+        while ( buffer.hasRemaining() ) assertTrue( channel.read( buffer ) > 0 );
+        return length;
+    }
+
+    @Test
+    public void testStreamedBuildMatchesFileBuild() throws Exception {
+        Builder builder = streamTestBuilder();
+        Builder streaming = streamTestBuilder();
+        builder.setSpoolPayload( true );
+        builder.build( new File( getTargetDir() ) );
+        File rpm = new File( getTargetDir(), "streamtest-1.0-1.noarch.rpm" );
+
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        streaming.build( streamed );
+
+        byte[] expected = new byte[ ( int ) rpm.length() ];
+        DataInputStream in = new DataInputStream( new FileInputStream( rpm ) );
+        try {
+            in.readFully( expected );
+        } finally {
+            in.close();
+        }
+        assertArrayEquals( expected, streamed.toByteArray() );
+    }
+
+    @Test
+    public void testUncompressedBuildsMatch() throws Exception {
+        Builder builder = streamTestBuilder();
+        Builder spooling = streamTestBuilder();
+        Builder streaming = streamTestBuilder();
+        builder.setPayloadCompression( PayloadCompressionType.none );
+        builder.build( new File( getTargetDir() ) );
+        File rpm = new File( getTargetDir(), "streamtest-1.0-1.noarch.rpm" );
+        byte[] expected = new byte[ ( int ) rpm.length() ];
+        DataInputStream in = new DataInputStream( new FileInputStream( rpm ) );
+        try {
+            in.readFully( expected );
+        } finally {
+            in.close();
+        }
+        Format format = new Scanner().run( channelWrapper( rpm.getPath() ) );
+        String[] digest = ( String[] ) format.getHeader().getEntry( HeaderTag.PAYLOADDIGEST ).getValues();
+        assertEquals( digest[ 0 ], payloadDigest( rpm, format.getHeader().getEndPos() ) );
+
+        spooling.setPayloadCompression( PayloadCompressionType.none );
+        spooling.setSpoolPayload( true );
+        spooling.build( new File( getTargetDir() ) );
+        DataInputStream spooled = new DataInputStream( new FileInputStream( rpm ) );
+        byte[] actual = new byte[ ( int ) rpm.length() ];
+        try {
+            spooled.readFully( actual );
+        } finally {
+            spooled.close();
+        }
+        assertArrayEquals( expected, actual );
+
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        streaming.setPayloadCompression( PayloadCompressionType.none );
+        streaming.build( streamed );
+        assertArrayEquals( expected, streamed.toByteArray() );
+    }
+
+    @Test
+    public void testParallelDigestsBuildsMatch() throws Exception {
+        Builder builder = streamTestBuilder();
+        Builder parallel = streamTestBuilder();
+        Builder streaming = streamTestBuilder();
+        Builder parallelStreaming = streamTestBuilder();
+        File rpm = new File( getTargetDir(), "streamtest-1.0-1.noarch.rpm" );
+        builder.build( new File( getTargetDir() ) );
+        byte[] expected = readFully( rpm );
+        parallel.setParallelDigests( true );
+        parallel.build( new File( getTargetDir() ) );
+        assertArrayEquals( expected, readFully( rpm ) );
+
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        streaming.build( streamed );
+        ByteArrayOutputStream parallelStreamed = new ByteArrayOutputStream();
+        parallelStreaming.setParallelDigests( true );
+        parallelStreaming.build( parallelStreamed );
+        assertArrayEquals( streamed.toByteArray(), parallelStreamed.toByteArray() );
+    }
+
+    @Test
+    public void testParallelConsumersRunOnGivenExecutor() throws Exception {
+        final int[] tasks = new int[ 1 ];
+        Executor executor = new Executor() {
+            public void execute( Runnable task ) {
+                tasks[ 0 ]++;
+                ChannelWrapper.getSharedExecutor().execute( task );
+            }
+        };
+        WritableChannelWrapper serial = new WritableChannelWrapper( Channels.newChannel( new ByteArrayOutputStream() ) );
+        WritableChannelWrapper parallel = new WritableChannelWrapper( Channels.newChannel( new ByteArrayOutputStream() ) );
+        parallel.setParallel( executor );
+        ChannelWrapper.Key< byte[]> serialSha = serial.start( "SHA-256" );
+        ChannelWrapper.Key< byte[]> parallelSha = parallel.start( "SHA-256" );
+        ChannelWrapper.Key< Long> size = parallel.startLong();
+        Util.empty( serial, ByteBuffer.wrap( new byte[ 1000 ] ) );
+        Util.empty( parallel, ByteBuffer.wrap( new byte[ 1000 ] ) );
+        assertArrayEquals( serial.finish( serialSha ), parallel.finish( parallelSha ) );
+        assertEquals( Long.valueOf( 1000 ), parallel.finish( size ) );
+        assertEquals( 1, tasks[ 0 ] );
+        parallel.close();
+    }
+
+    @Test
+    public void testParallelConsumersMatchLargeOutput() throws Exception {
+        WritableChannelWrapper serial = new WritableChannelWrapper( Channels.newChannel( new ByteArrayOutputStream() ) );
+        WritableChannelWrapper parallel = new WritableChannelWrapper( Channels.newChannel( new ByteArrayOutputStream() ) );
+        parallel.setParallel( true );
+        ChannelWrapper.Key< byte[]> serialMd5 = serial.start( "MD5" );
+        ChannelWrapper.Key< byte[]> parallelMd5 = parallel.start( "MD5" );
+        ChannelWrapper.Key< byte[]> serialSha = serial.start( "SHA-256" );
+        ChannelWrapper.Key< byte[]> parallelSha = parallel.start( "SHA-256" );
+        byte[] block = new byte[ 100000 ];
+        for ( int i = 0; i < 100; i++ ) {
+            Arrays.fill( block, ( byte ) i );
+            Util.empty( serial, ByteBuffer.wrap( block, 0, 1000 * i ) );
+            Util.empty( parallel, ByteBuffer.wrap( block, 0, 1000 * i ) );
+            if ( i == 50 ) assertArrayEquals( serial.finish( serialMd5 ), parallel.finish( parallelMd5 ) );
+        }
+        assertArrayEquals( serial.finish( serialSha ), parallel.finish( parallelSha ) );
+        parallel.close();
+    }
+
+    @Test
+    public void testMetricsReported() throws Exception {
+        final Metrics[] reported = new Metrics[ 1 ];
+        MetricsListener listener = new MetricsListener() {
+            public void completed( Metrics metrics ) {
+                reported[ 0 ] = metrics;
+            }
+        };
+        Builder builder = streamTestBuilder();
+        Builder streaming = streamTestBuilder();
+        builder.setMetricsListener( listener );
+        builder.build( new File( getTargetDir() ) );
+        Metrics metrics = reported[ 0 ];
+        assertEquals( new File( getTargetDir(), "streamtest-1.0-1.noarch.rpm" ).length(), metrics.getBytesWritten() );
+        assertTrue( metrics.getFiles() > 0 );
+        assertTrue( metrics.getBytesRead() > 0 );
+        assertTrue( metrics.getArchiveSize() > 0 );
+        assertTrue( metrics.getPayloadSize() > 0 );
+        long phases = 0;
+        for ( Metrics.Phase phase : Metrics.Phase.values() ) {
+            assertTrue( metrics.getWallTime( phase ) >= 0 );
+            phases += metrics.getWallTime( phase );
+        }
+        assertTrue( phases <= metrics.getTotalTime() );
+
+        reported[ 0 ] = null;
+        streaming.setMetricsListener( listener );
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        streaming.build( streamed );
+        assertEquals( streamed.size(), reported[ 0 ].getBytesWritten() );
+        assertEquals( metrics.getArchiveSize(), reported[ 0 ].getArchiveSize() );
+        assertEquals( metrics.getBytesRead(), reported[ 0 ].getBytesRead() );
+    }
+
+    @Test
+    public void testProgressReported() throws Exception {
+        final Map< Metrics.Phase, long[]> last = new HashMap< Metrics.Phase, long[]>();
+        Builder builder = streamTestBuilder();
+        builder.setDigestThreads( 2 );
+        builder.setProgressListener( new ProgressListener() {
+            public void progress( Metrics.Phase phase, int files, int totalFiles, long bytes, long totalBytes ) {
+                last.put( phase, new long[] { files, totalFiles, bytes, totalBytes } );
+            }
+        } );
+        builder.build( new File( getTargetDir() ) );
+        for ( Metrics.Phase phase : new Metrics.Phase[] { Metrics.Phase.DIGEST, Metrics.Phase.PAYLOAD } ) {
+            long[] values = last.get( phase );
+            assertTrue( values[ 1 ] > 0 );
+            assertEquals( values[ 1 ], values[ 0 ] );
+            assertTrue( values[ 3 ] > 0 );
+            assertEquals( values[ 3 ], values[ 2 ] );
+        }
+    }
+
+    @Test
+    public void testProgressOnlyIncreases() throws Exception {
+        final Map< Metrics.Phase, long[]> last = new HashMap< Metrics.Phase, long[]>();
+        final List< Metrics.Phase > phases = new ArrayList< Metrics.Phase >();
+        Builder builder = streamTestBuilder();
+        builder.setProgressListener( new ProgressListener() {
+            public void progress( Metrics.Phase phase, int files, int totalFiles, long bytes, long totalBytes ) {
+                long[] previous = last.get( phase );
+                if ( previous != null ) {
+                    assertTrue( phase + " files went back", files >= previous[ 0 ] );
+                    assertTrue( phase + " bytes went back", bytes >= previous[ 1 ] );
+                }
+                last.put( phase, new long[] { files, bytes } );
+                if ( phases.isEmpty() || phases.get( phases.size() - 1 ) != phase ) phases.add( phase );
+            }
+        } );
+        builder.build( new File( getTargetDir() ) );
+        assertEquals( Arrays.asList( Metrics.Phase.DIGEST, Metrics.Phase.PAYLOAD ), phases );
+    }
+
+    @Test
+    public void testCancelledBuildDeletesOutput() throws Exception {
+        for ( final Metrics.Phase cancelIn : new Metrics.Phase[] { Metrics.Phase.DIGEST, Metrics.Phase.PAYLOAD } ) {
+            final CancellationToken token = new CancellationToken();
+            Builder builder = streamTestBuilder();
+            builder.setDigestThreads( 2 );
+            builder.setCancellationToken( token );
+            builder.setProgressListener( new ProgressListener() {
+                public void progress( Metrics.Phase phase, int files, int totalFiles, long bytes, long totalBytes ) {
+                    if ( phase == cancelIn && bytes > 0 ) token.cancel();
+                }
+            } );
+            File rpm = new File( getTargetDir(), "streamtest-1.0-1.noarch.rpm" );
+            try {
+                builder.build( new File( getTargetDir() ) );
+                fail( "Build was not cancelled in " + cancelIn );
+            } catch ( BuildCancelledException e ) {
+                assertTrue( token.isCancelled() );
+            }
+            assertTrue( !rpm.exists() );
+        }
+    }
+
+    protected static byte[] readFully( File file ) throws Exception {
+        byte[] bytes = new byte[ ( int ) file.length() ];
+        DataInputStream in = new DataInputStream( new FileInputStream( file ) );
+        try {
+            in.readFully( bytes );
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testFingerprintSkipsUnchangedBuild() throws Exception {
+        File rpm = new File( getTargetDir(), "fingerprinttest-1.0-1.noarch.rpm" );
+        File fingerprint = new File( getTargetDir(), "fingerprinttest-1.0-1.noarch.rpm.fingerprint" );
+        fingerprint.delete();
+
+        fingerprintTestBuilder( 1400000000, "Original" ).build( new File( getTargetDir() ) );
+        assertTrue( fingerprint.isFile() );
+        assertEquals( 1400000000, buildTime( rpm ) );
+
+        fingerprintTestBuilder( 1400000001, "Original" ).build( new File( getTargetDir() ) );
+        assertEquals( 1400000000, buildTime( rpm ) );
+
+        fingerprintTestBuilder( 1400000002, "Changed" ).build( new File( getTargetDir() ) );
+        assertEquals( 1400000002, buildTime( rpm ) );
+    }
+
+    protected Builder fingerprintTestBuilder( int buildTime, String summary ) throws Exception {
+        Builder builder = new Builder();
+        builder.setPackage( "fingerprinttest", "1.0", "1" );
+        builder.setBuildHost( "localhost" );
+        builder.setLicense( "GPL" );
+        builder.setSummary( summary );
+        builder.setPlatform( NOARCH, LINUX );
+        builder.setType( BINARY );
+        builder.addHeaderEntry( HeaderTag.BUILDTIME, buildTime );
+        builder.addFile( "/etc/prein.sh", new File( "src/test/resources/prein.sh" ) );
+        builder.addLink( "/etc/link", "/etc/prein.sh" );
+        builder.setFingerprint( true );
+        return builder;
+    }
+
+    protected int buildTime( File rpm ) throws Exception {
+        Format format = new Scanner().run( channelWrapper( rpm.getPath() ) );
+        return (( int[] ) format.getHeader().getEntry( HeaderTag.BUILDTIME ).getValues())[ 0 ];
+    }
+
+    @Test
+    public void testCompactContentsBuildMatches() throws Exception {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        compactTestBuilder( new Contents() ).build( expected );
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        compactTestBuilder( new CompactContents() ).build( actual );
+        assertArrayEquals( expected.toByteArray(), actual.toByteArray() );
+    }
+
+    protected Builder compactTestBuilder( Contents contents ) throws Exception {
+        Builder builder = new Builder();
+        builder.setFiles( contents );
+        builder.setPackage( "compacttest", "1.0", "1" );
+        builder.setBuildHost( "localhost" );
+        builder.setLicense( "GPL" );
+        builder.setPlatform( NOARCH, LINUX );
+        builder.setType( BINARY );
+        builder.addHeaderEntry( HeaderTag.BUILDTIME, 1400000000 );
+        builder.addFile( "/usr/bin/postin.sh", new File( "src/test/resources/postin.sh" ), 0755 );
+        builder.addFile( "/etc/rpm-1-1.0-1.noarch.rpm", new File( "src/test/resources/rpm-1-1.0-1.noarch.rpm" ) );
+        builder.addFile( "/etc/prein.sh", new File( "src/test/resources/prein.sh" ), 0644, Directive.CONFIG );
+        builder.addFile( "/etc/preun.sh", new File( "src/test/resources/preun.sh" ), 0644, Directive.GHOST );
+        return builder;
+    }
+
+    protected Builder streamTestBuilder() throws Exception {
+        Builder builder = new Builder();
+        builder.setPackage( "streamtest", "1.0", "1" );
+        builder.setBuildHost( "localhost" );
+        builder.setLicense( "GPL" );
+        builder.setPlatform( NOARCH, LINUX );
+        builder.setType( BINARY );
+        builder.addHeaderEntry( HeaderTag.BUILDTIME, 1400000000 );
+        builder.addFile( "/etc/prein.sh", new File( "src/test/resources/prein.sh" ) );
+        builder.addFile( "/etc/rpm-1-1.0-1.noarch.rpm", new File( "src/test/resources/rpm-1-1.0-1.noarch.rpm" ) );
+        builder.addLink( "/etc/link", "/etc/prein.sh" );
+        return builder;
+    }
+
+    protected File buildCompressed( String name, PayloadCompressionType type, int level ) throws Exception {
+        Builder builder = new Builder();
+        builder.setPackage( name, "1.0", "1" );
+        builder.setBuildHost( "localhost" );
+        builder.setLicense( "GPL" );
+        builder.setPlatform( NOARCH, LINUX );
+        builder.setType( BINARY );
+        builder.addFile( "/etc/prein.sh", new File( "src/test/resources/prein.sh" ) );
+        builder.addFile( "/etc/rpm-1-1.0-1.noarch.rpm", new File( "src/test/resources/rpm-1-1.0-1.noarch.rpm" ) );
+        builder.setPayloadCompression( type, level );
+        builder.build( new File( getTargetDir() ) );
+
+        File rpm = new File( getTargetDir(), name + "-1.0-1.noarch.rpm" );
+        Format format = new Scanner().run( channelWrapper( rpm.getPath() ) );
+        String[] digest = ( String[] ) format.getHeader().getEntry( HeaderTag.PAYLOADDIGEST ).getValues();
+        assertEquals( digest[ 0 ], payloadDigest( rpm, format.getHeader().getEndPos() ) );
+        return rpm;
+    }
+
+    protected static String payloadDigest( File rpm, int offset ) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+        InputStream in = new FileInputStream( rpm );
+        try {
+            if ( in.skip( offset ) != offset ) fail( "Could not skip to payload." );
+            byte[] buffer = new byte[ 4096 ];
+            int read;
+            while (( read = in.read( buffer )) != -1 ) digest.update( buffer, 0, read );
+        } finally {
+            in.close();
+        }
+        return Util.hex( digest.digest() );
+    }
 }
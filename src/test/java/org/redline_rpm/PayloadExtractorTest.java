@@ -0,0 +1,206 @@
+package org.redline_rpm;
+
+import org.junit.Test;
+import org.redline_rpm.header.Header.HeaderTag;
+import org.redline_rpm.payload.CpioHeader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.redline_rpm.header.Architecture.NOARCH;
+import static org.redline_rpm.header.Os.LINUX;
+import static org.redline_rpm.header.RpmType.BINARY;
+
+public class PayloadExtractorTest extends TestBase {
+
+    @Test
+    public void extractsBuiltPackage() throws Exception {
+        File script = new File( "src/test/resources/prein.sh" );
+        File large = new File( "src/test/resources/rpm-1-1.0-1.noarch.rpm" );
+        Builder builder = new Builder();
+        builder.setPackage( "extracttest", "1.0", "1" );
+        builder.setBuildHost( "localhost" );
+        builder.setLicense( "GPL" );
+        builder.setPlatform( NOARCH, LINUX );
+        builder.setType( BINARY );
+        builder.addDirectory( "/opt/extract", 0750, null, null, null );
+        builder.addFile( "/opt/extract/bin/prein.sh", script, 0755 );
+        builder.addFile( "/opt/extract/lib/rpm.rpm", large, 0640 );
+        builder.addLink( "/opt/extract/link", "bin/prein.sh" );
+        builder.build( new File( getTargetDir() ) );
+
+        File root = clean( new File( getTargetDir(), "extract-built" ) );
+        RpmFile rpm = new RpmFile( new File( getTargetDir(), "extracttest-1.0-1.noarch.rpm" ) );
+        PayloadExtractor extractor = new PayloadExtractor( root );
+        extractor.setThreads( 2 );
+        try {
+            assertTrue( extractor.extract( rpm ) >= 4 );
+        } finally {
+            rpm.close();
+        }
+
+        File extracted = new File( root, "opt/extract/bin/prein.sh" );
+        assertArrayEquals( Files.readAllBytes( script.toPath() ), Files.readAllBytes( extracted.toPath() ) );
+        assertArrayEquals( Files.readAllBytes( large.toPath() ), Files.readAllBytes( new File( root, "opt/extract/lib/rpm.rpm" ).toPath() ) );
+        assertEquals( script.lastModified() / 1000, extracted.lastModified() / 1000 );
+        assertTrue( extracted.canExecute() );
+        assertFalse( new File( root, "opt/extract/lib/rpm.rpm" ).canExecute() );
+        assertEquals( "bin/prein.sh", Files.readSymbolicLink( new File( root, "opt/extract/link" ).toPath() ).toString() );
+        assertTrue( new File( root, "opt/extract" ).isDirectory() );
+    }
+
+    @Test
+    public void extractsStrippedPayload() throws Exception {
+        File script = new File( "src/test/resources/prein.sh" );
+        File large = new File( "src/test/resources/rpm-1-1.0-1.noarch.rpm" );
+        Builder builder = new Builder() {
+            @Override
+            boolean hasLargeFiles( long[] sizes ) {
+                return true;
+            }
+        };
+        builder.setPackage( "strippedtest", "1.0", "1" );
+        builder.setBuildHost( "localhost" );
+        builder.setLicense( "GPL" );
+        builder.setPlatform( NOARCH, LINUX );
+        builder.setType( BINARY );
+        builder.addDirectory( "/opt/stripped", 0750, null, null, null );
+        builder.addFile( "/opt/stripped/bin/prein.sh", script, 0755 );
+        builder.addFile( "/opt/stripped/lib/rpm.rpm", large, 0640 );
+        builder.addLink( "/opt/stripped/link", "bin/prein.sh" );
+        builder.build( new File( getTargetDir() ) );
+
+        File root = clean( new File( getTargetDir(), "extract-stripped" ) );
+        RpmFile rpm = new RpmFile( new File( getTargetDir(), "strippedtest-1.0-1.noarch.rpm" ) );
+        try {
+            assertTrue( rpm.getHeader().getEntry( HeaderTag.LONGFILESIZES ) != null );
+            assertTrue( new PayloadExtractor( root ).extract( rpm ) >= 4 );
+        } finally {
+            rpm.close();
+        }
+
+        File extracted = new File( root, "opt/stripped/bin/prein.sh" );
+        File library = new File( root, "opt/stripped/lib/rpm.rpm" );
+        assertArrayEquals( Files.readAllBytes( script.toPath() ), Files.readAllBytes( extracted.toPath() ) );
+        assertArrayEquals( Files.readAllBytes( large.toPath() ), Files.readAllBytes( library.toPath() ) );
+        assertEquals( script.lastModified() / 1000, extracted.lastModified() / 1000 );
+        assertEquals( large.lastModified() / 1000, library.lastModified() / 1000 );
+        assertTrue( extracted.canExecute() );
+        assertEquals( "bin/prein.sh", Files.readSymbolicLink( new File( root, "opt/stripped/link" ).toPath() ).toString() );
+    }
+
+    @Test
+    public void extractsBundledPackages() throws Exception {
+        for ( String name : new String[] { "rpm-1-1.0-1.noarch.rpm", "rpmtest-3-0.1.XZ.fc19.noarch.rpm" } ) {
+            File root = clean( new File( getTargetDir(), "extract-" + name ) );
+            RpmFile rpm = new RpmFile( new File( getTestResourcesDirectory(), name ) );
+            try {
+                assertTrue( new PayloadExtractor( root ).extract( rpm ) > 0 );
+            } finally {
+                rpm.close();
+            }
+            assertTrue( root.list().length > 0 );
+        }
+    }
+
+    @Test
+    public void refusesEntriesOutsideDirectory() throws Exception {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel( archive );
+        CpioHeader header = new CpioHeader( "../escaped" );
+        header.setType( CpioHeader.FILE );
+        long total = header.write( channel, 0 );
+        header.skip( channel, total );
+        CpioHeader trailer = new CpioHeader();
+        trailer.setLast();
+        trailer.skip( channel, trailer.write( channel, total ) );
+
+        File root = clean( new File( getTargetDir(), "extract-escape" ) );
+        try {
+            new PayloadExtractor( root ).extract( null, new ByteArrayInputStream( archive.toByteArray() ) );
+            fail( "Extracted an entry outside of the directory." );
+        } catch ( IOException e ) {
+            assertTrue( e.getMessage().startsWith( "Refusing" ) );
+        }
+        assertFalse( new File( root.getParentFile(), "escaped" ).exists() );
+    }
+
+    @Test
+    public void refusesSymbolicLinkOverDirectory() throws Exception {
+        File outside = clean( new File( getTargetDir(), "extract-outside" ) );
+        assertTrue( outside.mkdirs() );
+        Files.setPosixFilePermissions( outside.toPath(), PosixFilePermissions.fromString( "rwxr-x---" ) );
+        long modified = outside.lastModified();
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel( archive );
+        long total = entry( channel, 0, "d", CpioHeader.DIR, null );
+        total = entry( channel, total, "d", CpioHeader.SYMLINK, outside.getAbsolutePath() );
+        entry( channel, total, null, 0, null );
+
+        File root = clean( new File( getTargetDir(), "extract-relink" ) );
+        try {
+            new PayloadExtractor( root ).extract( null, new ByteArrayInputStream( archive.toByteArray() ) );
+            fail( "Replaced a directory with a symbolic link." );
+        } catch ( IOException e ) {
+            assertTrue( e.getMessage().startsWith( "Refusing" ) );
+        }
+        assertEquals( "rwxr-x---", PosixFilePermissions.toString( Files.getPosixFilePermissions( outside.toPath() ) ) );
+        assertEquals( modified, outside.lastModified() );
+        assertFalse( Files.isSymbolicLink( new File( root, "d" ).toPath() ) );
+
+        archive.reset();
+        total = entry( channel, 0, "l", CpioHeader.SYMLINK, new File( outside, "missing" ).getAbsolutePath() );
+        total = entry( channel, total, "l/x/f", CpioHeader.FILE, null );
+        entry( channel, total, null, 0, null );
+        root = clean( new File( getTargetDir(), "extract-dangling" ) );
+        try {
+            new PayloadExtractor( root ).extract( null, new ByteArrayInputStream( archive.toByteArray() ) );
+            fail( "Extracted through a dangling symbolic link." );
+        } catch ( IOException e ) {
+            assertTrue( e.getMessage().startsWith( "Refusing" ) );
+        }
+        assertFalse( new File( outside, "missing" ).exists() );
+    }
+
+    /**
+     * Writes a cpio entry with permissions of 0777, or the trailer if the name is null.
+     */
+    private static long entry( WritableByteChannel channel, long total, String name, int type, String target ) throws IOException {
+        CpioHeader header = new CpioHeader();
+        if ( name == null ) header.setLast();
+        else header.setName( name );
+        header.setType( type );
+        header.setPermissions( 0777 );
+        byte[] data = target == null ? new byte[ 0 ] : target.getBytes( "UTF-8" );
+        header.setFileSize( data.length );
+        total = header.write( channel, total );
+        channel.write( ByteBuffer.wrap( data ) );
+        total += data.length;
+        return total + header.skip( channel, total );
+    }
+
+    private static File clean( File directory ) throws IOException {
+        if ( directory.exists() ) delete( directory );
+        return directory;
+    }
+
+    private static void delete( File file ) throws IOException {
+        if ( file.isDirectory() && !Files.isSymbolicLink( file.toPath() ) ) {
+            for ( File child : file.listFiles() ) delete( child );
+        }
+        Files.delete( file.toPath() );
+    }
+}
@@ -0,0 +1,71 @@
+package org.redline_rpm;
+
+import org.junit.Test;
+import org.redline_rpm.header.Format;
+import org.redline_rpm.header.Header.HeaderTag;
+import org.redline_rpm.payload.CpioHeader;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.redline_rpm.ScannerTest.channelWrapper;
+
+public class RpmFileTest extends TestBase {
+
+    @Test
+    public void readsHeaderAndPayloadPosition() throws Exception {
+        File file = new File( getTestResourcesDirectory(), "rpm-1-1.0-1.noarch.rpm" );
+        RpmFile rpm = new RpmFile( file );
+        try {
+            assertEquals( 280, rpm.getHeader().getStartPos() );
+            assertEquals( 4760, rpm.getHeader().getEndPos() );
+            assertEquals( 4760, rpm.getPayloadOffset() );
+            assertEquals( file.length() - 4760, rpm.getPayloadLength() );
+            assertEquals( "rpm-1-1.0-1", rpm.getLead().getName().toString() );
+            assertArrayEquals( new String[] { "rpm-1" }, ( String[] ) rpm.getHeader().getEntry( HeaderTag.NAME ).getValues() );
+
+            ByteBuffer payload = rpm.getRawPayload();
+            assertEquals( rpm.getPayloadLength(), payload.remaining() );
+            assertEquals( 0x1f, payload.get( 0 ) & 0xff );
+            assertEquals( 0x8b, payload.get( 1 ) & 0xff );
+        } finally {
+            rpm.close();
+        }
+    }
+
+    @Test
+    public void matchesScanner() throws Exception {
+        for ( String name : new String[] { "rpm-1-1.0-1.noarch.rpm", "rpm-3-1.0-1.somearch.rpm", "rpmtest-3-0.1.XZ.fc19.noarch.rpm" } ) {
+            String path = getTestResourcesDirectory() + File.separator + name;
+            Format scanned = new Scanner().run( channelWrapper( path ) );
+            RpmFile rpm = new RpmFile( new File( path ) );
+            rpm.close();
+            assertEquals( scanned.getHeader().getEndPos(), rpm.getPayloadOffset() );
+            assertEquals( describe( scanned ), describe( rpm.getFormat() ) );
+        }
+    }
+
+    private static String describe( Format format ) {
+        return format.toString().replaceAll( "@[0-9a-f]+", "" );
+    }
+
+    @Test
+    public void opensPayload() throws Exception {
+        RpmFile rpm = new RpmFile( new File( getTestResourcesDirectory(), "rpmtest-3-0.1.XZ.fc19.noarch.rpm" ) );
+        InputStream in = rpm.openPayload();
+        try {
+            ReadableChannelWrapper channel = new ReadableChannelWrapper( Channels.newChannel( in ) );
+            CpioHeader header = new CpioHeader();
+            header.read( channel, 0 );
+            assertTrue( header.getName().length() > 0 );
+        } finally {
+            in.close();
+            rpm.close();
+        }
+    }
+}
@@ -11,6 +11,7 @@ import java.util.regex.Pattern;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
 
 public class ScannerTest extends TestBase {
 
@@ -36,6 +37,20 @@ public class ScannerTest extends TestBase {
         assertEquals(4760, format.getHeader().getEndPos());
     }
 
+    @Test
+    public void reportsMetrics() throws Exception {
+        final Metrics[] reported = new Metrics[1];
+        Scanner scanner = new Scanner();
+        scanner.setMetricsListener(new MetricsListener() {
+            public void completed(Metrics metrics) {
+                reported[0] = metrics;
+            }
+        });
+        scanner.run(channelWrapper(getTestResourcesDirectory ( ) + File.separator + "rpm-1-1.0-1.noarch.rpm"));
+        assertEquals(4760, reported[0].getBytesRead());
+        assertTrue(reported[0].getTotalTime() >= reported[0].getWallTime(Metrics.Phase.HEADER));
+    }
+
     @Test
     public void fileModesHeaderIsCorrect() throws Exception {
         Format format = new Scanner().run(channelWrapper(getTestResourcesDirectory ( ) + File.separator + "rpm-1-1.0-1.noarch.rpm"));
@@ -1,9 +1,14 @@
 package org.redline_rpm;
 
+import org.bouncycastle.openpgp.PGPPrivateKey;
 import org.junit.Test;
 
 import java.io.File;
 
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class SignatureGeneratorTest extends TestBase {
@@ -19,4 +24,46 @@ public class SignatureGeneratorTest extends TestBase {
         SignatureGenerator generator = new SignatureGenerator( new File( getFileResource( "/pgp/secring.gpg" )), "5A186608", "redline" );
         assertTrue( generator.isEnabled() );
     }
+
+    @Test
+    public void testCachedKeyIsShared() throws Exception {
+        File ring = new File( getFileResource( "/pgp/secring.gpg" ) );
+        PrivateKeyCache.clear();
+        try {
+            PGPPrivateKey key = PrivateKeyCache.get( ring, "5A186608", "redline" );
+            assertNotNull( key );
+            assertSame( key, PrivateKeyCache.get( ring, "5a186608", "redline" ) );
+            assertTrue( new SignatureGenerator( key ).isEnabled() );
+        } finally {
+            PrivateKeyCache.clear();
+        }
+    }
+
+    @Test
+    public void testCachedKeyChecksPassphrase() throws Exception {
+        File ring = new File( getFileResource( "/pgp/secring.gpg" ) );
+        PrivateKeyCache.clear();
+        try {
+            PGPPrivateKey key = PrivateKeyCache.get( ring, null, "redline" );
+            assertNotNull( key );
+            assertNull( PrivateKeyCache.get( ring, null, "wrong" ) );
+            assertNotNull( PrivateKeyCache.get( ring, null, "redline" ) );
+        } finally {
+            PrivateKeyCache.clear();
+        }
+    }
+
+    @Test
+    public void testCachedKeyExpires() throws Exception {
+        File ring = new File( getFileResource( "/pgp/secring.gpg" ) );
+        PrivateKeyCache.clear();
+        PrivateKeyCache.setExpiry( 0 );
+        try {
+            PGPPrivateKey key = PrivateKeyCache.get( ring, null, "redline" );
+            assertNotSame( key, PrivateKeyCache.get( ring, null, "redline" ) );
+        } finally {
+            PrivateKeyCache.setExpiry( PrivateKeyCache.DEFAULT_EXPIRY );
+            PrivateKeyCache.clear();
+        }
+    }
 }
@@ -1,6 +1,8 @@
 package org.redline_rpm.header;
 
+import java.io.*;
 import java.nio.*;
+import java.nio.channels.*;
 import java.nio.charset.*;
 import junit.framework.*;
 
@@ -363,6 +365,133 @@ public class AbstractHeaderTest extends TestCase {
 		assertTrue( buffer.equals( data));
 	}
 
+	@SuppressWarnings( "unchecked")
+	public void testStringUtf8() throws Exception {
+		String[] values = { "caf\u00e9", "\u20ac", "\ud83d\ude00", "a\ud800b", "\udc00"};
+		TestHeader header = new TestHeader();
+		Entry< String[]> entry = ( Entry< String[]>) header.createEntry( Tag.STRING_ARRAY_ENTRY);
+		entry.setCount( values.length);
+		entry.setValues( values);
+
+		ByteBuffer expected = ByteBuffer.allocate( 64);
+		for ( String value : values) expected.put( Charset.forName( "UTF-8").encode( value)).put(( byte) 0);
+		expected.flip();
+		assertEquals( expected.remaining(), entry.size());
+
+		ByteBuffer data = ByteBuffer.allocate( entry.size());
+		entry.write( data);
+		data.flip();
+		assertTrue( expected.equals( data));
+	}
+
+	public void testWriteAlignsEntries() throws Exception {
+		TestHeader header = new TestHeader();
+		header.createEntry( 100, Tag.STRING_ENTRY, new String[] { "C"});
+		header.createEntry( 1000, Tag.STRING_ENTRY, new String[] { "name"});
+		header.createEntry( 1001, Tag.INT16_ENTRY, new short[] { 1, 2, 3});
+		header.createEntry( 1002, Tag.INT64_ENTRY, new long[] { 4});
+		header.createEntry( 1003, Tag.INT32_ENTRY, new int[] { 5});
+		header.createEntry( 1004, Tag.STRING_ARRAY_ENTRY, new String[] { "a", "\u00e9"});
+		header.addEntry( new TestTag( 1005, Tag.BIN_ENTRY), 3);
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		header.write( Channels.newChannel( out));
+		final ByteBuffer buffer = ByteBuffer.wrap( out.toByteArray());
+		buffer.position( 8);
+		assertEquals( 7, buffer.getInt());
+		assertEquals( 38, buffer.getInt());
+
+		final int[][] expected = {
+			{ 100, Tag.STRING_ENTRY, 36, 1},
+			{ 1000, Tag.STRING_ENTRY, 0, 1},
+			{ 1001, Tag.INT16_ENTRY, 6, 3},
+			{ 1002, Tag.INT64_ENTRY, 16, 1},
+			{ 1003, Tag.INT32_ENTRY, 24, 1},
+			{ 1004, Tag.STRING_ARRAY_ENTRY, 28, 2},
+			{ 1005, Tag.BIN_ENTRY, 33, 3}};
+		for ( int[] entry : expected) {
+			for ( int value : entry) assertEquals( value, buffer.getInt());
+		}
+		assertEquals( 1, header.getPending().size());
+		assertEquals( Integer.valueOf( 33), header.getPending().values().iterator().next());
+
+		TestHeader read = new TestHeader();
+		assertEquals( 7, read.read( Channels.newChannel( new ByteArrayInputStream( out.toByteArray()))));
+		assertEquals( "name", (( String[]) read.getEntry( 1000).getValues())[ 0]);
+		assertEquals( 3, (( short[]) read.getEntry( 1001).getValues())[ 2]);
+		assertEquals( 4, (( long[]) read.getEntry( 1002).getValues())[ 0]);
+		assertEquals( 5, (( int[]) read.getEntry( 1003).getValues())[ 0]);
+		assertEquals( "\u00e9", (( String[]) read.getEntry( 1004).getValues())[ 1]);
+		assertEquals( "C", (( String[]) read.getEntry( 100).getValues())[ 0]);
+	}
+
+	public void testLazyReadMatchesEagerRead() throws Exception {
+		Format eager = new Format();
+		FileInputStream in = new FileInputStream( "src/test/resources/rpm-1-1.0-1.noarch.rpm");
+		try {
+			eager.read( in.getChannel());
+		} finally {
+			in.close();
+		}
+
+		Format lazy = new Format();
+		lazy.getSignature().setLazy( true);
+		lazy.getHeader().setLazy( true);
+		in = new FileInputStream( "src/test/resources/rpm-1-1.0-1.noarch.rpm");
+		try {
+			lazy.read( in.getChannel());
+		} finally {
+			in.close();
+		}
+		assertTrue( lazy.getHeader().entries.isEmpty());
+		assertEquals( "rpm-1", (( String[]) lazy.getHeader().getEntry( Header.HeaderTag.NAME).getValues())[ 0]);
+		assertEquals( 1, lazy.getHeader().entries.size());
+		assertNull( lazy.getHeader().getEntry( Header.HeaderTag.LONGSIZE));
+		assertEquals( eager.getHeader().count(), lazy.getHeader().count());
+		assertEquals( eager.toString(), lazy.toString());
+	}
+
+	public void testProjectionReadsOnlyRequestedTags() throws Exception {
+		FileInputStream in = new FileInputStream( "src/test/resources/rpm-1-1.0-1.noarch.rpm");
+		Format format = new Format();
+		format.getHeader().setProjection( Header.HeaderTag.NAME, Header.HeaderTag.VERSION);
+		try {
+			format.read( in.getChannel());
+		} finally {
+			in.close();
+		}
+		assertEquals( 2, format.getHeader().count());
+		assertEquals( "1.0", (( String[]) format.getHeader().getEntry( Header.HeaderTag.VERSION).getValues())[ 0]);
+		assertNull( format.getHeader().getEntry( Header.HeaderTag.BASENAMES));
+	}
+
+	public void testReadFromBuffer() throws Exception {
+		TestHeader header = new TestHeader();
+		header.createEntry( 1000, Tag.STRING_ENTRY, new String[] { "name"});
+		header.createEntry( 1001, Tag.INT32_ENTRY, new int[] { 5, 6});
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		header.write( Channels.newChannel( out));
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect( out.size() + 4);
+		buffer.put( out.toByteArray()).putInt( 42).flip();
+		TestHeader read = new TestHeader();
+		read.setLazy( true);
+		assertEquals( 2, read.read( buffer));
+		assertEquals( 42, buffer.getInt());
+		assertEquals( 6, (( int[]) read.getEntry( 1001).getValues())[ 1]);
+		assertEquals( "name", (( String[]) read.getEntry( 1000).getValues())[ 0]);
+		assertNull( read.store);
+	}
+
+	public class TestTag implements Tag {
+		private final int code;
+		private final int type;
+		public TestTag( int code, int type) { this.code = code; this.type = type; }
+		public int getCode() { return code; }
+		public int getType() { return type; }
+		public String getName() { return "test"; }
+	}
+
 	public class TestHeader extends AbstractHeader {
 		protected boolean pad() { return false; }
 	}
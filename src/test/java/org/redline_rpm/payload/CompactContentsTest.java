@@ -0,0 +1,102 @@
+package org.redline_rpm.payload;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class CompactContentsTest extends TestCase {
+
+	public void testMatchesContents() throws Exception {
+		Contents contents = new Contents();
+		CompactContents compact = new CompactContents();
+		populate( contents);
+		populate( compact);
+
+		assertEquals( contents.size(), compact.size());
+		assertEquals( names( contents), names( compact));
+
+		FileTable expected = contents.getFileTable();
+		FileTable actual = compact.getFileTable();
+		assertTrue( Arrays.equals( expected.getDirNames(), actual.getDirNames()));
+		assertTrue( Arrays.equals( expected.getDirIndexes(), actual.getDirIndexes()));
+		assertTrue( Arrays.equals( expected.getBaseNames(), actual.getBaseNames()));
+		assertTrue( Arrays.equals( expected.getLongSizes(), actual.getLongSizes()));
+		assertEquals( expected.getTotalSize(), actual.getTotalSize());
+		assertEquals( contents.getLongTotalSize(), compact.getLongTotalSize());
+		assertTrue( Arrays.equals( expected.getModes(), actual.getModes()));
+		assertTrue( Arrays.equals( expected.getRdevs(), actual.getRdevs()));
+		assertTrue( Arrays.equals( expected.getLinkTos(), actual.getLinkTos()));
+		assertTrue( Arrays.equals( expected.getFlags(), actual.getFlags()));
+		assertTrue( Arrays.equals( expected.getUsers(), actual.getUsers()));
+		assertTrue( Arrays.equals( expected.getGroups(), actual.getGroups()));
+		assertTrue( Arrays.equals( expected.getVerifyFlags(), actual.getVerifyFlags()));
+		assertTrue( Arrays.equals( expected.getDevices(), actual.getDevices()));
+		assertTrue( Arrays.equals( expected.getInodes(), actual.getInodes()));
+		assertTrue( Arrays.equals( expected.getLangs(), actual.getLangs()));
+		assertTrue( Arrays.equals( expected.getContexts(), actual.getContexts()));
+		for ( int x = 0; x < expected.getModes().length; x++) {
+			if (( expected.getModes()[ x] >>> 12) == CpioHeader.FILE) assertEquals( expected.getMtimes()[ x], actual.getMtimes()[ x]);
+		}
+		assertTrue( Arrays.equals( contents.getFileChecksums(), compact.getFileChecksums()));
+		assertTrue( Arrays.equals( contents.getFileChecksums( 2), compact.getFileChecksums( 2)));
+	}
+
+	public void testHeadersMatchContents() throws Exception {
+		Contents contents = new Contents();
+		CompactContents compact = new CompactContents();
+		populate( contents);
+		populate( compact);
+
+		List< CpioHeader> expected = new ArrayList< CpioHeader>();
+		for ( CpioHeader header : contents.headers()) expected.add( header);
+		int x = 0;
+		for ( CpioHeader header : compact.headers()) {
+			CpioHeader other = expected.get( x++);
+			assertEquals( other.getName(), header.getName());
+			assertEquals( other.getMode(), header.getMode());
+			assertEquals( other.getFileSize(), header.getFileSize());
+			assertEquals( other.getInode(), header.getInode());
+			assertEquals( other.getFlags(), header.getFlags());
+			assertEquals( other.getUname(), header.getUname());
+			assertEquals( other.getGname(), header.getGname());
+
+			Object source = contents.getSource( other);
+			Object value = compact.getSource( header);
+			if ( source instanceof ContentSource) {
+				assertEquals((( ContentSource) source).getLength(), (( ContentSource) value).getLength());
+				assertEquals((( ContentSource) source).getFile(), (( ContentSource) value).getFile());
+			} else {
+				assertEquals( source, value);
+			}
+		}
+		assertEquals( expected.size(), x);
+	}
+
+	public void testCanonicalPaths() {
+		assertEquals( "/opt/app", CompactContents.canonical( "/opt//app/"));
+		assertEquals( "/opt/app/lib", CompactContents.canonical( "\\opt\\app\\lib"));
+		assertEquals( "/", CompactContents.canonical( "/"));
+	}
+
+	private static void populate( Contents contents) throws Exception {
+		contents.addFile( "/opt/app/postin.sh", new File( "src/test/resources/postin.sh"), 0755, null, "app", "app", -1);
+		contents.addFile( "/etc/prein.sh", new File( "src/test/resources/prein.sh"));
+		contents.addLink( "/usr/bin/app", "/opt/app/postin.sh");
+		contents.addFile( "/opt/app/lib/rpm-1.rpm", new File( "src/test/resources/rpm-1-1.0-1.noarch.rpm"));
+		contents.addFile( "/opt/app/lib/rpm-1.rpm", new File( "src/test/resources/prein.sh"));
+		contents.addDirectory( "/opt/app/data");
+		contents.addFile( "/opt/app/data/ghost", new File( "src/test/resources/preun.sh"), -1, Directive.GHOST, null, null, -1);
+		contents.addFile( "/opt/app-1/config", new File( "src/test/resources/postun.sh"), -1, Directive.CONFIG, "app", null, -1, true, 0);
+		contents.addSource( "/opt/app/data/bytes", ContentSources.bytes( new byte[] { 1, 2, 3}, 1400000000000L), -1, null, null, null, -1);
+		contents.addLink( "/opt/app/link", "/opt/app/postin.sh");
+	}
+
+	private static List< String> names( Contents contents) {
+		List< String> names = new ArrayList< String>();
+		for ( CpioHeader header : contents.headers()) names.add( header.getName());
+		return names;
+	}
+}
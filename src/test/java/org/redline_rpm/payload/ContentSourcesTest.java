@@ -0,0 +1,121 @@
+package org.redline_rpm.payload;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class ContentSourcesTest extends TestCase {
+
+	public void testUrlFetchedOnce() throws Exception {
+		final int[] opened = new int[ 1];
+		final byte[] data = sample( 1000);
+		URL url = new URL( null, "counting:/data", new URLStreamHandler() {
+			protected URLConnection openConnection( final URL u) {
+				return new URLConnection( u) {
+					public void connect() {}
+					public InputStream getInputStream() {
+						opened[ 0]++;
+						return new ByteArrayInputStream( data);
+					}
+				};
+			}
+		});
+
+		Contents contents = new Contents();
+		contents.addURL( "/opt/data", url, -1, null, null, null, -1);
+		assertEquals( 1000, contents.getLongTotalSize());
+		assertEquals( 1000, contents.getSizes()[ 0]);
+		contents.getFileChecksums();
+		assertTrue( Arrays.equals( data, read( source( contents))));
+		assertEquals( 1, opened[ 0]);
+
+		contents.release();
+		read( source( contents));
+		assertEquals( 2, opened[ 0]);
+	}
+
+	public void testLargeStreamSpooledToFile() throws Exception {
+		final byte[] data = sample( ContentSources.MEMORY_LIMIT * 3);
+		ContentSource source = ContentSources.stream( new ContentSource.Opener() {
+			public InputStream open() {
+				return new ByteArrayInputStream( data);
+			}
+		}, -1, 0);
+		assertEquals( data.length, source.getLength());
+		assertTrue( Arrays.equals( data, read( source)));
+		assertTrue( Arrays.equals( data, read( source)));
+		source.release();
+	}
+
+	public void testMemoryBudgetSharedBySources() throws Exception {
+		final long used = ContentSources.getMemoryUsed();
+		final long budget = ContentSources.getMemoryBudget();
+		ContentSources.setMemoryBudget( used + 2 * ContentSources.MEMORY_LIMIT);
+		final byte[] data = sample( ContentSources.MEMORY_LIMIT);
+		final ContentSource[] sources = new ContentSource[ 4];
+		try {
+			for ( int i = 0; i < sources.length; i++) {
+				sources[ i] = ContentSources.stream( new ContentSource.Opener() {
+					public InputStream open() {
+						return new ByteArrayInputStream( data);
+					}
+				}, data.length, 0);
+				assertTrue( Arrays.equals( data, read( sources[ i])));
+				assertTrue( ContentSources.getMemoryUsed() <= used + 2 * ContentSources.MEMORY_LIMIT);
+			}
+			assertEquals( used + 2 * ContentSources.MEMORY_LIMIT, ContentSources.getMemoryUsed());
+			for ( ContentSource source : sources) assertTrue( Arrays.equals( data, read( source)));
+		} finally {
+			for ( ContentSource source : sources) if ( source != null) source.release();
+			ContentSources.setMemoryBudget( budget);
+		}
+		assertEquals( used, ContentSources.getMemoryUsed());
+	}
+
+	public void testDeclaredLengthChecked() throws Exception {
+		ContentSource source = ContentSources.stream( new ContentSource.Opener() {
+			public InputStream open() {
+				return new ByteArrayInputStream( new byte[ 10]);
+			}
+		}, 12, 0);
+		assertEquals( 12, source.getLength());
+		try {
+			source.open();
+			fail();
+		} catch ( IOException e) {
+		}
+	}
+
+	private static ContentSource source( Contents contents) {
+		for ( CpioHeader header : contents.headers()) {
+			Object source = contents.getSource( header);
+			if ( source instanceof ContentSource) return ( ContentSource) source;
+		}
+		return null;
+	}
+
+	private static byte[] read( ContentSource source) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(( int) source.getLength() + 1);
+		ReadableByteChannel in = source.open();
+		try {
+			while ( in.read( buffer) > 0);
+		} finally {
+			in.close();
+		}
+		return Arrays.copyOf( buffer.array(), buffer.position());
+	}
+
+	private static byte[] sample( int length) {
+		byte[] data = new byte[ length];
+		for ( int i = 0; i < length; i++) data[ i] = ( byte) ( i * 31);
+		return data;
+	}
+}
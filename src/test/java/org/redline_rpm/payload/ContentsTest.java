@@ -3,6 +3,7 @@ package org.redline_rpm.payload;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -67,4 +68,49 @@ public class ContentsTest extends TestCase {
         assertThat(filemodes.get("/test"), is(73));
         assertThat(filemodes.get("/test/file.txt"), is(511));
     }
+
+	public void testParallelFileChecksums() throws Exception {
+		Contents contents = new Contents();
+		contents.addFile( "/etc/prein.sh", new File( "src/test/resources/prein.sh"));
+		contents.addFile( "/etc/postin.sh", new File( "src/test/resources/postin.sh"));
+		contents.addFile( "/opt/rpm-1.rpm", new File( "src/test/resources/rpm-1-1.0-1.noarch.rpm"));
+		contents.addFile( "/opt/rpm-3.rpm", new File( "src/test/resources/rpm-3-1.0-1.somearch.rpm"));
+		contents.addLink( "/opt/link", "/opt/rpm-1.rpm");
+
+		String[] expected = contents.getFileChecksums();
+		assertTrue( Arrays.equals( expected, contents.getFileChecksums( 3)));
+		assertTrue( Arrays.equals( expected, contents.getFileChecksums( 16)));
+	}
+
+	public void testFileTableMatchesColumns() throws Exception {
+		Contents contents = new Contents();
+		contents.addFile( "/etc/prein.sh", new File( "src/test/resources/prein.sh"));
+		contents.addFile( "/opt/app/lib/rpm-1.rpm", new File( "src/test/resources/rpm-1-1.0-1.noarch.rpm"));
+		contents.addFile( "/opt/app/postin.sh", new File( "src/test/resources/postin.sh"), 0755, null, "app", "app", -1);
+		contents.addDirectory( "/opt/app/data/");
+		contents.addLink( "/opt/app/link", "/opt/app/postin.sh");
+		contents.addLink( "/usr/bin/app", "/opt/app/postin.sh");
+
+		FileTable table = contents.getFileTable();
+		assertTrue( Arrays.equals( new String[] { "/etc/", "/opt/", "/opt/app/", "/opt/app/lib/", "/usr/bin/"}, table.getDirNames()));
+		assertTrue( Arrays.equals( contents.getDirNames(), table.getDirNames()));
+		assertTrue( Arrays.equals( new String[] { "prein.sh", "app", "data", "lib", "rpm-1.rpm", "link", "postin.sh", "app"}, table.getBaseNames()));
+		assertTrue( Arrays.equals( contents.getBaseNames(), table.getBaseNames()));
+		assertTrue( Arrays.equals( new int[] { 0, 1, 2, 2, 3, 2, 2, 4}, table.getDirIndexes()));
+		assertTrue( Arrays.equals( contents.getLongSizes(), table.getLongSizes()));
+		assertTrue( Arrays.equals( contents.getSizes(), table.getSizes()));
+		assertEquals( contents.getLongTotalSize(), table.getTotalSize());
+		assertTrue( Arrays.equals( contents.getModes(), table.getModes()));
+		assertTrue( Arrays.equals( contents.getRdevs(), table.getRdevs()));
+		assertTrue( Arrays.equals( contents.getMtimes(), table.getMtimes()));
+		assertTrue( Arrays.equals( contents.getLinkTos(), table.getLinkTos()));
+		assertTrue( Arrays.equals( contents.getFlags(), table.getFlags()));
+		assertTrue( Arrays.equals( contents.getUsers(), table.getUsers()));
+		assertTrue( Arrays.equals( contents.getGroups(), table.getGroups()));
+		assertTrue( Arrays.equals( contents.getVerifyFlags(), table.getVerifyFlags()));
+		assertTrue( Arrays.equals( contents.getDevices(), table.getDevices()));
+		assertTrue( Arrays.equals( contents.getInodes(), table.getInodes()));
+		assertTrue( Arrays.equals( contents.getLangs(), table.getLangs()));
+		assertTrue( Arrays.equals( contents.getContexts(), table.getContexts()));
+	}
 }
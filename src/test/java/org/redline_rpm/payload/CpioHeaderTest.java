@@ -0,0 +1,96 @@
+package org.redline_rpm.payload;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class CpioHeaderTest extends TestCase {
+
+	public void testRoundTrip() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		WritableByteChannel out = Channels.newChannel( bytes);
+		CpioHeader header = new CpioHeader( "./etc/file.conf");
+		header.setFileSize( 0xFFFFFFFFL);
+		long total = header.write( out, 0);
+		assertEquals( bytes.size(), total);
+
+		CpioHeader read = new CpioHeader();
+		assertEquals( total, read.read( Channels.newChannel( new ByteArrayInputStream( bytes.toByteArray())), 0));
+		assertEquals( "./etc/file.conf", read.getName());
+		assertEquals( 0xFFFFFFFFL, read.getFileSize());
+		assertFalse( read.isStripped());
+	}
+
+	public void testEncoding() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CpioHeader header = new CpioHeader( "./caf\u00e9");
+		header.setType( CpioHeader.FILE);
+		header.setPermissions( 0644);
+		header.setInode( 0xABCDEF);
+		header.setMtime( 1400000000000L);
+		header.setFileSize( 42);
+		assertEquals( 120, header.write( Channels.newChannel( bytes), 0));
+
+		String text = new String( bytes.toByteArray(), "UTF-8");
+		assertEquals( "070701" + "00abcdef" + "000081a4" + "00000000" + "00000000" + "00000001" + "53724e00"
+				+ "0000002a" + "00000009" + "00000001" + "00000000" + "00000000" + "00000008" + "00000000"
+				+ "./caf\u00e9\0\0\0", text);
+
+		CpioHeader read = new CpioHeader();
+		byte[] upper = text.toUpperCase().replace( "./CAF\u00c9", "./caf\u00e9").getBytes( "UTF-8");
+		assertEquals( 120, read.read( Channels.newChannel( new ByteArrayInputStream( upper)), 0));
+		assertEquals( "./caf\u00e9", read.getName());
+		assertEquals( 0xABCDEF, read.getInode());
+		assertEquals( 0100644, read.getMode());
+		assertEquals( 1400000000, read.getMtime());
+		assertEquals( 42, read.getFileSize());
+	}
+
+	public void testInvalidHexDigit() throws Exception {
+		byte[] bytes = new byte[ 110];
+		Arrays.fill( bytes, ( byte) '0');
+		System.arraycopy( "070701".getBytes( "US-ASCII"), 0, bytes, 0, 6);
+		bytes[ 10] = 'g';
+		try {
+			new CpioHeader().read( Channels.newChannel( new ByteArrayInputStream( bytes)), 0);
+			fail();
+		} catch ( IllegalStateException e) {
+		}
+	}
+
+	public void testLargeFileRequiresStrippedEntry() throws Exception {
+		CpioHeader header = new CpioHeader( "./large");
+		header.setFileSize( 0x100000000L);
+		try {
+			header.write( Channels.newChannel( new ByteArrayOutputStream()), 0);
+			fail();
+		} catch ( IllegalStateException e) {
+		}
+	}
+
+	public void testStrippedRoundTrip() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		WritableByteChannel out = Channels.newChannel( bytes);
+		long total = new CpioHeader( "./first").write( out, 0);
+		out.write( ByteBuffer.wrap( new byte[] { 1, 2, 3 }));
+		total += 3;
+		total = new CpioHeader().writeStripped( out, total, 7);
+		assertEquals( bytes.size(), total);
+		assertEquals( 0, ( total - 14) % 4);
+
+		ReadableByteChannel in = Channels.newChannel( new ByteArrayInputStream( bytes.toByteArray()));
+		long position = new CpioHeader().read( in, 0);
+		in.read( ByteBuffer.allocate( 3));
+		position += 3;
+		CpioHeader stripped = new CpioHeader();
+		assertEquals( total, stripped.read( in, position));
+		assertTrue( stripped.isStripped());
+		assertEquals( 7, stripped.getFileIndex());
+	}
+}
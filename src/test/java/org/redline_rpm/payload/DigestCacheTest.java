@@ -0,0 +1,104 @@
+package org.redline_rpm.payload;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class DigestCacheTest extends TestCase {
+
+	private File directory;
+
+	protected void setUp() throws Exception {
+		directory = new File( "target", "digestcache-" + getName());
+		if ( directory.isDirectory()) for ( File file : directory.listFiles()) file.delete();
+		directory.mkdirs();
+	}
+
+	public void testCachedDigestsMatch() throws Exception {
+		File one = write( "one.txt", "one", 10000);
+		File two = write( "two.txt", "two", 10000);
+		File cache = new File( directory, "digests");
+
+		Contents contents = contents( one, two);
+		String[] expected = contents.getFileChecksums();
+		contents.setDigestCache( new DigestCache( cache));
+		assertTrue( Arrays.equals( expected, contents.getFileChecksums( 2)));
+		assertTrue( cache.isFile());
+
+		DigestCache reloaded = new DigestCache( cache);
+		assertTrue( Arrays.asList( expected).contains( reloaded.get( DigestCache.identify( one))));
+		contents = contents( one, two);
+		contents.setDigestCache( reloaded);
+		assertTrue( Arrays.equals( expected, contents.getFileChecksums()));
+	}
+
+	public void testChangedFileIsNotServed() throws Exception {
+		File one = write( "one.txt", "one", 10000);
+		DigestCache cache = new DigestCache( new File( directory, "digests"));
+		DigestCache.Identity identity = DigestCache.identify( one);
+		cache.put( identity, "cafe");
+		assertEquals( "cafe", cache.get( identity));
+
+		write( "one.txt", "changed", 20000);
+		assertNull( cache.get( DigestCache.identify( one)));
+	}
+
+	public void testRecentlyModifiedFileIsNotCached() throws Exception {
+		File one = write( "one.txt", "one", 0);
+		DigestCache cache = new DigestCache( new File( directory, "digests"));
+		DigestCache.Identity identity = DigestCache.identify( one);
+		cache.put( identity, "cafe");
+		assertNull( cache.get( identity));
+	}
+
+	public void testLeastRecentlyUsedEvicted() throws Exception {
+		File cacheFile = new File( directory, "digests");
+		DigestCache cache = new DigestCache( cacheFile, 2);
+		File[] files = new File[ 3];
+		for ( int i = 0; i < files.length; i++) {
+			files[ i] = write( "file" + i, "content" + i, 10000);
+			cache.put( DigestCache.identify( files[ i]), "digest" + i);
+			Thread.sleep( 5);
+		}
+		cache.save();
+
+		DigestCache reloaded = new DigestCache( cacheFile, 2);
+		assertNull( reloaded.get( DigestCache.identify( files[ 0])));
+		assertEquals( "digest1", reloaded.get( DigestCache.identify( files[ 1])));
+		assertEquals( "digest2", reloaded.get( DigestCache.identify( files[ 2])));
+	}
+
+	public void testConcurrentSavesMerge() throws Exception {
+		File cacheFile = new File( directory, "digests");
+		File one = write( "one.txt", "one", 10000);
+		File two = write( "two.txt", "two", 10000);
+		DigestCache first = new DigestCache( cacheFile);
+		DigestCache second = new DigestCache( cacheFile);
+		first.put( DigestCache.identify( one), "aaaa");
+		second.put( DigestCache.identify( two), "bbbb");
+		first.save();
+		second.save();
+
+		DigestCache reloaded = new DigestCache( cacheFile);
+		assertEquals( "aaaa", reloaded.get( DigestCache.identify( one)));
+		assertEquals( "bbbb", reloaded.get( DigestCache.identify( two)));
+	}
+
+	private Contents contents( File one, File two) throws Exception {
+		Contents contents = new Contents();
+		contents.addFile( "/opt/one.txt", one);
+		contents.addFile( "/opt/two.txt", two);
+		return contents;
+	}
+
+	private File write( String name, String content, long age) throws Exception {
+		File file = new File( directory, name);
+		FileOutputStream out = new FileOutputStream( file);
+		out.write( content.getBytes( "UTF-8"));
+		out.close();
+		file.setLastModified( System.currentTimeMillis() - age);
+		return file;
+	}
+}
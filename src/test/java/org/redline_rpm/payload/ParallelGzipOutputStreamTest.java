@@ -0,0 +1,54 @@
+package org.redline_rpm.payload;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+public class ParallelGzipOutputStreamTest extends TestCase {
+
+	public void testRoundTrip() throws Exception {
+		byte[] data = sample( 1000 * 1000);
+		assertTrue( Arrays.equals( data, inflate( deflate( data, 4))));
+	}
+
+	public void testEmpty() throws Exception {
+		assertEquals( 0, inflate( deflate( new byte[ 0], 2)).length);
+	}
+
+	public void testDeterministicAcrossThreadCounts() throws Exception {
+		byte[] data = sample( 700 * 1000);
+		byte[] expected = deflate( data, 1);
+		assertTrue( Arrays.equals( expected, deflate( data, 2)));
+		assertTrue( Arrays.equals( expected, deflate( data, 8)));
+	}
+
+	private static byte[] sample( int length) {
+		byte[] data = new byte[ length];
+		Random random = new Random( 42);
+		for ( int i = 0; i < length; i++) data[ i] = ( byte) ( 'a' + random.nextInt( 8));
+		return data;
+	}
+
+	private static byte[] deflate( byte[] data, int threads) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ParallelGzipOutputStream gzip = new ParallelGzipOutputStream( out, Deflater.DEFAULT_COMPRESSION, threads);
+		for ( int offset = 0; offset < data.length; offset += 1000) gzip.write( data, offset, Math.min( 1000, data.length - offset));
+		gzip.finish();
+		return out.toByteArray();
+	}
+
+	private static byte[] inflate( byte[] data) throws Exception {
+		InputStream in = new GZIPInputStream( new ByteArrayInputStream( data));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[ 4096];
+		int read;
+		while (( read = in.read( buffer)) != -1) out.write( buffer, 0, read);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,63 @@
+package org.redline_rpm.payload;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.tukaani.xz.LZMA2Options;
+
+public class ParallelXzOutputStreamTest extends TestCase {
+
+	public void testRoundTrip() throws Exception {
+		byte[] data = sample( 3 * 1000 * 1000);
+		assertTrue( Arrays.equals( data, inflate( compress( data, 3))));
+	}
+
+	public void testEmpty() throws Exception {
+		assertEquals( 0, inflate( compress( new byte[ 0], 2)).length);
+	}
+
+	public void testDeterministicAcrossThreadCounts() throws Exception {
+		byte[] data = sample( 2500 * 1000);
+		byte[] expected = compress( data, 1);
+		assertTrue( Arrays.equals( expected, compress( data, 2)));
+		assertTrue( Arrays.equals( expected, compress( data, 4)));
+	}
+
+	private static byte[] sample( int length) {
+		byte[] data = new byte[ length];
+		Random random = new Random( 42);
+		for ( int i = 0; i < length; i++) data[ i] = ( byte) ( 'a' + random.nextInt( 8));
+		return data;
+	}
+
+	private static byte[] compress( byte[] data, int threads) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool( threads);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ParallelXzOutputStream xz = new ParallelXzOutputStream( out, new LZMA2Options( 1), 1024 * 1024, threads + 1, executor);
+			xz.write( data);
+			xz.close();
+			return out.toByteArray();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static byte[] inflate( byte[] data) throws Exception {
+		InputStream in = new XZCompressorInputStream( new ByteArrayInputStream( data));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[ 4096];
+		int read;
+		while (( read = in.read( buffer)) != -1) out.write( buffer, 0, read);
+		in.close();
+		return out.toByteArray();
+	}
+}
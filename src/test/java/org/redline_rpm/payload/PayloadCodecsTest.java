@@ -0,0 +1,54 @@
+package org.redline_rpm.payload;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.redline_rpm.header.PayloadCompressionType;
+
+public class PayloadCodecsTest extends TestCase {
+
+	public void testRoundTrip() throws Exception {
+		byte[] data = sample( 300 * 1000);
+		for ( PayloadCompressionType type : PayloadCompressionType.values()) {
+			PayloadCodec codec = PayloadCodecs.get( type);
+			assertEquals( type.name(), codec.getName());
+			assertTrue( type.name(), Arrays.equals( data, decompress( codec, compress( codec, data, 0))));
+			assertTrue( type.name(), Arrays.equals( data, decompress( codec, compress( codec, data, 2))));
+		}
+	}
+
+	public void testUnknown() throws Exception {
+		assertNull( PayloadCodecs.get( "lzip"));
+	}
+
+	private static byte[] sample( int length) {
+		byte[] data = new byte[ length];
+		Random random = new Random( 7);
+		for ( int i = 0; i < length; i++) data[ i] = ( byte) ( 'a' + random.nextInt( 8));
+		return data;
+	}
+
+	private static byte[] compress( PayloadCodec codec, byte[] data, int threads) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutputStream stream = codec.compress( out, codec.getDefaultLevel(), threads);
+		stream.write( data);
+		stream.close();
+		return out.toByteArray();
+	}
+
+	private static byte[] decompress( PayloadCodec codec, byte[] data) throws Exception {
+		InputStream in = codec.decompress( new ByteArrayInputStream( data));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[ 4096];
+		int read;
+		while (( read = in.read( buffer)) != -1) out.write( buffer, 0, read);
+		in.close();
+		return out.toByteArray();
+	}
+}